@@ -0,0 +1,125 @@
+package benchmark;
+
+import java.io.File;
+import java.util.Map;
+
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+
+import graph.GraphSink;
+import main.Option;
+import neo4j.DatabaseSink;
+import neo4j.TransactionManager;
+
+/**
+ * the sink a benchmark writes to: <code>"database"</code>, a new embedded
+ * store in a temporary directory written through transactions as by an import,
+ * or <code>"none"</code>, a sink discarding the writes
+ */
+class BenchmarkSink {
+
+	static final String DATABASE = "database";
+	static final String NONE = "none";
+
+	private final GraphSink sink;
+	private final File dir;
+	private final GraphDatabaseService db;
+	private final TransactionManager txManager;
+
+	/**
+	 * @param kind
+	 *            <code>DATABASE</code> or <code>NONE</code>
+	 */
+	BenchmarkSink(String kind) {
+		if (kind.equals(DATABASE)) {
+			dir = Benchmarks.createTempDirectory("bench-db");
+			db = new GraphDatabaseFactory().newEmbeddedDatabase(dir.getPath());
+			txManager = new TransactionManager(db, Option.TX_MAX_OPERATIONS, Option.TX_MAX_MEGABYTES);
+			txManager.begin();
+			sink = new DatabaseSink(db, txManager, true);
+		} else if (kind.equals(NONE)) {
+			dir = null;
+			db = null;
+			txManager = null;
+			sink = new DiscardingSink();
+		} else {
+			throw new IllegalArgumentException("Unknown sink " + kind);
+		}
+	}
+
+	GraphSink getSink() {
+		return sink;
+	}
+
+	/**
+	 * commit what is written, shut the store down and delete it
+	 */
+	void close() {
+		if (db == null) {
+			return;
+		}
+		try {
+			txManager.commit();
+		} finally {
+			txManager.close();
+			db.shutdown();
+			Benchmarks.deleteDirectory(dir);
+		}
+	}
+
+	/**
+	 * hands out ids and forgets the rest
+	 */
+	private static class DiscardingSink implements GraphSink {
+
+		private long nextId = 0;
+
+		@Override
+		public long createNode() {
+			return nextId++;
+		}
+
+		@Override
+		public void addLabel(long node, Label label) {
+		}
+
+		@Override
+		public void setProperty(long node, String key, Object value) {
+		}
+
+		@Override
+		public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+		}
+
+		@Override
+		public void deleteNode(long node) {
+		}
+
+		@Override
+		public void deleteRelationships(long node, RelationshipType type) {
+
+		}
+
+		@Override
+		public long findNode(Label label, String key, Object value) {
+			return -1;
+		}
+
+		@Override
+		public long findNode(Label label, String key, Object value, String project) {
+			return -1;
+		}
+
+		@Override
+		public boolean findsCreatedNodes() {
+			return false;
+		}
+
+		@Override
+		public void flush() {
+		}
+	}
+
+}
@@ -0,0 +1,70 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+import org.apache.log4j.Level;
+import org.apache.log4j.Logger;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * run the JMH microbenchmarks of the store hot paths
+ * <p>
+ * The benchmarks of this directory are compiled with the sources of the
+ * project, JMH (<code>jmh-core</code>) and its annotation processor
+ * (<code>jmh-generator-annprocess</code>) on the classpath, and run with:
+ *
+ * <pre>
+ * java -cp ... benchmark.Benchmarks [regex of the benchmarks] [result file]
+ * </pre>
+ *
+ * which writes the results as JSON (by default to
+ * <code>jmh-result.json</code>) to be compared between two builds.
+ * <code>org.openjdk.jmh.Main</code> takes the usual JMH options instead.
+ * <p>
+ * Every benchmark writing to Neo4j does it into a new store in a temporary
+ * directory, deleted after the trial, and most of them also run against a sink
+ * discarding the writes, which gives the cost of the code of the project
+ * alone.
+ */
+public class Benchmarks {
+
+	public static void main(String[] args) throws RunnerException {
+		String include = args.length > 0 ? args[0] : "benchmark\\..*Benchmark";
+		String result = args.length > 1 ? args[1] : "jmh-result.json";
+		Options options = new OptionsBuilder().include(include).resultFormat(ResultFormatType.JSON).result(result)
+				.build();
+		new Runner(options).run();
+	}
+
+	/**
+	 * keep the logging of each file and tree out of the measurements
+	 */
+	static void quietLogging() {
+		Logger.getRootLogger().setLevel(Level.WARN);
+	}
+
+	static File createTempDirectory(String prefix) {
+		try {
+			return Files.createTempDirectory(prefix).toFile();
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot create a temporary directory", e);
+		}
+	}
+
+	static void deleteDirectory(File dir) {
+		File[] children = dir.listFiles();
+		if (children != null) {
+			for (File child : children) {
+				deleteDirectory(child);
+			}
+		}
+		dir.delete();
+	}
+
+}
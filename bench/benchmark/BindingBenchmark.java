@@ -0,0 +1,84 @@
+package benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.core.dom.IBinding;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import graph.BindingNodeCreator;
+
+/**
+ * <code>BindingNodeCreator.getBindingNode()</code>, for a key already in the
+ * binding dictionary (<code>known</code>) and for a new one
+ * (<code>created</code>)
+ * <p>
+ * The known keys are looked up in turn, so with more keys than
+ * <code>Option.BINDING_CACHE_SIZE</code> the lookups go to the compact
+ * dictionary rather than to the cached strings. The new keys include the cost
+ * of building the key string.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BindingBenchmark {
+
+	@Param({ BenchmarkSink.NONE, BenchmarkSink.DATABASE })
+	public String sink;
+
+	@Param({ "1000", "100000" })
+	public int keys;
+
+	private BenchmarkSink benchmarkSink;
+	private BindingNodeCreator creator;
+	private long node;
+	private String[] knownKeys;
+	private int next;
+	private long created;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Benchmarks.quietLogging();
+		benchmarkSink = new BenchmarkSink(sink);
+		creator = new BindingNodeCreator(benchmarkSink.getSink());
+		node = benchmarkSink.getSink().createNode();
+		knownKeys = new String[keys];
+		for (int i = 0; i < keys; i++) {
+			knownKeys[i] = "Lsample/Type" + i + ";";
+			creator.getBindingNode(node, knownKeys[i], IBinding.TYPE, "Type" + i);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		benchmarkSink.close();
+	}
+
+	@Benchmark
+	public long known() {
+		String key = knownKeys[next];
+		next = next + 1 == keys ? 0 : next + 1;
+		return creator.getBindingNode(node, key, IBinding.TYPE, "Type");
+	}
+
+	@Benchmark
+	public long created() {
+		created++;
+		return creator.getBindingNode(node, "Lsample/New" + created + ";", IBinding.TYPE, "New");
+	}
+
+}
@@ -0,0 +1,353 @@
+package benchmark;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Properties;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import javax.tools.JavaCompiler;
+import javax.tools.ToolProvider;
+
+/**
+ * generate a synthetic java project of any size, for the import benchmark
+ * <p>
+ * Class <code>C<em>i</em></code> is in package
+ * <code>corpus.p<em>i / PACKAGE_SIZE</em></code> and extends class
+ * <code>C<em>(i - 1) / fanOut</em></code>, so the hierarchy is a tree of the
+ * given fan-out whose root extends a type of the first jar, if any. Every class
+ * implements the interface of its package, and has fields, methods whose
+ * statements nest loops and conditions to the given depth, calls to the
+ * methods of its superclass, of a class of another package and of the jars, so
+ * that every file has types and methods to bind across files.
+ * <p>
+ * The jars are compiled from generated library classes, which needs the
+ * system java compiler, i.e. a JDK. The project is the same for the same
+ * settings, which are written to <code>corpus.properties</code> in it.
+ */
+public class CorpusGenerator {
+
+	static final String SETTINGS_FILE = "corpus.properties";
+	private static final int PACKAGE_SIZE = 100;
+
+	private int files = 1000;
+	private int fields = 4;
+	private int methods = 6;
+	private int statements = 4;
+	private int depth = 2;
+	private int fanOut = 4;
+	private int jars = 2;
+
+	/**
+	 * @param files
+	 *            number of classes, one per file
+	 */
+	public CorpusGenerator files(int files) {
+		if (files < 1) {
+			throw new IllegalArgumentException("Number of files must be positive");
+		}
+		this.files = files;
+		return this;
+	}
+
+	/**
+	 * @param fields
+	 *            number of fields of each class, besides its references
+	 */
+	public CorpusGenerator fields(int fields) {
+		this.fields = fields;
+		return this;
+	}
+
+	/**
+	 * @param methods
+	 *            number of methods of each class, besides those of the
+	 *            interface and superclass
+	 */
+	public CorpusGenerator methods(int methods) {
+		this.methods = methods;
+		return this;
+	}
+
+	/**
+	 * @param statements
+	 *            number of statements of each block
+	 */
+	public CorpusGenerator statements(int statements) {
+		if (statements < 1) {
+			throw new IllegalArgumentException("Number of statements must be positive");
+		}
+		this.statements = statements;
+		return this;
+	}
+
+	/**
+	 * @param depth
+	 *            levels of blocks nested in a method body, which has
+	 *            <code>statements<sup>depth + 1</sup></code> statements at most
+	 */
+	public CorpusGenerator depth(int depth) {
+		this.depth = depth;
+		return this;
+	}
+
+	/**
+	 * @param fanOut
+	 *            number of subclasses of each class, or 0 for no inheritance
+	 *            between the classes; the hierarchy is
+	 *            <code>log<sub>fanOut</sub>(files)</code> deep, so a fan-out
+	 *            of 1 makes a chain as long as the project
+	 */
+	public CorpusGenerator fanOut(int fanOut) {
+		this.fanOut = fanOut;
+		return this;
+	}
+
+	/**
+	 * @param jars
+	 *            number of jar dependencies
+	 */
+	public CorpusGenerator jars(int jars) {
+		this.jars = jars;
+		return this;
+	}
+
+	/**
+	 * @return the settings, as written to <code>corpus.properties</code>
+	 */
+	public Properties getSettings() {
+		Properties settings = new Properties();
+		settings.setProperty("files", Integer.toString(files));
+		settings.setProperty("fields", Integer.toString(fields));
+		settings.setProperty("methods", Integer.toString(methods));
+		settings.setProperty("statements", Integer.toString(statements));
+		settings.setProperty("depth", Integer.toString(depth));
+		settings.setProperty("fanout", Integer.toString(fanOut));
+		settings.setProperty("jars", Integer.toString(jars));
+		return settings;
+	}
+
+	/**
+	 * @return short name of the settings, e.g.
+	 *         <code>f1000-m6-s4-d2-o4-j2-x4</code>
+	 */
+	public String getName() {
+		return String.format("f%d-m%d-s%d-d%d-o%d-j%d-x%d", files, methods, statements, depth, fanOut, jars, fields);
+	}
+
+	/**
+	 * @return whether <code>dir</code> holds a project generated with the
+	 *         same settings
+	 */
+	public boolean isGenerated(File dir) {
+		File file = new File(dir, SETTINGS_FILE);
+		if (!file.isFile()) {
+			return false;
+		}
+		Properties settings = new Properties();
+		try (InputStream in = new FileInputStream(file)) {
+			settings.load(in);
+		} catch (IOException e) {
+			return false;
+		}
+		return settings.equals(getSettings());
+	}
+
+	/**
+	 * generate the project into <code>dir</code>, which must not exist or be
+	 * empty
+	 *
+	 * @throws IOException
+	 *             if a file cannot be written
+	 * @throws IllegalStateException
+	 *             if there are jars to compile without a java compiler
+	 */
+	public void generate(File dir) throws IOException {
+		String[] existing = dir.list();
+		if (existing != null && existing.length > 0) {
+			throw new IllegalArgumentException("Directory not empty: " + dir);
+		}
+		File sourceDir = new File(dir, "src");
+		for (int k = 0; k < jars; k++) {
+			writeJar(new File(dir, "lib" + File.separator + "dep" + k + ".jar"), k);
+		}
+		int packages = (files + PACKAGE_SIZE - 1) / PACKAGE_SIZE;
+		for (int p = 0; p < packages; p++) {
+			File packageDir = new File(sourceDir, "corpus" + File.separator + "p" + p);
+			packageDir.mkdirs();
+			write(new File(packageDir, "I" + p + ".java"), interfaceSource(p));
+		}
+		for (int i = 0; i < files; i++) {
+			File packageDir = new File(sourceDir, "corpus" + File.separator + "p" + i / PACKAGE_SIZE);
+			write(new File(packageDir, "C" + i + ".java"), classSource(i));
+		}
+		try (FileOutputStream out = new FileOutputStream(new File(dir, SETTINGS_FILE))) {
+			getSettings().store(out, "synthetic project of CorpusGenerator");
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		try (Writer out = new BufferedWriter(
+				new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			out.write(content);
+		}
+	}
+
+	private static String interfaceSource(int p) {
+		return "package corpus.p" + p + ";\n\npublic interface I" + p + " {\n\n\tint apply(int x);\n\n"
+				+ "\tdefault String describe() {\n\t\treturn getClass().getName();\n\t}\n}\n";
+	}
+
+	// qualified name of class i
+	private static String className(int i) {
+		return "corpus.p" + i / PACKAGE_SIZE + ".C" + i;
+	}
+
+	private String classSource(int i) {
+		int p = i / PACKAGE_SIZE;
+		StringBuilder sb = new StringBuilder(4096);
+		sb.append("package corpus.p").append(p).append(";\n\n");
+		sb.append("import java.util.ArrayList;\nimport java.util.List;\n\n");
+		sb.append("/**\n * generated class ").append(i).append("\n */\n");
+		sb.append("public class C").append(i);
+		if (fanOut > 0 && i > 0) {
+			sb.append(" extends ").append(className((i - 1) / fanOut));
+		} else if (jars > 0) {
+			sb.append(" extends lib0.Base0");
+		}
+		sb.append(" implements I").append(p).append(" {\n\n");
+
+		// another class to call, in another package if there are several
+		int peer = (i + PACKAGE_SIZE + 1) % files;
+		sb.append("\tprivate final List<String> names = new ArrayList<>();\n");
+		sb.append("\tprivate ").append(className(peer)).append(" peer;\n");
+		for (int f = 0; f < fields; f++) {
+			sb.append("\tprotected int f").append(f).append(" = ").append(f * 31 + i % 17).append(";\n");
+		}
+		sb.append("\n\tpublic C").append(i).append("() {\n\t\tnames.add(\"C").append(i).append("\");\n\t}\n\n");
+
+		sb.append("\t@Override\n\tpublic int apply(int x) {\n\t\treturn x + names.size()");
+		if (fanOut > 0 && i > 0) {
+			sb.append(" + super.apply(x)");
+		}
+		sb.append(";\n\t}\n\n");
+
+		for (int m = 0; m < methods; m++) {
+			sb.append("\tpublic int m").append(m).append("(int a, String s) {\n");
+			sb.append("\t\tint r = a;\n");
+			block(sb, i, m, depth, 2);
+			sb.append("\t\treturn r;\n\t}\n\n");
+		}
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	// statements of a block, nesting blocks while depth is left
+	private void block(StringBuilder sb, int i, int m, int depth, int indent) {
+		for (int k = 0; k < statements; k++) {
+			int kind = (i + m + k + depth) % 6;
+			if (depth > 0 && kind < 3) {
+				tabs(sb, indent);
+				if (kind == 0) {
+					sb.append("for (int i").append(depth).append(" = 0; i").append(depth).append(" < a; i")
+							.append(depth).append("++) {\n");
+				} else if (kind == 1) {
+					sb.append("if (r % ").append(k + 2).append(" == 0) {\n");
+				} else {
+					sb.append("while (r > ").append(k * 10).append(") {\n");
+				}
+				block(sb, i, m, depth - 1, indent + 1);
+				if (kind == 2) {
+					tabs(sb, indent + 1);
+					sb.append("r /= 2;\n");
+				}
+				tabs(sb, indent);
+				sb.append("}\n");
+			} else {
+				statement(sb, i, m, k, indent);
+			}
+		}
+	}
+
+	private void statement(StringBuilder sb, int i, int m, int k, int indent) {
+		tabs(sb, indent);
+		switch ((i + k) % 5) {
+		case 0:
+			sb.append("r += s.length() * ").append(k + 1).append(";\n");
+			break;
+		case 1:
+			sb.append("if (peer != null) {\n");
+			tabs(sb, indent + 1);
+			sb.append("r += peer.m").append(m).append("(r, s);\n");
+			tabs(sb, indent);
+			sb.append("}\n");
+			break;
+		case 2:
+			if (jars > 0) {
+				int jar = (i + k) % jars;
+				sb.append("r = lib").append(jar).append(".Util").append(jar).append(".helper(r);\n");
+			} else {
+				sb.append("r = Math.abs(r);\n");
+			}
+			break;
+		case 3:
+			sb.append("names.add(s + r);\n");
+			break;
+		default:
+			sb.append("r = apply(r) ^ ").append(fields > 0 ? "f" + k % fields : "0").append(";\n");
+			break;
+		}
+	}
+
+	private static void tabs(StringBuilder sb, int indent) {
+		for (int t = 0; t < indent; t++) {
+			sb.append('\t');
+		}
+	}
+
+	private static void writeJar(File jar, int k) throws IOException {
+		JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
+		if (compiler == null) {
+			throw new IllegalStateException("No java compiler to build the jars, run on a JDK or with no jars");
+		}
+		File work = Benchmarks.createTempDirectory("corpus-lib");
+		try {
+			File sourceDir = new File(work, "lib" + k);
+			sourceDir.mkdirs();
+			File base = new File(sourceDir, "Base" + k + ".java");
+			File util = new File(sourceDir, "Util" + k + ".java");
+			write(base, "package lib" + k + ";\n\npublic abstract class Base" + k + " {\n\n"
+					+ "\tpublic int apply(int x) {\n\t\treturn x * " + (k + 2) + ";\n\t}\n}\n");
+			write(util, "package lib" + k + ";\n\npublic final class Util" + k + " {\n\n"
+					+ "\tpublic static int helper(int x) {\n\t\treturn x % " + (k + 7) + ";\n\t}\n}\n");
+			File classDir = new File(work, "classes");
+			classDir.mkdirs();
+			// class files of java 8, which any parser reads
+			int status = compiler.run(null, null, null, "-source", "1.8", "-target", "1.8", "-Xlint:-options",
+					"-proc:none", "-classpath", "", "-d", classDir.getPath(), base.getPath(), util.getPath());
+			if (status != 0) {
+				throw new IllegalStateException("Fail to compile the classes of " + jar);
+			}
+
+			jar.getParentFile().mkdirs();
+			try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar))) {
+				for (File file : new File(classDir, "lib" + k).listFiles()) {
+					out.putNextEntry(new JarEntry("lib" + k + "/" + file.getName()));
+					out.write(Files.readAllBytes(file.toPath()));
+					out.closeEntry();
+				}
+			}
+		} finally {
+			Benchmarks.deleteDirectory(work);
+		}
+	}
+
+}
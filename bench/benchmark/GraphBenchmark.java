@@ -0,0 +1,127 @@
+package benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ast.NodeFilter;
+import ast.Tree;
+import graph.BindingNodeCreator;
+import graph.Graph;
+
+/**
+ * <code>Graph.createNode()</code> and <code>Graph.addRelationship()</code>
+ * over all the nodes of a sample tree
+ * <p>
+ * <code>createNode</code> measures the label of the node class and the
+ * general labels found by the <code>instanceof</code> chain, plus the binding
+ * nodes if the tree has bindings. <code>addRelationship</code> measures the
+ * lookup of both ends and the relationship, once per child, the nodes being
+ * created before each invocation.
+ * <p>
+ * Against the database, the writes are committed every
+ * <code>Option.TX_MAX_OPERATIONS</code> operations as in an import, so a commit
+ * is timed with the benchmark whose write triggers it, which for
+ * <code>addRelationship</code> is mostly the untimed creation of the nodes.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBenchmark {
+
+	@Param({ BenchmarkSink.NONE, BenchmarkSink.DATABASE })
+	public String sink;
+
+	@Param({ "false", "true" })
+	public boolean bindings;
+
+	private SampleProject project;
+	private BenchmarkSink benchmarkSink;
+	private BindingNodeCreator bindingNodeCreator;
+	// every node of the tree, in preorder
+	private List<ASTNode> nodes;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Benchmarks.quietLogging();
+		project = new SampleProject(1, 8);
+		Tree tree = project.parse(bindings).get(0);
+		nodes = new ArrayList<>();
+		tree.root.accept(new ASTVisitor(true) {
+			@Override
+			public void preVisit(ASTNode node) {
+				nodes.add(node);
+			}
+		});
+		benchmarkSink = new BenchmarkSink(sink);
+		bindingNodeCreator = new BindingNodeCreator(benchmarkSink.getSink());
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		benchmarkSink.close();
+		project.delete();
+	}
+
+	private Graph newGraph() {
+		return new Graph(benchmarkSink.getSink(), new NodeFilter(), null, "bench", bindingNodeCreator);
+	}
+
+	/**
+	 * a graph holding the nodes of the tree, created again before each
+	 * invocation of <code>addRelationship</code>
+	 */
+	@State(Scope.Thread)
+	public static class CreatedNodes {
+
+		Graph graph;
+
+		@Setup(Level.Invocation)
+		public void createNodes(GraphBenchmark benchmark) {
+			graph = benchmark.newGraph();
+			for (ASTNode node : benchmark.nodes) {
+				graph.createNode(node);
+			}
+		}
+	}
+
+	@Benchmark
+	public Graph createNode() {
+		Graph graph = newGraph();
+		for (ASTNode node : nodes) {
+			graph.createNode(node);
+		}
+		return graph;
+	}
+
+	@Benchmark
+	public Graph addRelationship(CreatedNodes created) {
+		Graph graph = created.graph;
+		for (ASTNode node : nodes) {
+			if (node.getParent() != null) {
+				graph.addRelationship(node.getParent(), node, node.getLocationInParent().getId());
+			}
+		}
+		return graph;
+	}
+
+}
@@ -0,0 +1,330 @@
+package benchmark;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * import synthetic projects of increasing size end to end, and check the
+ * figures against a baseline
+ * <p>
+ * For each number of files, a project is generated by
+ * <code>CorpusGenerator</code> (or reused, if already generated in the work
+ * directory with the same settings) and imported into a new store by
+ * <code>main.Main</code>, in a JVM of its own started with the classpath of
+ * this one, so that the heap figures are those of the import alone. The
+ * figures are read from the metrics report of the import:
+ *
+ * <pre>
+ * files_per_second, nodes_per_second, relationships_per_second  (higher is better)
+ * elapsed_millis, peak_heap_bytes, store_bytes                 (lower is better)
+ * </pre>
+ *
+ * They are written as properties named after the corpus, e.g.
+ * <code>f1000-m6-s4-d2-o4-j2-x4.nodes_per_second</code>, to the result file,
+ * and compared with the same properties of the baseline file. A figure worse
+ * than the baseline by more than its threshold, a fraction given in the
+ * baseline as e.g. <code>threshold.nodes_per_second=0.15</code>, is a
+ * regression, and the benchmark exits with status 1. With
+ * <code>--record</code>, the figures are written into the baseline instead.
+ * <p>
+ * Usage:
+ *
+ * <pre>
+ * java -cp ... benchmark.ImportBenchmark [--files 1000,10000,...] [--fields n] [--methods n]
+ *     [--statements n] [--depth n] [--fanout n] [--jars n] [--work dir] [--heap 4g]
+ *     [--config key=value]... [--result file] [--baseline file [--record]]
+ * </pre>
+ *
+ * Projects of a million files take hours to generate and import, so keep
+ * them in a <code>--work</code> directory to run again.
+ */
+public class ImportBenchmark {
+
+	private static final String[] HIGHER_IS_BETTER = { "files_per_second", "nodes_per_second",
+			"relationships_per_second" };
+	private static final String[] LOWER_IS_BETTER = { "elapsed_millis", "peak_heap_bytes", "store_bytes" };
+	private static final double DEFAULT_THRESHOLD = 0.15;
+
+	private final List<Integer> fileCounts = new ArrayList<>();
+	private final CorpusGenerator generator = new CorpusGenerator();
+	private final List<String> config = new ArrayList<>();
+	private File workDir;
+	private boolean keepWork;
+	private String heap;
+	private File resultFile = new File("import-result.properties");
+	private File baselineFile;
+	private boolean record;
+
+	public static void main(String[] args) throws IOException, InterruptedException {
+		ImportBenchmark benchmark = new ImportBenchmark();
+		try {
+			benchmark.parseArguments(args);
+		} catch (IllegalArgumentException e) {
+			System.err.println(e.getMessage());
+			System.exit(2);
+		}
+		System.exit(benchmark.run() ? 0 : 1);
+	}
+
+	private void parseArguments(String[] args) {
+		for (int i = 0; i < args.length; i++) {
+			String arg = args[i];
+			if (arg.equals("--record")) {
+				record = true;
+				continue;
+			}
+			if (i + 1 == args.length) {
+				throw new IllegalArgumentException("Missing value of " + arg);
+			}
+			String value = args[++i];
+			if (arg.equals("--files")) {
+				for (String count : value.split(",")) {
+					fileCounts.add(Integer.parseInt(count.trim()));
+				}
+			} else if (arg.equals("--fields")) {
+				generator.fields(Integer.parseInt(value));
+			} else if (arg.equals("--methods")) {
+				generator.methods(Integer.parseInt(value));
+			} else if (arg.equals("--statements")) {
+				generator.statements(Integer.parseInt(value));
+			} else if (arg.equals("--depth")) {
+				generator.depth(Integer.parseInt(value));
+			} else if (arg.equals("--fanout")) {
+				generator.fanOut(Integer.parseInt(value));
+			} else if (arg.equals("--jars")) {
+				generator.jars(Integer.parseInt(value));
+			} else if (arg.equals("--work")) {
+				workDir = new File(value);
+				keepWork = true;
+			} else if (arg.equals("--heap")) {
+				heap = value;
+			} else if (arg.equals("--config")) {
+				config.add(value);
+			} else if (arg.equals("--result")) {
+				resultFile = new File(value);
+			} else if (arg.equals("--baseline")) {
+				baselineFile = new File(value);
+			} else {
+				throw new IllegalArgumentException("Unknown argument " + arg);
+			}
+		}
+		if (fileCounts.isEmpty()) {
+			fileCounts.add(1000);
+		}
+		if (record && baselineFile == null) {
+			throw new IllegalArgumentException("--record needs a --baseline file");
+		}
+	}
+
+	/**
+	 * @return whether no figure regressed
+	 */
+	private boolean run() throws IOException, InterruptedException {
+		if (workDir == null) {
+			workDir = Benchmarks.createTempDirectory("bench-import");
+		}
+		workDir.mkdirs();
+		Properties results = new Properties();
+		try {
+			for (int files : fileCounts) {
+				generator.files(files);
+				Map<String, Double> figures = importCorpus();
+				for (Map.Entry<String, Double> entry : figures.entrySet()) {
+					results.setProperty(generator.getName() + "." + entry.getKey(), format(entry.getValue()));
+				}
+			}
+		} finally {
+			if (!keepWork) {
+				Benchmarks.deleteDirectory(workDir);
+			}
+		}
+		store(results, resultFile, "figures of ImportBenchmark");
+		System.out.println("Results written to " + resultFile);
+
+		if (baselineFile == null) {
+			return true;
+		}
+		Properties baseline = load(baselineFile);
+		if (record) {
+			for (String name : results.stringPropertyNames()) {
+				baseline.setProperty(name, results.getProperty(name));
+			}
+			for (String metric : HIGHER_IS_BETTER) {
+				setDefault(baseline, "threshold." + metric);
+			}
+			for (String metric : LOWER_IS_BETTER) {
+				setDefault(baseline, "threshold." + metric);
+			}
+			store(baseline, baselineFile, "baseline of ImportBenchmark, recorded on the machine it is compared on;\n"
+					+ "# a threshold is the fraction a figure may worsen by");
+			System.out.println("Baseline written to " + baselineFile);
+			return true;
+		}
+		return compare(results, baseline);
+	}
+
+	private static void setDefault(Properties properties, String key) {
+		if (properties.getProperty(key) == null) {
+			properties.setProperty(key, format(DEFAULT_THRESHOLD));
+		}
+	}
+
+	// generate the corpus if needed, import it and read the figures
+	private Map<String, Double> importCorpus() throws IOException, InterruptedException {
+		String name = generator.getName();
+		File corpusDir = new File(workDir, "corpus-" + name);
+		if (!generator.isGenerated(corpusDir)) {
+			System.out.println("Generate " + name);
+			generator.generate(corpusDir);
+		}
+
+		File runDir = new File(workDir, "run-" + name);
+		if (runDir.exists()) {
+			Benchmarks.deleteDirectory(runDir);
+		}
+		runDir.mkdirs();
+		File databaseDir = new File(runDir, "db");
+		File report = new File(runDir, "metrics.json");
+		StringBuilder ini = new StringBuilder();
+		ini.append("database.directory=").append(databaseDir.getAbsolutePath()).append('\n');
+		ini.append("project.directory=").append(corpusDir.getAbsolutePath()).append('\n');
+		ini.append("metrics.jmx=false\n");
+		ini.append("metrics.report=").append(report.getAbsolutePath()).append('\n');
+		for (String line : config) {
+			ini.append(line).append('\n');
+		}
+		Files.write(new File(runDir, "config.ini").toPath(), ini.toString().getBytes(StandardCharsets.UTF_8));
+		Files.write(new File(runDir, "log4j.properties").toPath(),
+				("log4j.rootLogger=warn,console\nlog4j.appender.console=org.apache.log4j.ConsoleAppender\n"
+						+ "log4j.appender.console.layout=org.apache.log4j.PatternLayout\n"
+						+ "log4j.appender.console.layout.ConversionPattern=%-5p - %m%n\n")
+								.getBytes(StandardCharsets.UTF_8));
+
+		List<String> command = new ArrayList<>();
+		command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		if (heap != null) {
+			command.add("-Xmx" + heap);
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add("main.Main");
+		System.out.println("Import " + name);
+		Process process = new ProcessBuilder(command).directory(runDir)
+				.redirectErrorStream(true).redirectOutput(new File(runDir, "import.log")).start();
+		int status = process.waitFor();
+		if (status != 0 || !report.isFile()) {
+			throw new IllegalStateException("Import of " + name + " failed, see " + new File(runDir, "import.log"));
+		}
+
+		String json = new String(Files.readAllBytes(report.toPath()), StandardCharsets.UTF_8);
+		double elapsed = readNumber(json, "elapsed_millis");
+		Map<String, Double> figures = new LinkedHashMap<>();
+		figures.put("files_per_second", readNumber(json, "files") * 1000 / elapsed);
+		figures.put("nodes_per_second", readNumber(json, "nodes") * 1000 / elapsed);
+		figures.put("relationships_per_second", readNumber(json, "relationships") * 1000 / elapsed);
+		figures.put("elapsed_millis", elapsed);
+		figures.put("peak_heap_bytes", readNumber(json, "peak_used_bytes"));
+		figures.put("store_bytes", (double) sizeOf(databaseDir));
+		for (Map.Entry<String, Double> entry : figures.entrySet()) {
+			System.out.println(String.format(Locale.ROOT, "  %-26s %.1f", entry.getKey(), entry.getValue()));
+		}
+
+		if (!keepWork) {
+			Benchmarks.deleteDirectory(corpusDir);
+		}
+		Benchmarks.deleteDirectory(databaseDir);
+		return figures;
+	}
+
+	// the value of the first field of that name in the report
+	private static double readNumber(String json, String key) {
+		Matcher matcher = Pattern.compile("\"" + key + "\": (-?[0-9.]+)").matcher(json);
+		if (!matcher.find()) {
+			throw new IllegalStateException("No " + key + " in the metrics report");
+		}
+		return Double.parseDouble(matcher.group(1));
+	}
+
+	private static long sizeOf(File file) {
+		File[] children = file.listFiles();
+		if (children == null) {
+			return file.length();
+		}
+		long size = 0;
+		for (File child : children) {
+			size += sizeOf(child);
+		}
+		return size;
+	}
+
+	private static boolean compare(Properties results, Properties baseline) {
+		boolean passed = true;
+		for (String name : new TreeSet<>(results.stringPropertyNames())) {
+			String metric = name.substring(name.lastIndexOf('.') + 1);
+			String base = baseline.getProperty(name);
+			if (base == null) {
+				System.out.println(String.format("%-60s no baseline", name));
+				continue;
+			}
+			double value = Double.parseDouble(results.getProperty(name));
+			double expected = Double.parseDouble(base);
+			double threshold = Double.parseDouble(
+					baseline.getProperty("threshold." + metric, Double.toString(DEFAULT_THRESHOLD)));
+			boolean higherIsBetter = isHigherBetter(metric);
+			double change = expected == 0 ? 0 : (value - expected) / expected;
+			boolean regressed = higherIsBetter ? change < -threshold : change > threshold;
+			System.out.println(String.format(Locale.ROOT, "%-60s %14.1f %14.1f %+7.1f%% %s", name, expected, value,
+					change * 100, regressed ? "REGRESSION" : "ok"));
+			passed &= !regressed;
+		}
+		return passed;
+	}
+
+	private static boolean isHigherBetter(String metric) {
+		for (String m : HIGHER_IS_BETTER) {
+			if (m.equals(metric)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static String format(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	private static Properties load(File file) throws IOException {
+		Properties properties = new Properties();
+		if (file.isFile()) {
+			try (InputStream in = new FileInputStream(file)) {
+				properties.load(in);
+			}
+		}
+		return properties;
+	}
+
+	// sorted, with no date, so that a baseline kept in the repository diffs
+	// well
+	private static void store(Properties properties, File file, String comment) throws IOException {
+		StringBuilder sb = new StringBuilder();
+		sb.append("# ").append(comment).append('\n');
+		for (String name : new TreeSet<>(properties.stringPropertyNames())) {
+			sb.append(name).append('=').append(properties.getProperty(name)).append('\n');
+		}
+		Files.write(file.toPath(), sb.toString().getBytes(StandardCharsets.ISO_8859_1));
+	}
+
+}
@@ -0,0 +1,66 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ast.ASTCreator;
+import ast.Tree;
+
+/**
+ * parsing a sample file with <code>ASTCreator.createTree()</code>, with and
+ * without bindings
+ * <p>
+ * <code>createTree()</code> also reads, hashes and decodes the file, which is
+ * small next to the parse, and the file stays in the page cache.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ParseBenchmark {
+
+	@Param({ "false", "true" })
+	public boolean bindings;
+
+	private SampleProject project;
+	private ASTCreator creator;
+	private List<String> filepaths;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Benchmarks.quietLogging();
+		project = new SampleProject(8, 8);
+		creator = project.newASTCreator(bindings);
+		filepaths = project.getFilePaths();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		project.delete();
+	}
+
+	@Benchmark
+	public Tree createTree() {
+		String filepath = filepaths.get(next);
+		next = next + 1 == filepaths.size() ? 0 : next + 1;
+		return creator.createTree(filepath);
+	}
+
+}
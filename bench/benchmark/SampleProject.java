@@ -0,0 +1,133 @@
+package benchmark;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import ast.ASTCreator;
+import ast.ProjectScanner;
+import ast.Tree;
+
+/**
+ * a small project of representative java files in a temporary directory
+ * <p>
+ * Each file holds a class implementing an interface of the project, with
+ * fields, a constructor, a nested class and methods mixing the usual
+ * statements (loops, conditions, try/catch, calls, lambdas), so that a tree
+ * has a few hundred nodes of the common kinds, and types of the project and of
+ * the JDK to bind.
+ * <p>
+ * The methods implementing the interface are annotated with
+ * <code>@Override</code>, as in most code, so the annotations are among the
+ * modifiers <code>StoreVisitor</code> reads. It failed on them with a
+ * <code>ClassCastException</code> before the benchmarks were written.
+ */
+class SampleProject {
+
+	private final File dir;
+	private final List<String> filepaths = new ArrayList<>();
+
+	/**
+	 * @param files
+	 *            number of classes
+	 * @param methods
+	 *            number of methods of each class
+	 */
+	SampleProject(int files, int methods) {
+		dir = Benchmarks.createTempDirectory("bench-src");
+		File packageDir = new File(dir, "src/sample");
+		packageDir.mkdirs();
+		try {
+			write(new File(packageDir, "Shape.java"),
+					"package sample;\n\npublic interface Shape {\n\tdouble area();\n}\n");
+			for (int i = 0; i < files; i++) {
+				File file = new File(packageDir, "Sample" + i + ".java");
+				write(file, source(i, files, methods));
+				filepaths.add(file.getAbsolutePath());
+			}
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot write the sample project", e);
+		}
+	}
+
+	private static void write(File file, String content) throws IOException {
+		Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+	}
+
+	private static String source(int index, int files, int methods) {
+		String name = "Sample" + index;
+		String other = "Sample" + ((index + 1) % files);
+		StringBuilder sb = new StringBuilder();
+		sb.append("package sample;\n\n");
+		sb.append("import java.util.ArrayList;\nimport java.util.HashMap;\nimport java.util.List;\nimport java.util.Map;\n\n");
+		sb.append("/**\n * sample class ").append(index).append("\n */\n");
+		sb.append("public class ").append(name).append(" implements Shape {\n\n");
+		sb.append("\tprivate static final int LIMIT = ").append(index + 10).append(";\n");
+		sb.append("\tprivate final List<String> names = new ArrayList<>();\n");
+		sb.append("\tprivate final Map<String, Integer> counts = new HashMap<>();\n");
+		sb.append("\tprivate ").append(other).append(" next;\n");
+		sb.append("\tprivate double width;\n\n");
+		sb.append("\tpublic ").append(name).append("(double width) {\n\t\tthis.width = width;\n\t}\n\n");
+		sb.append("\t@Override\n\tpublic double area() {\n\t\treturn width * width;\n\t}\n\n");
+		for (int m = 0; m < methods; m++) {
+			sb.append("\t// method ").append(m).append("\n");
+			sb.append("\tpublic int method").append(m).append("(String prefix, int n) {\n");
+			sb.append("\t\tint total = 0;\n");
+			sb.append("\t\tfor (int i = 0; i < n && i < LIMIT; i++) {\n");
+			sb.append("\t\t\tString key = prefix + i;\n");
+			sb.append("\t\t\tif (counts.containsKey(key)) {\n");
+			sb.append("\t\t\t\ttotal += counts.get(key);\n");
+			sb.append("\t\t\t} else {\n");
+			sb.append("\t\t\t\tcounts.put(key, i * ").append(m + 1).append(");\n");
+			sb.append("\t\t\t\tnames.add(key);\n");
+			sb.append("\t\t\t}\n\t\t}\n");
+			sb.append("\t\ttry {\n");
+			sb.append("\t\t\ttotal += Integer.parseInt(prefix.trim());\n");
+			sb.append("\t\t} catch (NumberFormatException e) {\n");
+			sb.append("\t\t\ttotal = -total;\n");
+			sb.append("\t\t}\n");
+			sb.append("\t\tfinal int limit = total % 7 + 3;\n");
+			sb.append("\t\tnames.removeIf(s -> s.length() > limit);\n");
+			sb.append("\t\treturn next == null ? total : total + (int) next.area();\n");
+			sb.append("\t}\n\n");
+		}
+		sb.append("\tstatic class Entry {\n\t\tfinal String name;\n\t\tint value;\n\n");
+		sb.append("\t\tEntry(String name, int value) {\n\t\t\tthis.name = name;\n\t\t\tthis.value = value;\n\t\t}\n\t}\n");
+		sb.append("}\n");
+		return sb.toString();
+	}
+
+	List<String> getFilePaths() {
+		return filepaths;
+	}
+
+	/**
+	 * @param resolveBindings
+	 *            whether to parse with bindings
+	 * @return creator of the trees of the project, as an import would parse
+	 *         them
+	 */
+	ASTCreator newASTCreator(boolean resolveBindings) {
+		return new ASTCreator(new ProjectScanner(dir.getPath()), 1, "UTF-8", resolveBindings);
+	}
+
+	/**
+	 * @return the trees of the sample classes
+	 */
+	List<Tree> parse(boolean resolveBindings) {
+		ASTCreator creator = newASTCreator(resolveBindings);
+		List<Tree> trees = new ArrayList<>();
+		for (String filepath : filepaths) {
+			trees.add(creator.createTree(filepath));
+		}
+		return trees;
+	}
+
+	void delete() {
+		Benchmarks.deleteDirectory(dir);
+	}
+
+}
@@ -0,0 +1,80 @@
+package benchmark;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import ast.NodeFilter;
+import ast.Tree;
+import graph.BindingNodeCreator;
+import graph.Graph;
+
+/**
+ * <code>Graph.storeTree()</code>, i.e. the <code>StoreVisitor</code>
+ * traversal of a tree with everything it writes, one sample tree per
+ * invocation
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StoreVisitorBenchmark {
+
+	@Param({ BenchmarkSink.NONE, BenchmarkSink.DATABASE })
+	public String sink;
+
+	@Param({ "false", "true" })
+	public boolean bindings;
+
+	private SampleProject project;
+	private List<Tree> trees;
+	private BenchmarkSink benchmarkSink;
+	private BindingNodeCreator bindingNodeCreator;
+	private Graph graph;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+		Benchmarks.quietLogging();
+		project = new SampleProject(8, 8);
+		trees = project.parse(bindings);
+		benchmarkSink = new BenchmarkSink(sink);
+		bindingNodeCreator = new BindingNodeCreator(benchmarkSink.getSink());
+	}
+
+	// a new graph, so that the class nodes it keeps do not pile up
+	@Setup(Level.Iteration)
+	public void newGraph() {
+		graph = new Graph(benchmarkSink.getSink(), new NodeFilter(), null, "bench", bindingNodeCreator);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		benchmarkSink.close();
+		project.delete();
+	}
+
+	@Benchmark
+	public Graph storeTree() {
+		Tree tree = trees.get(next);
+		next = next + 1 == trees.size() ? 0 : next + 1;
+		graph.storeTree(tree);
+		return graph;
+	}
+
+}
@@ -1,17 +1,30 @@
 package ast;
 
-import java.io.BufferedReader;
 import java.io.File;
-import java.io.FileReader;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jdt.core.dom.AST;
 import org.eclipse.jdt.core.dom.ASTNode;
 import org.eclipse.jdt.core.dom.ASTParser;
+import org.eclipse.jdt.core.dom.CompilationUnit;
+import org.eclipse.jdt.core.dom.FileASTRequestor;
+
+import metrics.Metrics;
+import metrics.Phase;
 
 /**
  * create ASTs for all the java files under certain project
@@ -19,6 +32,35 @@ import org.eclipse.jdt.core.dom.ASTParser;
  * The <code>iterator()</code> method returns iterator of ASTs. Iterate through
  * it to get all the ASTs under the project. The iterator is lazy, that is, the
  * AST is not created until you call the <code>next()</code> method.
+ * <p>
+ * With a batch size greater than 1, <code>next()</code> compiles the next
+ * <code>batchSize</code> files at once through
+ * <code>ASTParser.createASTs()</code>, so that they share one binding
+ * environment, and library types are resolved once per batch instead of once
+ * per file. The iterator is then lazy batch by batch.
+ * <p>
+ * Each tree carries the path of its file relative to the project directory,
+ * and a hash of the file content, so that a file can be recognized as
+ * unchanged in a later run.
+ * <p>
+ * The project is scanned by a <code>ProjectScanner</code> when the creator is
+ * created.
+ * <p>
+ * Files are decoded in the encoding given, or else in the platform charset,
+ * unless they start with a byte order mark (see <code>SourceReader</code>).
+ * A batch is read by the parser itself, from the paths, so each file of a
+ * batch is read first to hash it and detect its encoding, which is handed to
+ * the parser, and the trees are the same as when the files are parsed one by
+ * one.
+ * <p>
+ * The files of a module of a multi-module project are parsed with the
+ * classpath and sourcepath of the module (see <code>ProjectModule</code>), the
+ * others with those of the whole project. A batch never spans two modules, so
+ * the modules are parsed independently of each other, and in parallel by a
+ * <code>ParallelASTCreator</code>.
+ * <p>
+ * Without binding resolution, the files are only parsed, which is several
+ * times faster, and no AST node has a binding.
  *
  */
 public class ASTCreator implements Iterator<Tree> {
@@ -28,130 +70,390 @@ public class ASTCreator implements Iterator<Tree> {
 	private String[] classpathEntries;
 	private String[] sourcepathEntries;
 
+	private final ProjectScanner scanner;
+	private String projectPrefix;
+	private List<String> directories;
+	private List<ProjectModule> modules;
+
+	// all the java files found when exploring, whatever is selected
+	private List<String> projectFiles;
 	private List<String> filepaths;
-	private Iterator<String> iter;
+	private Iterator<List<String>> iter;
+
+	private final int batchSize;
+	private final boolean resolveBindings;
+	private final SourceReader sourceReader;
+	private Iterator<Tree> batch = new TreeBatch(Collections.<Tree> emptyList());
 
 	public ASTCreator(String projectDirPath) {
-		PathExplorer explorer = PathExplorer.startExplore(projectDirPath);
-		classpathEntries = explorer.getClassPaths();
-		sourcepathEntries = explorer.getSourcePaths();
-		filepaths = explorer.getFilePaths();
-		iter = filepaths.iterator();
+		this(projectDirPath, 1);
+	}
+
+	/**
+	 * @param projectDirPath
+	 *            the project directory
+	 * @param batchSize
+	 *            number of files compiled together
+	 */
+	public ASTCreator(String projectDirPath, int batchSize) {
+		this(projectDirPath, batchSize, null);
+	}
+
+	/**
+	 * @param projectDirPath
+	 *            the project directory
+	 * @param batchSize
+	 *            number of files compiled together
+	 * @param encoding
+	 *            charset of the java files, or <code>null</code> for the
+	 *            platform charset
+	 */
+	public ASTCreator(String projectDirPath, int batchSize, String encoding) {
+		this(new ProjectScanner(projectDirPath), batchSize, encoding);
+	}
+
+	/**
+	 * @param scanner
+	 *            the scanner of the project, which is scanned at once
+	 * @param batchSize
+	 *            number of files compiled together
+	 * @param encoding
+	 *            charset of the java files, or <code>null</code> for the
+	 *            platform charset
+	 */
+	public ASTCreator(ProjectScanner scanner, int batchSize, String encoding) {
+		this(scanner, batchSize, encoding, true);
+	}
+
+	/**
+	 * @param scanner
+	 *            the scanner of the project, which is scanned at once
+	 * @param batchSize
+	 *            number of files compiled together
+	 * @param encoding
+	 *            charset of the java files, or <code>null</code> for the
+	 *            platform charset
+	 * @param resolveBindings
+	 *            whether to resolve the bindings of the ASTs
+	 */
+	public ASTCreator(ProjectScanner scanner, int batchSize, String encoding, boolean resolveBindings) {
+		if (batchSize < 1) {
+			throw new IllegalArgumentException("batch size must be positive");
+		}
+		this.scanner = scanner;
+		ProjectScanner.Listing listing = scanner.scan();
+		projectPrefix = scanner.getProjectDir() + File.separator;
+		classpathEntries = listing.getClassPaths();
+		sourcepathEntries = listing.getSourcePaths();
+		directories = listing.getDirectories();
+		modules = listing.getModules();
+		projectFiles = listing.getFilePaths();
+		filepaths = projectFiles;
+		this.batchSize = batchSize;
+		iter = batches();
+		this.resolveBindings = resolveBindings;
+		this.sourceReader = new SourceReader(encoding == null ? Charset.defaultCharset() : Charset.forName(encoding));
 	}
 
 	@Override
 	public boolean hasNext() {
-		return iter.hasNext();
+		return batch.hasNext() || iter.hasNext();
 	}
 
 	@Override
 	public Tree next() {
-		String filepath = iter.next();
-		String filename = filepath.substring(filepath.lastIndexOf(File.separator) + 1);
-		ASTNode root = createAST(filepath);
-		return new Tree(filename, root);
+		if (!batch.hasNext()) {
+			batch = new TreeBatch(createTrees(iter.next()));
+		}
+		return batch.next();
+	}
+
+	/**
+	 * @return absolute paths of the java files to create ASTs for
+	 */
+	public List<String> getFilePaths() {
+		return filepaths;
 	}
 
-	private ASTNode createAST(String filepath) {
+	public ProjectScanner getScanner() {
+		return scanner;
+	}
 
-		String program;
+	/**
+	 * @return absolute paths of all the directories explored for java files
+	 */
+	public List<String> getDirectories() {
+		return directories;
+	}
 
-		try {
-			program = readFromFile(filepath);
-		} catch (IOException e) {
-			throw new IllegalStateException("Cannot read from file " + filepath);
+	/**
+	 * @return the modules of the project, none if it is not a multi-module
+	 *         project
+	 */
+	public List<ProjectModule> getModules() {
+		return modules;
+	}
+
+	/**
+	 * @return the module the file is in, or <code>null</code> if none
+	 */
+	public ProjectModule getModule(String filepath) {
+		ProjectModule found = null;
+		for (ProjectModule module : modules) {
+			if (filepath.startsWith(module.getDirectory() + File.separator)
+					&& (found == null || module.getDirectory().length() > found.getDirectory().length())) {
+				found = module;
+			}
 		}
+		return found;
+	}
 
-		ASTParser parser = ASTParser.newParser(AST.JLS8);
+	/**
+	 * create ASTs for these java files next, which must not be called in the
+	 * middle of an iteration
+	 * <p>
+	 * The files need not be found when exploring the project. The classpath
+	 * and sourcepath stay those found when exploring.
+	 *
+	 * @param paths
+	 *            absolute paths of the selected files, in the order to create
+	 */
+	public void select(Collection<String> paths) {
+		filepaths = new ArrayList<>(paths);
+		iter = batches();
+	}
 
-		parser.setSource(program.toCharArray());
-		parser.setKind(ASTParser.K_COMPILATION_UNIT);
-		parser.setEnvironment(classpathEntries, sourcepathEntries, null, true);
-		parser.setUnitName(filepath);
-		parser.setResolveBindings(true);
+	/**
+	 * @return path of the file relative to the project directory
+	 */
+	public String getRelativePath(String filepath) {
+		if (filepath.startsWith(projectPrefix)) {
+			return filepath.substring(projectPrefix.length());
+		}
+		return filepath;
+	}
 
-		logger.info("Create AST for " + filepath);
-		return parser.createAST(null);
+	/**
+	 * @return the tree of the file without its AST, as when its graph is
+	 *         stored from elsewhere than its AST
+	 */
+	public Tree createUnparsedTree(String filepath, String hash) {
+		String filename = filepath.substring(filepath.lastIndexOf(File.separator) + 1);
+		Tree tree = new Tree(filename, getRelativePath(filepath), hash, null);
+		ProjectModule module = getModule(filepath);
+		tree.module = module == null ? null : module.getPath();
+		tree.resolved = resolveBindings;
+		return tree;
 	}
 
-	private String readFromFile(String path) throws IOException {
-		BufferedReader in = new BufferedReader(new FileReader(path));
-		StringBuilder sb = new StringBuilder();
-		String ls = System.getProperty("line.separator");
-		while (true) {
-			String line = in.readLine();
-			if (line == null) {
-				break;
+	/**
+	 * @return SHA-1 hash of the parser environment: the language level,
+	 *         whether bindings are resolved, and the path, size and
+	 *         modification time of each classpath and sourcepath entry, of the
+	 *         project and of each module, in hex
+	 *         <p>
+	 *         With bindings, the path and content hash of every java file of
+	 *         the project are included too: the bindings of a file depend on
+	 *         the other sources, whose changes do not show in the size or
+	 *         time of the sourcepath directories. Any change to the sources
+	 *         thus gives another environment.
+	 */
+	public String getEnvironmentHash() {
+		StringBuilder sb = new StringBuilder("JLS8");
+		if (!resolveBindings) {
+			sb.append("|syntax");
+		}
+		appendEntries(sb, classpathEntries, sourcepathEntries);
+		for (ProjectModule module : modules) {
+			sb.append('|').append(module.getPath());
+			appendEntries(sb, module.getClasspathEntries(), module.getSourcepathEntries());
+		}
+		if (resolveBindings) {
+			List<String> sources = new ArrayList<>(projectFiles);
+			Collections.sort(sources);
+			sb.append("|sources");
+			for (String filepath : sources) {
+				sb.append('|').append(getRelativePath(filepath)).append(',').append(getHash(filepath));
 			}
-			sb.append(line);
-			sb.append(ls);
 		}
-		in.close();
-		return sb.toString();
+		try {
+			return toHex(MessageDigest.getInstance("SHA-1").digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
 	}
 
-}
+	private static void appendEntries(StringBuilder sb, String[]... entryArrays) {
+		for (String[] entries : entryArrays) {
+			sb.append('|');
+			for (String entry : entries) {
+				File file = new File(entry);
+				sb.append(entry).append(',').append(file.length()).append(',').append(file.lastModified()).append(';');
+			}
+		}
+	}
 
-/**
- * get:
- * <li>all java files' filenames and paths</li>
- * <li>all the source directories's paths</li>
- * <li>all the binary files' paths</li> in a project
- *
- */
-class PathExplorer {
+	/**
+	 * @return SHA-1 hash of the file content, in hex
+	 */
+	public String getHash(String filepath) {
+		return hash(readBytes(filepath));
+	}
 
-	private List<String> filePaths = new ArrayList<String>();
-	private List<String> srcs = new ArrayList<String>();
-	private List<String> bins = new ArrayList<String>();
+	private static String hash(ByteBuffer bytes) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			digest.update(bytes.duplicate());
+			return toHex(digest.digest());
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
 
-	public static PathExplorer startExplore(String dirPath) {
-		return new PathExplorer(dirPath);
+	private static ByteBuffer readBytes(String filepath) {
+		try {
+			return SourceReader.readBytes(filepath);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot read from file " + filepath);
+		}
 	}
 
-	private PathExplorer(String dirPath) {
-		readDirectory(dirPath);
+	private static String toHex(byte[] bytes) {
+		StringBuilder sb = new StringBuilder(bytes.length * 2);
+		for (byte b : bytes) {
+			sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+			sb.append(Character.forDigit(b & 0xf, 16));
+		}
+		return sb.toString();
 	}
 
-	// recursively read all files under dirPath
-	private void readDirectory(String dirPath) {
+	int getBatchSize() {
+		return batchSize;
+	}
 
-		File dir = new File(dirPath);
+	/**
+	 * @return iterator of the files to create, cut into batches of at most
+	 *         <code>batchSize</code> files of one module
+	 */
+	Iterator<List<String>> batches() {
+		final Iterator<String> paths = filepaths.iterator();
+		return new Iterator<List<String>>() {
 
-		if (!dir.exists()) {
-			throw new IllegalStateException("Illegal Directory Path: " + dir.getAbsolutePath());
-		}
+			private String nextPath = paths.hasNext() ? paths.next() : null;
 
-		for (File subdir : dir.listFiles()) {
-			if (subdir.isDirectory()) {
-				if (subdir.getName().trim().equals("bin")) {
-					bins.add(subdir.getAbsolutePath());
-				} else if (subdir.getName().startsWith("src")) {
-					srcs.add(subdir.getAbsolutePath());
-				}
-				// recursively read subdirectories except bin/
-				if (!subdir.getName().startsWith("bin")) {
-					readDirectory(subdir.getPath());
-				}
-			} else {
-				if (subdir.getName().endsWith(".java")) {
-					filePaths.add(subdir.getAbsolutePath());
-				} else if (subdir.getName().endsWith(".jar")) {
-					bins.add(subdir.getAbsolutePath());
+			@Override
+			public boolean hasNext() {
+				return nextPath != null;
+			}
+
+			@Override
+			public List<String> next() {
+				if (nextPath == null) {
+					throw new NoSuchElementException();
 				}
+				ProjectModule module = getModule(nextPath);
+				List<String> batch = new ArrayList<>(batchSize);
+				do {
+					batch.add(nextPath);
+					nextPath = paths.hasNext() ? paths.next() : null;
+				} while (batch.size() < batchSize && nextPath != null && getModule(nextPath) == module);
+				return batch;
 			}
+		};
+	}
+
+	/**
+	 * create the trees of several files of one module, compiled together,
+	 * independently of the iteration
+	 * <p>
+	 * This method is thread-safe, every call uses its own parser.
+	 */
+	List<Tree> createTrees(List<String> paths) {
+		if (paths.size() == 1) {
+			List<Tree> trees = new ArrayList<>(1);
+			trees.add(createTree(paths.get(0)));
+			return trees;
+		}
+
+		ProjectModule module = getModule(paths.get(0));
+		for (String path : paths) {
+			if (getModule(path) != module) {
+				throw new IllegalArgumentException("Files of several modules: " + paths);
+			}
+		}
+		ASTParser parser = newParser(module);
+
+		// the parser reads the files itself, in the encoding detected here
+		long start = System.nanoTime();
+		final Map<String, String> hashes = new HashMap<>();
+		String[] encodings = new String[paths.size()];
+		for (int i = 0; i < encodings.length; i++) {
+			ByteBuffer bytes = readBytes(paths.get(i));
+			hashes.put(paths.get(i), hash(bytes));
+			encodings[i] = sourceReader.encoding(bytes);
 		}
+		Metrics.get().record(Phase.READ, start);
+
+		final List<Tree> trees = new ArrayList<>(paths.size());
+		FileASTRequestor requestor = new FileASTRequestor() {
+			@Override
+			public void acceptAST(String sourceFilePath, CompilationUnit ast) {
+				logger.info("Create AST for " + sourceFilePath);
+				Tree tree = createUnparsedTree(sourceFilePath, hashes.get(sourceFilePath));
+				tree.root = ast;
+				trees.add(tree);
+			}
+		};
+		start = System.nanoTime();
+		parser.createASTs(paths.toArray(new String[paths.size()]), encodings, new String[0], requestor, null);
+		Metrics.get().record(Phase.PARSE, start, paths.size());
+		return trees;
 	}
 
-	public List<String> getFilePaths() {
-		return filePaths;
+	/**
+	 * create the tree of one file, independently of the iteration
+	 * <p>
+	 * This method is thread-safe, every call uses its own parser.
+	 */
+	public Tree createTree(String filepath) {
+		long start = System.nanoTime();
+		ByteBuffer bytes = readBytes(filepath);
+		Tree tree = createUnparsedTree(filepath, hash(bytes));
+		char[] program;
+		try {
+			program = sourceReader.decode(bytes);
+		} catch (IOException e) {
+			throw new IllegalStateException("Cannot decode file " + filepath);
+		}
+		Metrics.get().record(Phase.READ, start);
+
+		start = System.nanoTime();
+		tree.root = createAST(filepath, program);
+		Metrics.get().record(Phase.PARSE, start);
+		return tree;
 	}
 
-	public String[] getSourcePaths() {
-		return srcs.toArray(new String[srcs.size()]);
+	private ASTNode createAST(String filepath, char[] program) {
+		ASTParser parser = newParser(getModule(filepath));
+
+		parser.setSource(program);
+		parser.setUnitName(filepath);
+
+		logger.info("Create AST for " + filepath);
+		return parser.createAST(null);
 	}
 
-	public String[] getClassPaths() {
-		return bins.toArray(new String[bins.size()]);
+	// parser in the environment of the module, or of the project if null
+	private ASTParser newParser(ProjectModule module) {
+		ASTParser parser = ASTParser.newParser(AST.JLS8);
+		parser.setKind(ASTParser.K_COMPILATION_UNIT);
+		if (module == null) {
+			parser.setEnvironment(classpathEntries, sourcepathEntries, null, true);
+		} else {
+			parser.setEnvironment(module.getClasspathEntries(), module.getSourcepathEntries(), null, true);
+		}
+		parser.setResolveBindings(resolveBindings);
+		return parser;
 	}
+
 }
@@ -0,0 +1,151 @@
+package ast;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.log4j.Logger;
+
+/**
+ * the rules of the <code>.gitignore</code> files of a directory and of its
+ * parents, up to the project directory
+ * <p>
+ * Rules are matched as git does, for the common forms: <code>#</code>
+ * comments, <code>!</code> negation, a trailing <code>/</code> for directories
+ * only, and patterns with a <code>/</code> anchored to the directory of their
+ * file while the others match a name at any depth. The last rule matching
+ * decides, the rules of a deeper file coming after those of its parents.
+ * <p>
+ * Instances are immutable, so they are shared by the directories scanned in
+ * parallel.
+ */
+class GitIgnore {
+
+	private static Logger logger = Logger.getLogger(GitIgnore.class);
+
+	static final GitIgnore NONE = new GitIgnore(null, null, new ArrayList<Rule>());
+
+	private final GitIgnore parent;
+	// directory of the file, relative to the project directory
+	private final Path base;
+	private final List<Rule> rules;
+
+	private static class Rule {
+		final PathMatcher matcher;
+		final boolean anchored;
+		final boolean negated;
+		final boolean directoryOnly;
+
+		Rule(PathMatcher matcher, boolean anchored, boolean negated, boolean directoryOnly) {
+			this.matcher = matcher;
+			this.anchored = anchored;
+			this.negated = negated;
+			this.directoryOnly = directoryOnly;
+		}
+	}
+
+	private GitIgnore(GitIgnore parent, Path base, List<Rule> rules) {
+		this.parent = parent;
+		this.base = base;
+		this.rules = rules;
+	}
+
+	/**
+	 * @param dir
+	 *            a directory, whose parent has these rules
+	 * @param relative
+	 *            the directory relative to the project directory
+	 * @return the rules of the directory, with its <code>.gitignore</code>
+	 *         file if any
+	 */
+	GitIgnore enter(Path dir, Path relative) {
+		Path file = dir.resolve(".gitignore");
+		if (!Files.isRegularFile(file)) {
+			return this;
+		}
+		List<Rule> rules = new ArrayList<>();
+		try {
+			for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+				Rule rule = parse(line);
+				if (rule != null) {
+					rules.add(rule);
+				}
+			}
+		} catch (IOException e) {
+			logger.warn("Cannot read " + file, e);
+			return this;
+		}
+		return rules.isEmpty() ? this : new GitIgnore(this, relative, rules);
+	}
+
+	/**
+	 * @param relative
+	 *            a file or directory under the project directory, relative to
+	 *            it
+	 */
+	boolean isIgnored(Path relative, boolean directory) {
+		Boolean ignored = match(relative, directory);
+		return ignored != null && ignored;
+	}
+
+	// whether the last rule matching ignores, or null if none matches
+	private Boolean match(Path relative, boolean directory) {
+		Boolean ignored = parent == null ? null : parent.match(relative, directory);
+		if (rules.isEmpty()) {
+			return ignored;
+		}
+		boolean top = base.toString().isEmpty();
+		if (!top && !relative.startsWith(base)) {
+			return ignored;
+		}
+		Path path = top ? relative : base.relativize(relative);
+		Path name = relative.getFileName();
+		for (Rule rule : rules) {
+			if (rule.directoryOnly && !directory) {
+				continue;
+			}
+			if (rule.matcher.matches(rule.anchored ? path : name)) {
+				ignored = !rule.negated;
+			}
+		}
+		return ignored;
+	}
+
+	private static Rule parse(String line) {
+		String pattern = line.trim();
+		if (pattern.isEmpty() || pattern.startsWith("#")) {
+			return null;
+		}
+		boolean negated = pattern.startsWith("!");
+		if (negated) {
+			pattern = pattern.substring(1);
+		}
+		boolean directoryOnly = pattern.endsWith("/");
+		if (directoryOnly) {
+			pattern = pattern.substring(0, pattern.length() - 1);
+		}
+		boolean anchored = pattern.contains("/");
+		if (pattern.startsWith("/")) {
+			pattern = pattern.substring(1);
+		}
+		if (pattern.isEmpty()) {
+			return null;
+		}
+		// "**/" also matches no directory at all
+		if (pattern.startsWith("**/")) {
+			pattern = "{" + pattern.substring(3) + "," + pattern + "}";
+		}
+		try {
+			PathMatcher matcher = FileSystems.getDefault().getPathMatcher("glob:" + pattern);
+			return new Rule(matcher, anchored, negated, directoryOnly);
+		} catch (IllegalArgumentException e) {
+			logger.warn("Ignore unsupported .gitignore pattern: " + line);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,301 @@
+package ast;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.log4j.Logger;
+
+/**
+ * find the modules of a project from its build files
+ * <p>
+ * A module is a directory with a <code>pom.xml</code>, a
+ * <code>build.gradle</code> or a <code>settings.gradle</code> (or their
+ * <code>.kts</code> variants), or a directory included by a
+ * <code>settings.gradle</code>. The build files are not run, only read for
+ * what the environment needs:
+ * <ul>
+ * <li>the <em>artifactId</em> of a <code>pom.xml</code>, and the
+ * <em>artifactId</em> of its dependencies, which are the modules of the project
+ * with these artifact ids
+ * <li>the <code>project(':path')</code> dependencies of a
+ * <code>build.gradle</code>, relative to the directory of the nearest
+ * <code>settings.gradle</code>
+ * <li>the <code>include</code> of a <code>settings.gradle</code>
+ * </ul>
+ * The sourcepath of a module is <code>src/main/java</code> and
+ * <code>src/test/java</code> if any, or else the directories named
+ * <code>src*</code> in it. Its classpath is made of the <code>bin</code>
+ * directories and jar files in it, not in a nested module.
+ */
+class ModuleDetector {
+
+	private static Logger logger = Logger.getLogger(ModuleDetector.class);
+
+	static final Set<String> BUILD_FILES = new LinkedHashSet<>(Arrays.asList("pom.xml", "build.gradle",
+			"build.gradle.kts", "settings.gradle", "settings.gradle.kts"));
+
+	private static final String[] SOURCE_ROOTS = { "src/main/java", "src/test/java" };
+
+	private static final Pattern XML_COMMENT = Pattern.compile("<!--.*?-->", Pattern.DOTALL);
+	private static final Pattern ARTIFACT_ID = Pattern.compile("<artifactId>\\s*([^<\\s]+)\\s*</artifactId>");
+	private static final Pattern DEPENDENCY = Pattern.compile("<dependency>(.*?)</dependency>", Pattern.DOTALL);
+	private static final Pattern GRADLE_PROJECT = Pattern
+			.compile("project\\s*\\(\\s*(?:path\\s*:\\s*)?['\"](:[^'\"]*)['\"]");
+	private static final Pattern GRADLE_INCLUDE = Pattern.compile("^\\s*include\\b(.*)$", Pattern.MULTILINE);
+	private static final Pattern QUOTED = Pattern.compile("['\"]([^'\"]+)['\"]");
+
+	private final Path projectDir;
+	private final ProjectScanner.Listing listing;
+
+	// modules by directory, in the order of the directories
+	private final Map<Path, ProjectModule> modules = new HashMap<>();
+	private final TreeSet<Path> moduleDirs = new TreeSet<>();
+
+	ModuleDetector(Path projectDir, ProjectScanner.Listing listing) {
+		this.projectDir = projectDir;
+		this.listing = listing;
+	}
+
+	/**
+	 * @return the modules found, ordered by directory, or none if the project
+	 *         has no build file
+	 */
+	List<ProjectModule> detect() {
+		for (String buildDir : listing.buildDirs) {
+			moduleDirs.add(Paths.get(buildDir));
+		}
+		for (Path dir : new ArrayList<>(moduleDirs)) {
+			for (String name : new String[] { "settings.gradle", "settings.gradle.kts" }) {
+				for (String include : readGradleIncludes(dir.resolve(name))) {
+					Path included = dir.resolve(include.replace(':', '/')).normalize();
+					if (included.startsWith(projectDir) && Files.isDirectory(included)) {
+						moduleDirs.add(included);
+					}
+				}
+			}
+		}
+
+		for (Path dir : moduleDirs) {
+			String build = Files.isRegularFile(dir.resolve("pom.xml")) ? "maven" : "gradle";
+			String name = dir.getFileName().toString();
+			if (build.equals("maven")) {
+				String artifactId = readArtifactId(dir.resolve("pom.xml"));
+				if (artifactId != null) {
+					name = artifactId;
+				}
+			}
+			modules.put(dir, new ProjectModule(name, projectDir.relativize(dir).toString(), dir.toString(), build));
+		}
+
+		List<String> unowned = new ArrayList<>();
+		addOwnEntries(unowned);
+		addDependencies();
+
+		List<ProjectModule> result = new ArrayList<>();
+		for (Path dir : moduleDirs) {
+			ProjectModule module = modules.get(dir);
+			setEnvironment(dir, module, unowned);
+			result.add(module);
+			logger.info(String.format("Module %s depends on %s", module, module.dependencies));
+		}
+		return result;
+	}
+
+	// the directory of the module a path is in, or null
+	private Path ownerOf(Path path) {
+		for (Path dir = path; dir != null && dir.startsWith(projectDir); dir = dir.getParent()) {
+			if (modules.containsKey(dir)) {
+				return dir;
+			}
+		}
+		return null;
+	}
+
+	private void addOwnEntries(List<String> unowned) {
+		for (Path dir : moduleDirs) {
+			ProjectModule module = modules.get(dir);
+			for (String root : SOURCE_ROOTS) {
+				Path sourceRoot = dir.resolve(root);
+				if (Files.isDirectory(sourceRoot)) {
+					module.sourcePaths.add(sourceRoot.toString());
+				}
+			}
+		}
+		for (String sourcePath : listing.sourcePaths) {
+			Path owner = ownerOf(Paths.get(sourcePath).getParent());
+			if (owner != null && !hasSourceRoots(owner)) {
+				modules.get(owner).sourcePaths.add(sourcePath);
+			}
+		}
+		for (String classPath : listing.classPaths) {
+			Path owner = ownerOf(Paths.get(classPath).getParent());
+			if (owner != null) {
+				modules.get(owner).classPaths.add(classPath);
+			} else {
+				unowned.add(classPath);
+			}
+		}
+	}
+
+	private boolean hasSourceRoots(Path dir) {
+		for (String root : SOURCE_ROOTS) {
+			if (Files.isDirectory(dir.resolve(root))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void addDependencies() {
+		Map<String, ProjectModule> byArtifactId = new HashMap<>();
+		for (ProjectModule module : modules.values()) {
+			if (module.getBuild().equals("maven")) {
+				byArtifactId.put(module.getName(), module);
+			}
+		}
+		for (Path dir : moduleDirs) {
+			ProjectModule module = modules.get(dir);
+			Set<ProjectModule> dependencies = new LinkedHashSet<>();
+			if (module.getBuild().equals("maven")) {
+				for (String artifactId : readDependencies(dir.resolve("pom.xml"))) {
+					ProjectModule dependency = byArtifactId.get(artifactId);
+					if (dependency != null) {
+						dependencies.add(dependency);
+					}
+				}
+			} else {
+				Path settingsDir = settingsDirOf(dir);
+				for (String name : new String[] { "build.gradle", "build.gradle.kts" }) {
+					for (String projectPath : readGradleProjects(dir.resolve(name))) {
+						Path dependencyDir = settingsDir.resolve(projectPath.substring(1).replace(':', '/')).normalize();
+						ProjectModule dependency = modules.get(dependencyDir);
+						if (dependency != null) {
+							dependencies.add(dependency);
+						}
+					}
+				}
+			}
+			dependencies.remove(module);
+			module.dependencies.addAll(dependencies);
+		}
+	}
+
+	// the nearest directory with a settings.gradle, or the project directory
+	private Path settingsDirOf(Path dir) {
+		for (Path d = dir; d != null && d.startsWith(projectDir); d = d.getParent()) {
+			if (Files.isRegularFile(d.resolve("settings.gradle")) || Files.isRegularFile(d.resolve("settings.gradle.kts"))) {
+				return d;
+			}
+		}
+		return projectDir;
+	}
+
+	private void setEnvironment(Path dir, ProjectModule module, List<String> unowned) {
+		Set<String> sourcepath = new LinkedHashSet<>(module.sourcePaths);
+		Set<String> classpath = new LinkedHashSet<>(module.classPaths);
+		for (ProjectModule dependency : dependenciesOf(module)) {
+			sourcepath.addAll(dependency.sourcePaths);
+			classpath.addAll(dependency.classPaths);
+		}
+		for (Path parent = dir.getParent(); parent != null && parent.startsWith(projectDir); parent = parent.getParent()) {
+			ProjectModule enclosing = modules.get(parent);
+			if (enclosing != null) {
+				classpath.addAll(enclosing.classPaths);
+			}
+		}
+		classpath.addAll(unowned);
+		module.sourcepathEntries = sourcepath.toArray(new String[sourcepath.size()]);
+		module.classpathEntries = classpath.toArray(new String[classpath.size()]);
+	}
+
+	// the modules a module depends on, directly or not
+	private static Collection<ProjectModule> dependenciesOf(ProjectModule module) {
+		Set<ProjectModule> visited = new LinkedHashSet<>();
+		List<ProjectModule> stack = new ArrayList<>(module.dependencies);
+		while (!stack.isEmpty()) {
+			ProjectModule dependency = stack.remove(stack.size() - 1);
+			if (dependency != module && visited.add(dependency)) {
+				stack.addAll(dependency.dependencies);
+			}
+		}
+		return visited;
+	}
+
+	private static String readArtifactId(Path pom) {
+		String xml = read(pom);
+		for (String block : new String[] { "parent", "dependencyManagement", "dependencies", "build", "profiles",
+				"reporting" }) {
+			xml = removeElements(xml, block);
+		}
+		Matcher m = ARTIFACT_ID.matcher(xml);
+		return m.find() ? m.group(1) : null;
+	}
+
+	private static List<String> readDependencies(Path pom) {
+		String xml = removeElements(removeElements(read(pom), "dependencyManagement"), "build");
+		List<String> artifactIds = new ArrayList<>();
+		Matcher m = DEPENDENCY.matcher(xml);
+		while (m.find()) {
+			Matcher id = ARTIFACT_ID.matcher(m.group(1));
+			if (id.find()) {
+				artifactIds.add(id.group(1));
+			}
+		}
+		return artifactIds;
+	}
+
+	private static List<String> readGradleProjects(Path buildFile) {
+		List<String> paths = new ArrayList<>();
+		if (Files.isRegularFile(buildFile)) {
+			Matcher m = GRADLE_PROJECT.matcher(read(buildFile));
+			while (m.find()) {
+				paths.add(m.group(1));
+			}
+		}
+		return paths;
+	}
+
+	// the project paths included, without their leading ':'
+	private static List<String> readGradleIncludes(Path settings) {
+		List<String> includes = new ArrayList<>();
+		if (Files.isRegularFile(settings)) {
+			Matcher m = GRADLE_INCLUDE.matcher(read(settings));
+			while (m.find()) {
+				Matcher quoted = QUOTED.matcher(m.group(1));
+				while (quoted.find()) {
+					String include = quoted.group(1);
+					includes.add(include.startsWith(":") ? include.substring(1) : include);
+				}
+			}
+		}
+		return includes;
+	}
+
+	private static String removeElements(String xml, String name) {
+		return xml.replaceAll("(?s)<" + name + ">.*?</" + name + ">", "");
+	}
+
+	private static String read(Path file) {
+		try {
+			String content = new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+			return XML_COMMENT.matcher(content).replaceAll("");
+		} catch (IOException e) {
+			logger.warn("Cannot read build file " + file, e);
+			return "";
+		}
+	}
+}
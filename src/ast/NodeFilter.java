@@ -0,0 +1,97 @@
+package ast;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.Comment;
+import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.Modifier;
+import org.eclipse.jdt.core.dom.PackageDeclaration;
+import org.eclipse.jdt.core.dom.QualifiedName;
+import org.eclipse.jdt.core.dom.SimpleType;
+import org.eclipse.jdt.core.dom.StructuralPropertyDescriptor;
+import org.eclipse.jdt.core.dom.TypeDeclaration;
+
+/**
+ * decides which AST nodes are stored in graph
+ * <p>
+ * <code>StoreVisitor</code> asks the filter before creating a node. A node
+ * not accepted is not created, and its subtree is not visited at all, so
+ * nothing is written for it.
+ * <p>
+ * By default, these nodes are not stored, as the properties of their parents
+ * already hold what they carry:
+ * <ul>
+ * <li>comments: <code>LineComment</code>, <code>BlockComment</code>, and
+ * <code>Javadoc</code> with its <code>TagElement</code>,
+ * <code>TextElement</code>, ... children
+ * <li><code>Modifier</code> nodes
+ * <li>the <em>NAME</em> child of <code>PackageDeclaration</code>,
+ * <code>TypeDeclaration</code>, <code>MethodDeclaration</code> and
+ * <code>SimpleType</code>, and the <em>QUALIFIER</em> and <em>NAME</em> children
+ * of <code>QualifiedName</code>
+ * </ul>
+ * <p>
+ * As the subtree of a node not accepted is skipped, a node is only stored
+ * with its parent, and never left without one. The name and modifier children
+ * stored when asked are linked to their parent by <em>NAME</em>,
+ * <em>QUALIFIER</em> or <em>MODIFIERS</em> relationships, while the
+ * comments stored are not linked.
+ */
+public class NodeFilter {
+
+	private final boolean comments;
+	private final boolean modifiers;
+	private final boolean nameChildren;
+
+	/**
+	 * the filter storing none of the nodes above
+	 */
+	public NodeFilter() {
+		this(false, false, false);
+	}
+
+	/**
+	 * @param comments
+	 *            whether to store comments
+	 * @param modifiers
+	 *            whether to store <code>Modifier</code> nodes
+	 * @param nameChildren
+	 *            whether to store the name children listed above
+	 */
+	public NodeFilter(boolean comments, boolean modifiers, boolean nameChildren) {
+		this.comments = comments;
+		this.modifiers = modifiers;
+		this.nameChildren = nameChildren;
+	}
+
+	/**
+	 * @return whether the node, and so its subtree, is stored
+	 */
+	public boolean accept(ASTNode node) {
+		if (node instanceof Comment) {
+			return comments;
+		}
+		if (node instanceof Modifier) {
+			return modifiers;
+		}
+		if (isNameChild(node.getLocationInParent())) {
+			return nameChildren;
+		}
+		return true;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("NodeFilter(comments=%b, modifiers=%b, nameChildren=%b)", comments, modifiers,
+				nameChildren);
+	}
+
+	private static boolean isNameChild(StructuralPropertyDescriptor location) {
+		return location == PackageDeclaration.NAME_PROPERTY
+				|| location == TypeDeclaration.NAME_PROPERTY
+				|| location == MethodDeclaration.NAME_PROPERTY
+				|| location == SimpleType.NAME_PROPERTY
+				|| location == QualifiedName.QUALIFIER_PROPERTY
+				|| location == QualifiedName.NAME_PROPERTY;
+	}
+
+}
@@ -0,0 +1,177 @@
+package ast;
+
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.log4j.Logger;
+
+import metrics.Metrics;
+import metrics.Phase;
+
+/**
+ * create ASTs for all the java files under certain project, with a pool of
+ * parser threads
+ * <p>
+ * Like <code>ASTCreator</code>, this is an iterator of ASTs, returned in the
+ * same order as <code>ASTCreator</code> does, so the single thread consuming
+ * it (usually storing the trees into a <code>Graph</code>) sees no difference.
+ * The files are parsed ahead by <code>parallelism</code> threads, but at most
+ * <code>capacity</code> trees are parsed or waiting to be consumed at any
+ * time, which bounds the heap used by pending ASTs.
+ * <p>
+ * Each thread parses <code>batchSize</code> files of one module at a time
+ * with a shared binding environment, see <code>ASTCreator</code>, so the
+ * modules of a project are parsed in parallel.
+ * <p>
+ * The parser threads are daemon threads and are shut down once the last tree
+ * is returned, or on <code>close()</code>.
+ */
+public class ParallelASTCreator implements Iterator<Tree> {
+
+	private static Logger logger = Logger.getLogger(ParallelASTCreator.class);
+
+	private final ASTCreator creator;
+	private final ExecutorService executor;
+	private final Iterator<List<String>> iter;
+	private final int capacity;
+	private final int batchSize;
+
+	// pending batches in file order
+	private Queue<Future<List<Tree>>> pending = new ArrayDeque<>();
+	private int pendingFiles = 0;
+	private Iterator<Tree> batch = new TreeBatch(Collections.<Tree> emptyList());
+
+	private AtomicLong parseNanos = new AtomicLong();
+	private long waitNanos = 0;
+
+	/**
+	 * @param creator
+	 *            creator of the files to parse, whose iteration has not begun
+	 * @param parallelism
+	 *            number of parser threads
+	 * @param capacity
+	 *            maximum number of trees parsed ahead of the consumer
+	 */
+	public ParallelASTCreator(ASTCreator creator, int parallelism, int capacity) {
+		if (parallelism < 1 || capacity < 1) {
+			throw new IllegalArgumentException("parallelism and capacity must be positive");
+		}
+		this.creator = creator;
+		this.executor = Executors.newFixedThreadPool(parallelism, new ParserThreadFactory());
+		this.iter = creator.batches();
+		this.capacity = capacity;
+		this.batchSize = creator.getBatchSize();
+		fill();
+	}
+
+	@Override
+	public boolean hasNext() {
+		if (!batch.hasNext() && pending.isEmpty()) {
+			close();
+			return false;
+		}
+		return true;
+	}
+
+	@Override
+	public Tree next() {
+		if (!batch.hasNext()) {
+			batch = new TreeBatch(takeBatch());
+		}
+		return batch.next();
+	}
+
+	private List<Tree> takeBatch() {
+		Future<List<Tree>> future = pending.poll();
+		if (future == null) {
+			throw new NoSuchElementException();
+		}
+
+		long start = System.nanoTime();
+		List<Tree> trees;
+		try {
+			trees = future.get();
+		} catch (InterruptedException e) {
+			close();
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while waiting for parser", e);
+		} catch (ExecutionException e) {
+			close();
+			throw new IllegalStateException("Parser failed", e.getCause());
+		}
+		waitNanos += System.nanoTime() - start;
+		Metrics.get().record(Phase.PARSE_WAIT, start);
+		pendingFiles -= trees.size();
+
+		fill();
+		return trees;
+	}
+
+	/**
+	 * stop the parser threads, discarding the trees not yet consumed
+	 */
+	public void close() {
+		for (Future<List<Tree>> future : pending) {
+			future.cancel(true);
+		}
+		pending.clear();
+		executor.shutdownNow();
+	}
+
+	// submit batches until capacity trees are pending
+	private void fill() {
+		while ((pending.isEmpty() || pendingFiles + batchSize <= capacity) && iter.hasNext()) {
+			final List<String> paths = iter.next();
+			pendingFiles += paths.size();
+			pending.add(executor.submit(new Callable<List<Tree>>() {
+				@Override
+				public List<Tree> call() {
+					long start = System.nanoTime();
+					List<Tree> trees = creator.createTrees(paths);
+					parseNanos.addAndGet(System.nanoTime() - start);
+					return trees;
+				}
+			}));
+		}
+	}
+
+	/**
+	 * @return time spent parsing, summed over all parser threads
+	 */
+	public double getParseMillis() {
+		return parseNanos.get() / 1e6;
+	}
+
+	/**
+	 * @return time the consumer spent waiting for the parsers
+	 */
+	public double getWaitMillis() {
+		return waitNanos / 1e6;
+	}
+
+	private static class ParserThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, "parser-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			logger.debug("Start " + thread.getName());
+			return thread;
+		}
+	}
+
+}
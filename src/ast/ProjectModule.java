@@ -0,0 +1,88 @@
+package ast;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * a module of a multi-module Maven or Gradle project, i.e. a directory with a
+ * build file, and the environment its java files are parsed in
+ * <p>
+ * The java files of a module are those under its directory but not under a
+ * module nested in it. They are parsed with the sourcepath of the module and
+ * of the modules it depends on, and with the classpath of the module, of the
+ * modules it depends on and of the modules it is nested in (see
+ * <code>ModuleDetector</code>).
+ */
+public class ProjectModule {
+
+	private final String name;
+	private final String path;
+	private final String directory;
+	private final String build;
+
+	// own entries, before adding those of other modules
+	final List<String> sourcePaths = new ArrayList<>();
+	final List<String> classPaths = new ArrayList<>();
+	final List<ProjectModule> dependencies = new ArrayList<>();
+
+	String[] sourcepathEntries = new String[0];
+	String[] classpathEntries = new String[0];
+
+	ProjectModule(String name, String path, String directory, String build) {
+		this.name = name;
+		this.path = path;
+		this.directory = directory;
+		this.build = build;
+	}
+
+	/**
+	 * @return the artifact id of a Maven module, or else the name of the
+	 *         directory
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return path of the module directory relative to the project directory,
+	 *         empty for the project directory
+	 */
+	public String getPath() {
+		return path;
+	}
+
+	/**
+	 * @return absolute path of the module directory
+	 */
+	public String getDirectory() {
+		return directory;
+	}
+
+	/**
+	 * @return <code>maven</code> or <code>gradle</code>
+	 */
+	public String getBuild() {
+		return build;
+	}
+
+	/**
+	 * @return the modules of the project this module directly depends on
+	 */
+	public List<ProjectModule> getDependencies() {
+		return Collections.unmodifiableList(dependencies);
+	}
+
+	public String[] getSourcepathEntries() {
+		return sourcepathEntries;
+	}
+
+	public String[] getClasspathEntries() {
+		return classpathEntries;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%s(%s)", name, path.isEmpty() ? "." : path);
+	}
+}
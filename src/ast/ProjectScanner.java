@@ -0,0 +1,339 @@
+package ast;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import org.apache.log4j.Logger;
+
+import metrics.Metrics;
+import metrics.Phase;
+
+/**
+ * find the java files of a project, and the classpath and sourcepath to parse
+ * them with
+ * <p>
+ * Directories are listed in parallel on a fork/join pool, one task for each
+ * directory. The results are merged in the order of the names, so a scan
+ * always gives the files in the same order.
+ * <p>
+ * A directory is not explored if its name is one of the skipped names (by
+ * default <code>target</code>, <code>build</code>, <code>node_modules</code>
+ * and <code>.git</code>), or starts with <code>bin</code>, or if it is
+ * excluded or ignored by a <code>.gitignore</code> file. A java file is found
+ * if it matches an include pattern (any file when there is none) and is
+ * neither excluded nor ignored. Patterns are globs on the path relative to the
+ * project directory, e.g. <code>src/main/**</code>.
+ * <p>
+ * The classpath is made of the <code>bin</code> directories and the jar
+ * files, and the sourcepath of the directories whose name starts with
+ * <code>src</code>, all of them even if excluded or ignored, so that bindings
+ * to them still resolve. Symbolic links to directories are not followed.
+ * <p>
+ * With modules, a scan of the whole project also finds its Maven or Gradle
+ * modules (see <code>ModuleDetector</code>), each with its own classpath and
+ * sourcepath.
+ */
+public class ProjectScanner {
+
+	private static Logger logger = Logger.getLogger(ProjectScanner.class);
+
+	public static final List<String> DEFAULT_SKIPPED = Collections
+			.unmodifiableList(Arrays.asList("target", "build", "node_modules", ".git"));
+
+	private final Path projectDir;
+	private final List<PathMatcher> includes = new ArrayList<>();
+	private final List<PathMatcher> excludes = new ArrayList<>();
+	private final Set<String> skipped;
+	private final boolean gitignore;
+	private final boolean modules;
+	private final int parallelism;
+
+	// rules by directory relative to the project directory, for the checks
+	// outside a scan
+	private final ConcurrentMap<Path, GitIgnore> ignores = new ConcurrentHashMap<>();
+
+	public ProjectScanner(String projectDirPath) {
+		this(projectDirPath, Collections.<String> emptyList(), Collections.<String> emptyList(), DEFAULT_SKIPPED,
+				true, true, Runtime.getRuntime().availableProcessors());
+	}
+
+	/**
+	 * @param includes
+	 *            globs of the java files to find, or none for all
+	 * @param excludes
+	 *            globs of the files and directories not to find
+	 * @param skipped
+	 *            names of the directories not to explore
+	 * @param gitignore
+	 *            whether to honor <code>.gitignore</code> files
+	 * @param modules
+	 *            whether to find the modules of the project
+	 * @param parallelism
+	 *            number of threads listing directories
+	 */
+	public ProjectScanner(String projectDirPath, Collection<String> includes, Collection<String> excludes,
+			Collection<String> skipped, boolean gitignore, boolean modules, int parallelism) {
+		this.projectDir = Paths.get(projectDirPath).toAbsolutePath().normalize();
+		if (!Files.isDirectory(projectDir)) {
+			throw new IllegalStateException("Illegal Directory Path: " + projectDir);
+		}
+		for (String glob : includes) {
+			this.includes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		}
+		for (String glob : excludes) {
+			this.excludes.add(FileSystems.getDefault().getPathMatcher("glob:" + glob));
+		}
+		this.skipped = new HashSet<>(skipped);
+		this.gitignore = gitignore;
+		this.modules = modules;
+		this.parallelism = Math.max(1, parallelism);
+	}
+
+	/**
+	 * the java files, directories, classpath and sourcepath found under a
+	 * directory, and the modules of the project
+	 */
+	public static class Listing {
+
+		private final List<String> filePaths = new ArrayList<>();
+		private final List<String> directories = new ArrayList<>();
+		final List<String> sourcePaths = new ArrayList<>();
+		final List<String> classPaths = new ArrayList<>();
+		// directories with a build file
+		final List<String> buildDirs = new ArrayList<>();
+		private List<ProjectModule> modules = Collections.emptyList();
+
+		private void addAll(Listing other) {
+			filePaths.addAll(other.filePaths);
+			directories.addAll(other.directories);
+			sourcePaths.addAll(other.sourcePaths);
+			classPaths.addAll(other.classPaths);
+			buildDirs.addAll(other.buildDirs);
+		}
+
+		/**
+		 * @return absolute paths of the java files
+		 */
+		public List<String> getFilePaths() {
+			return filePaths;
+		}
+
+		/**
+		 * @return absolute paths of the directories explored
+		 */
+		public List<String> getDirectories() {
+			return directories;
+		}
+
+		public String[] getSourcePaths() {
+			return sourcePaths.toArray(new String[sourcePaths.size()]);
+		}
+
+		public String[] getClassPaths() {
+			return classPaths.toArray(new String[classPaths.size()]);
+		}
+
+		/**
+		 * @return the modules of the project ordered by directory, none if it
+		 *         has no build file or is not scanned as a whole
+		 */
+		public List<ProjectModule> getModules() {
+			return modules;
+		}
+	}
+
+	/**
+	 * @return absolute path of the project directory
+	 */
+	public String getProjectDir() {
+		return projectDir.toString();
+	}
+
+	/**
+	 * scan the whole project
+	 */
+	public Listing scan() {
+		Listing listing = scan(projectDir.toString());
+		if (modules && !listing.buildDirs.isEmpty()) {
+			listing.modules = Collections.unmodifiableList(new ModuleDetector(projectDir, listing).detect());
+			logger.info(String.format("Find %d modules", listing.modules.size()));
+		}
+		return listing;
+	}
+
+	/**
+	 * scan a directory of the project, which is explored even if it would
+	 * not be from its parent
+	 */
+	public Listing scan(String dirPath) {
+		long start = System.nanoTime();
+		Path dir = Paths.get(dirPath).toAbsolutePath().normalize();
+		ForkJoinPool pool = new ForkJoinPool(parallelism);
+		Listing listing;
+		try {
+			listing = pool.invoke(new DirectoryTask(dir, ignoreOf(dir)));
+		} finally {
+			pool.shutdown();
+		}
+		logger.info(String.format("Scan %s: %d java files in %d directories in %.0f ms", dir,
+				listing.filePaths.size(), listing.directories.size(), (System.nanoTime() - start) / 1e6));
+		Metrics.get().record(Phase.SCAN, start);
+		return listing;
+	}
+
+	/**
+	 * @return whether a java file would be found by a scan, its directory
+	 *         being explored
+	 */
+	public boolean acceptsFile(String filepath) {
+		Path file = Paths.get(filepath).toAbsolutePath().normalize();
+		if (!file.startsWith(projectDir) || !file.getFileName().toString().endsWith(".java")) {
+			return false;
+		}
+		return acceptsFile(file, ignoreOf(file.getParent()));
+	}
+
+	/**
+	 * @return whether a directory would be explored by a scan, its parent
+	 *         being explored
+	 */
+	public boolean acceptsDirectory(String dirPath) {
+		Path dir = Paths.get(dirPath).toAbsolutePath().normalize();
+		if (!dir.startsWith(projectDir)) {
+			return false;
+		}
+		return dir.equals(projectDir) || acceptsDirectory(dir, ignoreOf(dir.getParent()));
+	}
+
+	private boolean acceptsFile(Path file, GitIgnore ignore) {
+		Path relative = projectDir.relativize(file);
+		if (!includes.isEmpty() && !matches(includes, relative)) {
+			return false;
+		}
+		return !matches(excludes, relative) && !ignore.isIgnored(relative, false);
+	}
+
+	private boolean acceptsDirectory(Path dir, GitIgnore ignore) {
+		String name = dir.getFileName().toString();
+		if (skipped.contains(name) || name.startsWith("bin")) {
+			return false;
+		}
+		Path relative = projectDir.relativize(dir);
+		return !matches(excludes, relative) && !ignore.isIgnored(relative, true);
+	}
+
+	private static boolean matches(List<PathMatcher> matchers, Path path) {
+		for (PathMatcher matcher : matchers) {
+			if (matcher.matches(path)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	// rules of a directory of the project, read from the project directory
+	// down to it the first time
+	private GitIgnore ignoreOf(Path dir) {
+		if (!gitignore) {
+			return GitIgnore.NONE;
+		}
+		Path relative = projectDir.relativize(dir);
+		GitIgnore ignore = ignores.get(relative);
+		if (ignore != null) {
+			return ignore;
+		}
+		GitIgnore parent = dir.equals(projectDir) ? GitIgnore.NONE : ignoreOf(dir.getParent());
+		ignore = parent.enter(dir, relative);
+		GitIgnore previous = ignores.putIfAbsent(relative, ignore);
+		return previous == null ? ignore : previous;
+	}
+
+	private class DirectoryTask extends RecursiveTask<Listing> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Path dir;
+		private final GitIgnore ignore;
+
+		DirectoryTask(Path dir, GitIgnore ignore) {
+			this.dir = dir;
+			this.ignore = ignore;
+		}
+
+		@Override
+		protected Listing compute() {
+			Listing listing = new Listing();
+			listing.directories.add(dir.toString());
+
+			List<Path> children = new ArrayList<>();
+			try (DirectoryStream<Path> stream = Files.newDirectoryStream(dir)) {
+				for (Path child : stream) {
+					children.add(child);
+				}
+			} catch (IOException e) {
+				logger.warn("Cannot list directory " + dir, e);
+				return listing;
+			}
+			Collections.sort(children);
+
+			// the listing of each child in order, subdirectories being forked
+			List<Object> parts = new ArrayList<>(children.size());
+			boolean buildDir = false;
+			for (Path child : children) {
+				String name = child.getFileName().toString();
+				if (ModuleDetector.BUILD_FILES.contains(name)) {
+					buildDir = true;
+				}
+				if (Files.isDirectory(child, LinkOption.NOFOLLOW_LINKS)) {
+					if (name.trim().equals("bin")) {
+						listing.classPaths.add(child.toString());
+					} else if (name.startsWith("src")) {
+						listing.sourcePaths.add(child.toString());
+					}
+					if (acceptsDirectory(child, ignore)) {
+						GitIgnore childIgnore = gitignore ? ignore.enter(child, projectDir.relativize(child)) : ignore;
+						DirectoryTask task = new DirectoryTask(child, childIgnore);
+						task.fork();
+						parts.add(task);
+					}
+				} else if (name.endsWith(".java")) {
+					if (acceptsFile(child, ignore)) {
+						parts.add(child.toString());
+					}
+				} else if (name.endsWith(".jar")) {
+					listing.classPaths.add(child.toString());
+				}
+			}
+
+			if (buildDir) {
+				listing.buildDirs.add(dir.toString());
+			}
+			for (Object part : parts) {
+				if (part instanceof DirectoryTask) {
+					listing.addAll(((DirectoryTask) part).join());
+				} else {
+					listing.filePaths.add((String) part);
+				}
+			}
+			return listing;
+		}
+	}
+
+}
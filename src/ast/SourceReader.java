@@ -0,0 +1,117 @@
+package ast;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * read java files into the <code>char[]</code> handed to the parser
+ * <p>
+ * A file is read through a <code>FileChannel</code> into one buffer, or
+ * memory-mapped if larger than 1 MB, and decoded straight into the array. The
+ * array is only copied when the file has fewer chars than bytes, i.e. not for
+ * a file in ASCII. Line endings are kept, so that the offsets of the AST are
+ * those of the file.
+ * <p>
+ * A file starting with a UTF-8 or UTF-16 byte order mark is decoded as such,
+ * without the mark. Any other file is decoded in the charset given, bytes
+ * which are not of the charset being replaced.
+ */
+class SourceReader {
+
+	private static final long MAP_THRESHOLD = 1024 * 1024;
+
+	private final Charset charset;
+
+	/**
+	 * @param charset
+	 *            charset of the files without byte order mark
+	 */
+	SourceReader(Charset charset) {
+		this.charset = charset;
+	}
+
+	/**
+	 * @return the content of the file, from position 0 to the limit
+	 */
+	static ByteBuffer readBytes(String filepath) throws IOException {
+		try (FileChannel channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ)) {
+			long size = channel.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("File too large: " + filepath);
+			}
+			if (size >= MAP_THRESHOLD) {
+				return channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * @return the chars of the content, which is not consumed
+	 */
+	char[] decode(ByteBuffer bytes) throws CharacterCodingException {
+		ByteBuffer in = bytes.duplicate();
+		CharsetDecoder decoder = detectCharset(in).newDecoder()
+				.onMalformedInput(CodingErrorAction.REPLACE)
+				.onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+		char[] chars = new char[(int) Math.ceil(in.remaining() * (double) decoder.maxCharsPerByte())];
+		CharBuffer out = CharBuffer.wrap(chars);
+		CoderResult result = decoder.decode(in, out, true);
+		if (result.isError() || result.isOverflow()) {
+			result.throwException();
+		}
+		decoder.flush(out);
+		return out.position() == chars.length ? chars : Arrays.copyOf(chars, out.position());
+	}
+
+	/**
+	 * @return name of the charset the parser decodes the content in when it
+	 *         reads the file itself, to the same chars as
+	 *         <code>decode()</code>: the byte order mark is dropped by the
+	 *         parser for UTF-8, and by the decoder for UTF-16
+	 */
+	String encoding(ByteBuffer bytes) {
+		Charset detected = detectCharset(bytes.duplicate());
+		if (detected == StandardCharsets.UTF_16BE || detected == StandardCharsets.UTF_16LE) {
+			return StandardCharsets.UTF_16.name();
+		}
+		return detected.name();
+	}
+
+	// charset of the byte order mark if any, which is skipped
+	private Charset detectCharset(ByteBuffer in) {
+		int p = in.position();
+		int remaining = in.remaining();
+		if (remaining >= 3 && (in.get(p) & 0xFF) == 0xEF && (in.get(p + 1) & 0xFF) == 0xBB
+				&& (in.get(p + 2) & 0xFF) == 0xBF) {
+			in.position(p + 3);
+			return StandardCharsets.UTF_8;
+		}
+		if (remaining >= 2 && (in.get(p) & 0xFF) == 0xFE && (in.get(p + 1) & 0xFF) == 0xFF) {
+			in.position(p + 2);
+			return StandardCharsets.UTF_16BE;
+		}
+		if (remaining >= 2 && (in.get(p) & 0xFF) == 0xFF && (in.get(p + 1) & 0xFF) == 0xFE) {
+			in.position(p + 2);
+			return StandardCharsets.UTF_16LE;
+		}
+		return charset;
+	}
+
+}
@@ -1,5 +1,6 @@
 package ast;
 
+import java.util.ArrayList;
 import java.util.List;
 
 import org.eclipse.jdt.core.dom.ASTNode;
@@ -107,7 +108,8 @@ import graph.RelName;
  * <p>
  * Working pattern and procedure:
  * <ol>
- * <li>create nodes in <code>preVisit()</code>
+ * <li>create nodes in <code>preVisit2()</code>, if accepted by the
+ * <code>NodeFilter</code>, or else skip the whole subtree
  * <li>set properties and add relationships in <code>endVisit(graph)</code>
  * </ol>
  * <p>
@@ -116,23 +118,30 @@ import graph.RelName;
  * <code>endVisit</code> (but not in <code>visit</code>), because a relationship
  * can only be created when both nodes are created.
  * <p>
- * Modifications on Syntax Tree:
+ * Modifications on Syntax Tree (the nodes discarded are those rejected by
+ * the default <code>NodeFilter</code>):
  * <ol>
- * <li>discard all comments, delete <code>LineComment</code>,
+ * <li>discard all comments, <code>LineComment</code>,
  * <code>BlockComment</code>, <code>Javadoc</code>, <code>TagElement</code>,
  * <code>TextElement</code> nodes
- * <li>delete <code>Modifier</code> nodes, and add <em>MODIFIERS</em> property
+ * <li>discard <code>Modifier</code> nodes, and add <em>MODIFIERS</em> property
  * to <code>TypeDeclaration</code>, <code>FieldDeclaration</code>,
  * <code>MethodDeclaration</code>, <code>SingleVariableDeclaration</code> node,
  * which is of <code>String[]</code> type
  * <li>add <em>NAME</em> property for <code>PackageDeclaration</code>,
  * <code>TypeDeclaration</code> and <code>MethodDeclaration</code> node, and
- * delete its <em>NAME</em> child
- * <li>delete <em>QUALIFIER</em> and <em>NAME</em> child of
+ * discard its <em>NAME</em> child
+ * <li>discard <em>QUALIFIER</em> and <em>NAME</em> child of
  * <code>QualifiedName</code> node
  * <li>add <em>NAME</em> and <em>QUALIFIED_NAME</em> property for
- * <code>SimpleType</code> node, and delete its <em>NAME</em> child
+ * <code>SimpleType</code> node, and discard its <em>NAME</em> child
+ * <li>add a <code>CALLS</code> relationship from each method to each method
+ * it invokes, resolved, with the number of invocations (see
+ * <code>Graph.addCall()</code>)
  * </ol>
+ * Relationships to discarded nodes are not added, so the name and modifier
+ * children kept by another <code>NodeFilter</code> are linked to their parent
+ * by <em>NAME</em>, <em>QUALIFIER</em> or <em>MODIFIERS</em> relationships.
  * 
  * @see Graph
  *
@@ -140,14 +149,20 @@ import graph.RelName;
 public class StoreVisitor extends ASTVisitor {
 
 	private final Graph graph;
+	private final NodeFilter filter;
 
-	public StoreVisitor(Graph graph) {
+	public StoreVisitor(Graph graph, NodeFilter filter) {
 		this.graph = graph;
+		this.filter = filter;
 	}
 
 	@Override
-	public void preVisit(ASTNode node) {
+	public boolean preVisit2(ASTNode node) {
+		if (!filter.accept(node)) {
+			return false;
+		}
 		graph.createNode(node);
+		return true;
 	}
 
 	@Override
@@ -157,12 +172,12 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(AnnotationTypeDeclaration node) {
-
+		addModifiers(node, node.modifiers());
 	}
 
 	@Override
 	public void endVisit(AnnotationTypeMemberDeclaration node) {
-
+		addModifiers(node, node.modifiers());
 	}
 
 	@Override
@@ -213,7 +228,7 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(BlockComment node) {
-		graph.deleteNode(node);
+
 	}
 
 	@Override
@@ -245,7 +260,7 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(ClassInstanceCreation node) {
-
+		graph.addCall(node);
 	}
 
 	@Override
@@ -262,7 +277,7 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(ConstructorInvocation node) {
-
+		graph.addCall(node);
 	}
 
 	@Override
@@ -297,12 +312,12 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(EnumConstantDeclaration node) {
-
+		addModifiers(node, node.modifiers());
 	}
 
 	@Override
 	public void endVisit(EnumDeclaration node) {
-
+		addModifiers(node, node.modifiers());
 	}
 
 	@Override
@@ -329,6 +344,7 @@ public class StoreVisitor extends ASTVisitor {
 		VariableDeclarationFragment fragment = (VariableDeclarationFragment) node.fragments().get(0);
 		graph.setProperty(node, "NAME", fragment.getName().getIdentifier());
 
+		addModifiers(node, node.modifiers());
 		graph.addRelationship(node, node.getType(), RelName.TYPE);
 		graph.addRelationships(node, node.fragments(), RelName.FRAGMENTS);
 	}
@@ -365,7 +381,7 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(Initializer node) {
-
+		addModifiers(node, node.modifiers());
 	}
 
 	@Override
@@ -380,7 +396,7 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(Javadoc node) {
-		graph.deleteNode(node);
+
 	}
 
 	@Override
@@ -395,7 +411,7 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(LineComment node) {
-		graph.deleteNode(node);
+
 	}
 
 	@Override
@@ -419,8 +435,9 @@ public class StoreVisitor extends ASTVisitor {
 		graph.setProperty(node, "MODIFIERS", getModifiers(node.modifiers()));
 
 		graph.setProperty(node, "NAME", node.getName().getIdentifier());
-		graph.deleteNode(node.getName());
 
+		addModifiers(node, node.modifiers());
+		graph.addRelationship(node, node.getName(), RelName.NAME);
 		graph.addRelationships(node, node.typeParameters(), RelName.TYPE_PARAMETERS);
 		graph.addRelationship(node, node.getReturnType2(), RelName.RETURN_TYPE);
 		graph.addRelationships(node, node.parameters(), RelName.PARAMETERS);
@@ -433,6 +450,7 @@ public class StoreVisitor extends ASTVisitor {
 		graph.addRelationships(node, node.typeArguments(), RelName.TYPE_ARGUMENTS);
 		graph.addRelationship(node, node.getName(), RelName.NAME);
 		graph.addRelationships(node, node.arguments(), RelName.ARGUMENTS);
+		graph.addCall(node);
 	}
 
 	@Override
@@ -447,7 +465,7 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(Modifier node) {
-		graph.deleteNode(node);
+
 	}
 
 	@Override
@@ -473,9 +491,9 @@ public class StoreVisitor extends ASTVisitor {
 	@Override
 	public void endVisit(PackageDeclaration node) {
 		graph.setProperty(node, "NAME", node.getName().getFullyQualifiedName());
-		graph.deleteNode(node.getName());
 
 		graph.addRelationships(node, node.annotations(), RelName.ANNOTATIONS);
+		graph.addRelationship(node, node.getName(), RelName.NAME);
 	}
 
 	@Override
@@ -507,8 +525,8 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(QualifiedName node) {
-		graph.deleteNode(node.getQualifier());
-		graph.deleteNode(node.getName());
+		graph.addRelationship(node, node.getQualifier(), RelName.QUALIFIER);
+		graph.addRelationship(node, node.getName(), RelName.NAME);
 	}
 
 	@Override
@@ -529,10 +547,15 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(SimpleType node) {
+		graph.addRelationship(node, node.getName(), RelName.NAME);
 		ITypeBinding binding = node.resolveBinding();
+		if (binding == null) {
+			// unresolved, only the name as written
+			graph.setProperty(node, "NAME", node.getName().getFullyQualifiedName());
+			return;
+		}
 		graph.setProperty(node, "NAME", binding.getName());
 		graph.setProperty(node, "QUALIFIED_NAME", binding.getQualifiedName());
-		graph.deleteNode(node.getName());
 	}
 
 	@Override
@@ -545,6 +568,7 @@ public class StoreVisitor extends ASTVisitor {
 		graph.setProperty(node, "VARARGS", node.isVarargs());
 		graph.setProperty(node, "MODIFIERS", getModifiers(node.modifiers()));
 
+		addModifiers(node, node.modifiers());
 		graph.addRelationship(node, node.getType(), RelName.TYPE);
 		graph.addRelationship(node, node.getName(), RelName.NAME);
 		graph.addRelationship(node, node.getInitializer(), RelName.INITIALIZER);
@@ -560,6 +584,7 @@ public class StoreVisitor extends ASTVisitor {
 		graph.addRelationship(node, node.getExpression(), RelName.EXPRESSION);
 		graph.addRelationships(node, node.typeArguments(), RelName.TYPE_ARGUMENTS);
 		graph.addRelationships(node, node.arguments(), RelName.ARGUMENTS);
+		graph.addCall(node);
 	}
 
 	@Override
@@ -569,7 +594,7 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(SuperMethodInvocation node) {
-
+		graph.addCall(node);
 	}
 
 	@Override
@@ -589,12 +614,12 @@ public class StoreVisitor extends ASTVisitor {
 
 	@Override
 	public void endVisit(TagElement node) {
-		graph.deleteNode(node);
+
 	}
 
 	@Override
 	public void endVisit(TextElement node) {
-		graph.deleteNode(node);
+
 	}
 
 	@Override
@@ -621,8 +646,9 @@ public class StoreVisitor extends ASTVisitor {
 		graph.setProperty(node, "MODIFIERS", getModifiers(node.modifiers()));
 
 		graph.setProperty(node, "NAME", node.getName().getIdentifier());
-		graph.deleteNode(node.getName());
 
+		addModifiers(node, node.modifiers());
+		graph.addRelationship(node, node.getName(), RelName.NAME);
 		graph.addRelationships(node, node.typeParameters(), RelName.TYPE_PARAMETERS);
 		graph.addRelationship(node, node.getSuperclassType(), RelName.SUPERCLASS_TYPE);
 		graph.addRelationships(node, node.superInterfaceTypes(), RelName.SUPER_INTERFACE_TYPES);
@@ -684,14 +710,27 @@ public class StoreVisitor extends ASTVisitor {
 
 	}
 
+	// link the Modifier nodes, stored only with Option.STORE_MODIFIERS; the
+	// annotations among the modifiers are left as they are
+	@SuppressWarnings("rawtypes")
+	private void addModifiers(ASTNode node, List modifiers) {
+		for (Object modifier : modifiers) {
+			if (modifier instanceof Modifier) {
+				graph.addRelationship(node, (Modifier) modifier, RelName.MODIFIERS);
+			}
+		}
+	}
+
+	// keywords of the modifiers, the annotations among them being left out
 	@SuppressWarnings("rawtypes")
 	private static String[] getModifiers(List modifiers) {
-		String[] results = new String[modifiers.size()];
-		for (int i = 0; i < modifiers.size(); i++) {
-			Modifier modifier = (Modifier) modifiers.get(i);
-			results[i] = modifier.getKeyword().toString();
+		List<String> results = new ArrayList<>(modifiers.size());
+		for (Object modifier : modifiers) {
+			if (modifier instanceof Modifier) {
+				results.add(((Modifier) modifier).getKeyword().toString());
+			}
 		}
-		return results;
+		return results.toArray(new String[results.size()]);
 	}
 
 }
@@ -5,10 +5,21 @@ import org.eclipse.jdt.core.dom.ASTNode;
 public class Tree {
 
 	public String filename;
+	// path of the file relative to the project directory
+	public String path;
+	// hash of the file content
+	public String hash;
+	// path of the module directory relative to the project directory, or null
+	// if the file is in no module
+	public String module;
+	// whether the AST is parsed with bindings
+	public boolean resolved = true;
 	public ASTNode root;
 
-	public Tree(String filename, ASTNode root) {
+	public Tree(String filename, String path, String hash, ASTNode root) {
 		this.filename = filename;
+		this.path = path;
+		this.hash = hash;
 		this.root = root;
 	}
-}
\ No newline at end of file
+}
@@ -0,0 +1,35 @@
+package ast;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * iterator of the trees of a batch, which releases each tree as soon as it is
+ * returned, so the batch does not keep the trees already stored alive
+ */
+class TreeBatch implements Iterator<Tree> {
+
+	private final List<Tree> trees;
+	private int next = 0;
+
+	TreeBatch(List<Tree> trees) {
+		this.trees = trees;
+	}
+
+	@Override
+	public boolean hasNext() {
+		return next < trees.size();
+	}
+
+	@Override
+	public Tree next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		Tree tree = trees.get(next);
+		trees.set(next++, null);
+		return tree;
+	}
+
+}
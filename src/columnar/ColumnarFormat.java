@@ -0,0 +1,75 @@
+package columnar;
+
+/**
+ * layout of the files of a columnar graph, shared by
+ * <code>ColumnarSink</code> and <code>ColumnarGraph</code>
+ * <p>
+ * A graph is a directory of files of big-endian numbers:
+ * <ul>
+ * <li><code>strings.bin</code>, <code>strings.idx</code>: the string pool,
+ * UTF-8 bytes and the <code>long</code> offset of each string, plus the end
+ * <li><code>values.bin</code>, <code>values.idx</code>: the dictionary of
+ * property values, each a tag byte and its data, and their <code>long</code>
+ * offsets, plus the end
+ * <li><code>labels.bin</code>: the label bitmap of each node,
+ * <code>LABEL_WORDS</code> <code>long</code>s, bit <code>EXISTS_BIT</code>
+ * set for the nodes not deleted
+ * <li><code>node-N.col</code>: the <code>int</code> value id of property key
+ * <code>N</code> for each node, or -1
+ * <li><code>relationships.bin</code>: the start node, end node and type of
+ * each relationship, as <code>int</code>s
+ * <li><code>relationship-N.col</code>: the <code>int</code> value id of
+ * property key <code>N</code> for each relationship, or -1
+ * <li><code>outgoing.idx</code>, <code>outgoing.bin</code>,
+ * <code>incoming.idx</code>, <code>incoming.bin</code>: the CSR adjacency,
+ * the <code>int</code> offset of each node, plus the end, into the
+ * relationships of the nodes, sorted by start or end node
+ * <li><code>graph.meta</code>: the counts and the string ids of the labels,
+ * types and keys, written last
+ * </ul>
+ */
+final class ColumnarFormat {
+
+	static final int MAGIC = 0x41535447;
+	static final int VERSION = 1;
+
+	static final String META = "graph.meta";
+	static final String STRINGS = "strings.bin";
+	static final String STRING_OFFSETS = "strings.idx";
+	static final String VALUES = "values.bin";
+	static final String VALUE_OFFSETS = "values.idx";
+	static final String LABELS = "labels.bin";
+	static final String RELATIONSHIPS = "relationships.bin";
+	static final String OUTGOING_OFFSETS = "outgoing.idx";
+	static final String OUTGOING = "outgoing.bin";
+	static final String INCOMING_OFFSETS = "incoming.idx";
+	static final String INCOMING = "incoming.bin";
+
+	// longs of the label bitmap of a node, and the labels they hold
+	static final int LABEL_WORDS = 2;
+	static final int EXISTS_BIT = 0;
+	static final int MAX_LABELS = LABEL_WORDS * 64 - 1;
+
+	// ints of a relationship: start node, end node, type
+	static final int RELATIONSHIP_INTS = 3;
+
+	// tags of the values
+	static final byte STRING = 1;
+	static final byte STRING_ARRAY = 2;
+	static final byte LONG_ARRAY = 3;
+	static final byte BOOLEAN = 4;
+	static final byte INT = 5;
+	static final byte LONG = 6;
+
+	private ColumnarFormat() {
+	}
+
+	static String nodeColumn(int key) {
+		return "node-" + key + ".col";
+	}
+
+	static String relationshipColumn(int key) {
+		return "relationship-" + key + ".col";
+	}
+
+}
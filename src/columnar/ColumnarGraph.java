@@ -0,0 +1,340 @@
+package columnar;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * read-only graph written by <code>ColumnarSink</code>, with no Neo4j
+ * <p>
+ * Opening a graph maps its files into memory and only reads
+ * <code>graph.meta</code>, so it is near instant whatever the size of the
+ * graph, and the pages are shared by all the processes reading the same
+ * graph. The methods then read the mapped files in place: labels are bits,
+ * properties are looked up in their column and decoded from the value
+ * dictionary on demand, and the relationships of a node are a slice of the
+ * CSR adjacency, read with <code>getOutgoingCount(node)</code> and
+ * <code>getOutgoing(node, i)</code>, or the incoming ones alike.
+ * <p>
+ * Nodes and relationships are the <code>int</code> ids of
+ * <code>ColumnarSink</code>. The ids of deleted nodes stay, with no labels,
+ * properties or relationships (see <code>exists()</code>). Each file is mapped
+ * whole, so it may hold up to 2 GB.
+ * <p>
+ * A <code>ColumnarGraph</code> may be read by several threads.
+ */
+public class ColumnarGraph implements Closeable {
+
+	private final List<RandomAccessFile> files = new ArrayList<>();
+
+	private final int nodeCount;
+	private final int relationshipCount;
+
+	private final ByteBuffer strings;
+	private final LongBuffer stringOffsets;
+	private final ByteBuffer values;
+	private final LongBuffer valueOffsets;
+	private final LongBuffer labels;
+	private final IntBuffer relationships;
+	private final IntBuffer outgoingOffsets;
+	private final IntBuffer outgoing;
+	private final IntBuffer incomingOffsets;
+	private final IntBuffer incoming;
+
+	private final String[] labelNames;
+	private final String[] typeNames;
+	// bit of each label
+	private final Map<String, Integer> labelBits = new HashMap<>();
+	private final Map<String, IntBuffer> nodeColumns = new LinkedHashMap<>();
+	private final Map<String, IntBuffer> relationshipColumns = new LinkedHashMap<>();
+
+	private ColumnarGraph(File dir) throws IOException {
+		int[] labelStrings;
+		int[] typeStrings;
+		int[] nodeKeyStrings;
+		int[] relationshipKeyStrings;
+		File metaFile = new File(dir, ColumnarFormat.META);
+		if (!metaFile.isFile()) {
+			throw new IllegalArgumentException("No complete columnar graph in " + dir);
+		}
+		try (DataInputStream meta = new DataInputStream(new BufferedInputStream(new FileInputStream(metaFile)))) {
+			if (meta.readInt() != ColumnarFormat.MAGIC) {
+				throw new IllegalArgumentException("Not a columnar graph: " + metaFile);
+			}
+			int version = meta.readInt();
+			if (version != ColumnarFormat.VERSION) {
+				throw new IllegalArgumentException("Unsupported columnar graph version " + version + ": " + metaFile);
+			}
+			nodeCount = meta.readInt();
+			relationshipCount = meta.readInt();
+			labelStrings = readInts(meta);
+			typeStrings = readInts(meta);
+			nodeKeyStrings = readInts(meta);
+			relationshipKeyStrings = readInts(meta);
+		}
+
+		strings = map(dir, ColumnarFormat.STRINGS);
+		stringOffsets = map(dir, ColumnarFormat.STRING_OFFSETS).asLongBuffer();
+		values = map(dir, ColumnarFormat.VALUES);
+		valueOffsets = map(dir, ColumnarFormat.VALUE_OFFSETS).asLongBuffer();
+		labels = map(dir, ColumnarFormat.LABELS).asLongBuffer();
+		relationships = map(dir, ColumnarFormat.RELATIONSHIPS).asIntBuffer();
+		outgoingOffsets = map(dir, ColumnarFormat.OUTGOING_OFFSETS).asIntBuffer();
+		outgoing = map(dir, ColumnarFormat.OUTGOING).asIntBuffer();
+		incomingOffsets = map(dir, ColumnarFormat.INCOMING_OFFSETS).asIntBuffer();
+		incoming = map(dir, ColumnarFormat.INCOMING).asIntBuffer();
+
+		labelNames = new String[labelStrings.length];
+		for (int i = 0; i < labelNames.length; i++) {
+			labelNames[i] = string(labelStrings[i]);
+			// bit 0 marks the nodes not deleted
+			labelBits.put(labelNames[i], i + 1);
+		}
+		typeNames = new String[typeStrings.length];
+		for (int i = 0; i < typeNames.length; i++) {
+			typeNames[i] = string(typeStrings[i]);
+		}
+		for (int i = 0; i < nodeKeyStrings.length; i++) {
+			nodeColumns.put(string(nodeKeyStrings[i]), map(dir, ColumnarFormat.nodeColumn(i)).asIntBuffer());
+		}
+		for (int i = 0; i < relationshipKeyStrings.length; i++) {
+			relationshipColumns.put(string(relationshipKeyStrings[i]),
+					map(dir, ColumnarFormat.relationshipColumn(i)).asIntBuffer());
+		}
+	}
+
+	/**
+	 * open the graph written in <code>dir</code>
+	 *
+	 * @throws IllegalArgumentException
+	 *             if <code>dir</code> holds no complete columnar graph
+	 * @throws IOException
+	 *             if a file cannot be mapped
+	 */
+	public static ColumnarGraph open(File dir) throws IOException {
+		return new ColumnarGraph(dir);
+	}
+
+	private ByteBuffer map(File dir, String name) throws IOException {
+		RandomAccessFile file = new RandomAccessFile(new File(dir, name), "r");
+		files.add(file);
+		return file.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, file.length());
+	}
+
+	private static int[] readInts(DataInputStream in) throws IOException {
+		int[] ints = new int[in.readInt()];
+		for (int i = 0; i < ints.length; i++) {
+			ints[i] = in.readInt();
+		}
+		return ints;
+	}
+
+	/**
+	 * @return number of node ids, deleted nodes included
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getRelationshipCount() {
+		return relationshipCount;
+	}
+
+	/**
+	 * @return names of the labels, in the order first given
+	 */
+	public List<String> getLabelNames() {
+		return Collections.unmodifiableList(Arrays.asList(labelNames));
+	}
+
+	/**
+	 * @return keys of the node properties
+	 */
+	public List<String> getPropertyKeys() {
+		return new ArrayList<>(nodeColumns.keySet());
+	}
+
+	/**
+	 * @return whether <code>node</code> was not deleted
+	 */
+	public boolean exists(int node) {
+		return hasBit(node, ColumnarFormat.EXISTS_BIT);
+	}
+
+	public boolean hasLabel(int node, String label) {
+		Integer bit = labelBits.get(label);
+		return bit != null && hasBit(node, bit);
+	}
+
+	private boolean hasBit(int node, int bit) {
+		return (labels.get(node * ColumnarFormat.LABEL_WORDS + (bit >> 6)) & (1L << (bit & 63))) != 0;
+	}
+
+	/**
+	 * @return labels of <code>node</code>, in the order first given in the
+	 *         graph
+	 */
+	public List<String> getLabels(int node) {
+		List<String> result = new ArrayList<>(4);
+		for (int i = 0; i < labelNames.length; i++) {
+			if (hasBit(node, i + 1)) {
+				result.add(labelNames[i]);
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * @return value of the property, or <code>null</code> if none
+	 */
+	public Object getProperty(int node, String key) {
+		return columnValue(nodeColumns.get(key), node);
+	}
+
+	/**
+	 * @return properties of <code>node</code>, by key
+	 */
+	public Map<String, Object> getProperties(int node) {
+		return columnValues(nodeColumns, node);
+	}
+
+	public int getOutgoingCount(int node) {
+		return outgoingOffsets.get(node + 1) - outgoingOffsets.get(node);
+	}
+
+	/**
+	 * @return <code>i</code>th relationship starting at <code>node</code>,
+	 *         in the order created
+	 */
+	public int getOutgoing(int node, int i) {
+		return outgoing.get(outgoingOffsets.get(node) + i);
+	}
+
+	public int getIncomingCount(int node) {
+		return incomingOffsets.get(node + 1) - incomingOffsets.get(node);
+	}
+
+	/**
+	 * @return <code>i</code>th relationship ending at <code>node</code>, in
+	 *         the order created
+	 */
+	public int getIncoming(int node, int i) {
+		return incoming.get(incomingOffsets.get(node) + i);
+	}
+
+	public int getStartNode(int rel) {
+		return relationships.get(rel * ColumnarFormat.RELATIONSHIP_INTS);
+	}
+
+	public int getEndNode(int rel) {
+		return relationships.get(rel * ColumnarFormat.RELATIONSHIP_INTS + 1);
+	}
+
+	public String getType(int rel) {
+		return typeNames[relationships.get(rel * ColumnarFormat.RELATIONSHIP_INTS + 2)];
+	}
+
+	/**
+	 * @return value of the property, or <code>null</code> if none
+	 */
+	public Object getRelationshipProperty(int rel, String key) {
+		return columnValue(relationshipColumns.get(key), rel);
+	}
+
+	/**
+	 * @return properties of <code>rel</code>, by key
+	 */
+	public Map<String, Object> getRelationshipProperties(int rel) {
+		return columnValues(relationshipColumns, rel);
+	}
+
+	private Map<String, Object> columnValues(Map<String, IntBuffer> columns, int entity) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		for (Map.Entry<String, IntBuffer> column : columns.entrySet()) {
+			Object value = columnValue(column.getValue(), entity);
+			if (value != null) {
+				result.put(column.getKey(), value);
+			}
+		}
+		return result;
+	}
+
+	private Object columnValue(IntBuffer column, int entity) {
+		if (column == null) {
+			return null;
+		}
+		int value = column.get(entity);
+		return value < 0 ? null : value(value);
+	}
+
+	// decode a value of the dictionary
+	private Object value(int id) {
+		int offset = (int) valueOffsets.get(id);
+		byte tag = values.get(offset);
+		offset++;
+		switch (tag) {
+		case ColumnarFormat.STRING:
+			return string(values.getInt(offset));
+		case ColumnarFormat.STRING_ARRAY: {
+			String[] array = new String[values.getInt(offset)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = string(values.getInt(offset + 4 + 4 * i));
+			}
+			return array;
+		}
+		case ColumnarFormat.LONG_ARRAY: {
+			long[] array = new long[values.getInt(offset)];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = values.getLong(offset + 4 + 8 * i);
+			}
+			return array;
+		}
+		case ColumnarFormat.BOOLEAN:
+			return values.get(offset) != 0;
+		case ColumnarFormat.INT:
+			return values.getInt(offset);
+		case ColumnarFormat.LONG:
+			return values.getLong(offset);
+		default:
+			throw new IllegalStateException("Unknown value tag " + tag + " of value " + id);
+		}
+	}
+
+	private String string(int id) {
+		int start = (int) stringOffsets.get(id);
+		int end = (int) stringOffsets.get(id + 1);
+		byte[] bytes = new byte[end - start];
+		ByteBuffer slice = strings.duplicate();
+		slice.position(start);
+		slice.get(bytes);
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * close the files; the mapped pages are released once unreachable
+	 */
+	@Override
+	public void close() throws IOException {
+		for (RandomAccessFile file : files) {
+			file.close();
+		}
+		files.clear();
+	}
+
+}
@@ -0,0 +1,495 @@
+package columnar;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+import graph.GraphSink;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Phase;
+
+/**
+ * <code>GraphSink</code> writing the graph in the columnar format of
+ * <code>ColumnarFormat</code>, to be read by <code>ColumnarGraph</code>
+ * without Neo4j
+ * <p>
+ * The files are written sequentially: the nodes of a tree are buffered and
+ * appended on <code>flush()</code>, so the nodes deleted before the end of
+ * their tree only leave an empty label bitmap, and the relationships are
+ * appended as they come. The property values are encoded into the value
+ * dictionary, which the columns refer to. A node written cannot be changed
+ * any more.
+ * <p>
+ * Only the strings and the scalar values recently used are interned, in
+ * caches of <code>DEDUP_SIZE</code> entries: the names repeated all over the
+ * trees are written once, while a value evicted is written again when met
+ * next, so the memory does not grow with the graph. Arrays, such as the
+ * <em>NODES</em> of the roots, are unique and always written as they come.
+ * <p>
+ * <code>close()</code> streams the relationships twice to sort them into the
+ * CSR adjacency of both directions, with an <code>int</code> per relationship
+ * in memory, and writes <code>graph.meta</code> last, so that a graph is only
+ * read once complete.
+ * <p>
+ * The store is always new, so <code>findNode()</code> finds nothing.
+ */
+public class ColumnarSink implements GraphSink {
+
+	// strings and scalar values cached to be interned
+	private static final int DEDUP_SIZE = 1 << 16;
+
+	private final File dir;
+	private final Metrics metrics = Metrics.get();
+
+	private final DataOutputStream strings;
+	private final DataOutputStream stringOffsets;
+	private final DataOutputStream values;
+	private final DataOutputStream valueOffsets;
+	private final DataOutputStream labels;
+	private final DataOutputStream relationships;
+
+	private long stringBytes = 0;
+	private long valueBytes = 0;
+	private int stringCount = 0;
+	private int valueCount = 0;
+	// ids of the strings and scalar values recently written
+	private final Map<String, Integer> stringIds = lruMap();
+	private final Map<Object, Integer> valueIds = lruMap();
+
+	// interned names, by id
+	private final List<String> labelNames = new ArrayList<>();
+	private final List<String> typeNames = new ArrayList<>();
+	private final Map<String, Integer> labelIds = new HashMap<>();
+	private final Map<String, Integer> typeIds = new HashMap<>();
+	private final Columns nodeColumns = new Columns(true);
+	private final Columns relationshipColumns = new Columns(false);
+
+	private int nodeCount = 0;
+	// nodes before this one are written
+	private int writtenNodes = 0;
+	private int relationshipCount = 0;
+	private final Map<Integer, PendingNode> pendingNodes = new HashMap<>();
+
+	/**
+	 * @param dir
+	 *            directory to write the graph in, created if missing; files
+	 *            of the same names are replaced
+	 */
+	public ColumnarSink(File dir) {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IllegalStateException("Cannot create directory " + dir);
+		}
+		this.dir = dir;
+		new File(dir, ColumnarFormat.META).delete();
+		try {
+			strings = open(ColumnarFormat.STRINGS);
+			stringOffsets = open(ColumnarFormat.STRING_OFFSETS);
+			values = open(ColumnarFormat.VALUES);
+			valueOffsets = open(ColumnarFormat.VALUE_OFFSETS);
+			labels = open(ColumnarFormat.LABELS);
+			relationships = open(ColumnarFormat.RELATIONSHIPS);
+		} catch (IOException e) {
+			throw new UncheckedIOException("Fail to create the columnar graph in " + dir, e);
+		}
+	}
+
+	private DataOutputStream open(String name) throws IOException {
+		return new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(dir, name)), 1 << 16));
+	}
+
+	@Override
+	public long createNode() {
+		if (nodeCount == Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many nodes for a columnar graph");
+		}
+		int id = nodeCount++;
+		pendingNodes.put(id, new PendingNode());
+		metrics.count(Counter.NODES);
+		return id;
+	}
+
+	@Override
+	public void addLabel(long node, Label label) {
+		PendingNode pending = pending(node);
+		Integer id = labelIds.get(label.name());
+		if (id == null) {
+			if (labelNames.size() == ColumnarFormat.MAX_LABELS) {
+				throw new IllegalStateException("Too many labels for a columnar graph: " + label.name());
+			}
+			labelNames.add(label.name());
+			// bit 0 marks the nodes not deleted
+			id = labelNames.size();
+			labelIds.put(label.name(), id);
+		}
+		pending.labels[id >> 6] |= 1L << (id & 63);
+		metrics.count(Counter.LABELS);
+	}
+
+	@Override
+	public void setProperty(long node, String key, Object value) {
+		pending(node).properties.put(key, value);
+		metrics.count(Counter.PROPERTIES);
+	}
+
+	private PendingNode pending(long node) {
+		PendingNode pending = pendingNodes.get((int) node);
+		if (pending == null) {
+			throw new UnsupportedOperationException("Cannot change written node " + node);
+		}
+		return pending;
+	}
+
+	@Override
+	public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+		Integer typeId = typeIds.get(type.name());
+		if (typeId == null) {
+			typeId = typeNames.size();
+			typeNames.add(type.name());
+			typeIds.put(type.name(), typeId);
+		}
+		try {
+			relationships.writeInt((int) from);
+			relationships.writeInt((int) to);
+			relationships.writeInt(typeId);
+			if (properties != null) {
+				relationshipColumns.write(properties, relationshipCount);
+				metrics.count(Counter.PROPERTIES, properties.size());
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Fail to write the columnar graph in " + dir, e);
+		}
+		relationshipCount++;
+		metrics.count(Counter.RELATIONSHIPS);
+	}
+
+	@Override
+	public void deleteNode(long node) {
+		if (pendingNodes.remove((int) node) == null) {
+			throw new UnsupportedOperationException("Cannot delete written node " + node);
+		}
+		metrics.count(Counter.DELETIONS);
+	}
+
+	@Override
+	public void deleteRelationships(long node, RelationshipType type) {
+
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value) {
+		return -1;
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value, String project) {
+		return -1;
+	}
+
+	@Override
+	public boolean findsCreatedNodes() {
+		return false;
+	}
+
+	@Override
+	public void flush() {
+		long start = System.nanoTime();
+		try {
+			for (; writtenNodes < nodeCount; writtenNodes++) {
+				PendingNode pending = pendingNodes.remove(writtenNodes);
+				if (pending == null) {
+					// deleted
+					for (int i = 0; i < ColumnarFormat.LABEL_WORDS; i++) {
+						labels.writeLong(0);
+					}
+					continue;
+				}
+				pending.labels[ColumnarFormat.EXISTS_BIT >> 6] |= 1L << (ColumnarFormat.EXISTS_BIT & 63);
+				for (long word : pending.labels) {
+					labels.writeLong(word);
+				}
+				nodeColumns.write(pending.properties, writtenNodes);
+			}
+		} catch (IOException e) {
+			throw new UncheckedIOException("Fail to write the columnar graph in " + dir, e);
+		}
+		metrics.record(Phase.WRITE, start);
+	}
+
+	/**
+	 * flush, then close the files, build the adjacency and write the metadata
+	 *
+	 * @throws IOException
+	 *             if a file cannot be written
+	 */
+	public void close() throws IOException {
+		flush();
+		long start = System.nanoTime();
+		nodeColumns.close(nodeCount);
+		relationshipColumns.close(relationshipCount);
+		labels.close();
+		relationships.close();
+		valueOffsets.writeLong(valueBytes);
+		values.close();
+		valueOffsets.close();
+
+		writeAdjacency(0, ColumnarFormat.OUTGOING_OFFSETS, ColumnarFormat.OUTGOING);
+		writeAdjacency(1, ColumnarFormat.INCOMING_OFFSETS, ColumnarFormat.INCOMING);
+
+		// names are interned before the string pool is closed
+		int[] labelStrings = intern(labelNames);
+		int[] typeStrings = intern(typeNames);
+		int[] nodeKeyStrings = intern(nodeColumns.keys);
+		int[] relationshipKeyStrings = intern(relationshipColumns.keys);
+		stringOffsets.writeLong(stringBytes);
+		strings.close();
+		stringOffsets.close();
+
+		try (DataOutputStream meta = open(ColumnarFormat.META)) {
+			meta.writeInt(ColumnarFormat.MAGIC);
+			meta.writeInt(ColumnarFormat.VERSION);
+			meta.writeInt(nodeCount);
+			meta.writeInt(relationshipCount);
+			writeInts(meta, labelStrings);
+			writeInts(meta, typeStrings);
+			writeInts(meta, nodeKeyStrings);
+			writeInts(meta, relationshipKeyStrings);
+		}
+		metrics.record(Phase.WRITE, start);
+	}
+
+	/**
+	 * @return number of nodes, deleted ones included
+	 */
+	public int getNodeCount() {
+		return nodeCount;
+	}
+
+	public int getRelationshipCount() {
+		return relationshipCount;
+	}
+
+	/**
+	 * @return bytes of the string pool and the value dictionary written so far
+	 */
+	public long getDictionaryBytes() {
+		return stringBytes + valueBytes;
+	}
+
+	// sort the relationships by start node (end 0) or end node (end 1)
+	private void writeAdjacency(int end, String offsetsName, String adjacencyName) throws IOException {
+		int[] offsets = new int[nodeCount + 1];
+		int[] adjacency = new int[relationshipCount];
+		// relationships.bin may exceed 2 GB, so it is streamed rather than mapped
+		try (DataInputStream rels = openRelationships()) {
+			for (int rel = 0; rel < relationshipCount; rel++) {
+				offsets[readEnd(rels, end) + 1]++;
+			}
+		}
+		for (int node = 0; node < nodeCount; node++) {
+			offsets[node + 1] += offsets[node];
+		}
+		int[] next = offsets.clone();
+		try (DataInputStream rels = openRelationships()) {
+			for (int rel = 0; rel < relationshipCount; rel++) {
+				adjacency[next[readEnd(rels, end)]++] = rel;
+			}
+		}
+		try (DataOutputStream out = open(offsetsName)) {
+			for (int offset : offsets) {
+				out.writeInt(offset);
+			}
+		}
+		try (DataOutputStream out = open(adjacencyName)) {
+			for (int rel : adjacency) {
+				out.writeInt(rel);
+			}
+		}
+	}
+
+	private DataInputStream openRelationships() throws IOException {
+		return new DataInputStream(new BufferedInputStream(
+				new FileInputStream(new File(dir, ColumnarFormat.RELATIONSHIPS)), 1 << 16));
+	}
+
+	// read a relationship, returning its start node (end 0) or end node (end 1)
+	private static int readEnd(DataInputStream rels, int end) throws IOException {
+		int node = -1;
+		for (int i = 0; i < ColumnarFormat.RELATIONSHIP_INTS; i++) {
+			int value = rels.readInt();
+			if (i == end) {
+				node = value;
+			}
+		}
+		return node;
+	}
+
+	private static void writeInts(DataOutputStream out, int[] ints) throws IOException {
+		out.writeInt(ints.length);
+		for (int i : ints) {
+			out.writeInt(i);
+		}
+	}
+
+	private int[] intern(List<String> names) throws IOException {
+		int[] ids = new int[names.size()];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = stringId(names.get(i));
+		}
+		return ids;
+	}
+
+	private int stringId(String s) throws IOException {
+		Integer id = stringIds.get(s);
+		if (id == null) {
+			id = stringCount++;
+			stringIds.put(s, id);
+			byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+			stringOffsets.writeLong(stringBytes);
+			strings.write(bytes);
+			stringBytes += bytes.length;
+		}
+		return id;
+	}
+
+	// id of the value in the dictionary, encoding the arrays and the scalars
+	// not cached
+	private int valueId(Object value) throws IOException {
+		boolean scalar = !(value instanceof String[]) && !(value instanceof long[]);
+		if (scalar) {
+			Integer id = valueIds.get(value);
+			if (id != null) {
+				return id;
+			}
+		}
+		int id = valueCount++;
+		valueOffsets.writeLong(valueBytes);
+		if (value instanceof String) {
+			values.writeByte(ColumnarFormat.STRING);
+			values.writeInt(stringId((String) value));
+			valueBytes += 1 + 4;
+		} else if (value instanceof String[]) {
+			String[] array = (String[]) value;
+			values.writeByte(ColumnarFormat.STRING_ARRAY);
+			values.writeInt(array.length);
+			for (String s : array) {
+				values.writeInt(stringId(s));
+			}
+			valueBytes += 1 + 4 + 4L * array.length;
+		} else if (value instanceof long[]) {
+			long[] array = (long[]) value;
+			values.writeByte(ColumnarFormat.LONG_ARRAY);
+			values.writeInt(array.length);
+			for (long l : array) {
+				values.writeLong(l);
+			}
+			valueBytes += 1 + 4 + 8L * array.length;
+		} else if (value instanceof Boolean) {
+			values.writeByte(ColumnarFormat.BOOLEAN);
+			values.writeBoolean((Boolean) value);
+			valueBytes += 1 + 1;
+		} else if (value instanceof Integer) {
+			values.writeByte(ColumnarFormat.INT);
+			values.writeInt((Integer) value);
+			valueBytes += 1 + 4;
+		} else if (value instanceof Long) {
+			values.writeByte(ColumnarFormat.LONG);
+			values.writeLong((Long) value);
+			valueBytes += 1 + 8;
+		} else {
+			throw new IllegalArgumentException("Unsupported property value: " + value.getClass().getName());
+		}
+		if (scalar) {
+			valueIds.put(value, id);
+		}
+		return id;
+	}
+
+	// least recently used entries evicted past DEDUP_SIZE
+	private static <K> Map<K, Integer> lruMap() {
+		return new LinkedHashMap<K, Integer>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<K, Integer> eldest) {
+				return size() > DEDUP_SIZE;
+			}
+		};
+	}
+
+	/**
+	 * the property columns of the nodes or of the relationships, one file per
+	 * key, in the order first found
+	 */
+	private class Columns {
+		final boolean nodes;
+		final List<String> keys = new ArrayList<>();
+		final Map<String, Column> columns = new LinkedHashMap<>();
+
+		Columns(boolean nodes) {
+			this.nodes = nodes;
+		}
+
+		// write the values of an entity, once the entities before are written
+		void write(Map<String, Object> properties, int entity) throws IOException {
+			for (Map.Entry<String, Object> entry : properties.entrySet()) {
+				Column column = columns.get(entry.getKey());
+				if (column == null) {
+					int key = keys.size();
+					keys.add(entry.getKey());
+					column = new Column(open(nodes ? ColumnarFormat.nodeColumn(key)
+							: ColumnarFormat.relationshipColumn(key)));
+					columns.put(entry.getKey(), column);
+				}
+				column.fill(entity);
+				column.out.writeInt(valueId(entry.getValue()));
+				column.length++;
+			}
+		}
+
+		void close(int count) throws IOException {
+			for (Column column : columns.values()) {
+				column.fill(count);
+				column.out.close();
+			}
+		}
+	}
+
+	private static class Column {
+		final DataOutputStream out;
+		// entities written
+		int length = 0;
+
+		Column(DataOutputStream out) {
+			this.out = out;
+		}
+
+		// no value for the entities up to this one
+		void fill(int entity) throws IOException {
+			for (; length < entity; length++) {
+				out.writeInt(-1);
+			}
+		}
+	}
+
+	private static class PendingNode {
+		final long[] labels = new long[ColumnarFormat.LABEL_WORDS];
+		final Map<String, Object> properties = new LinkedHashMap<>(4);
+	}
+
+}
@@ -0,0 +1,212 @@
+package graph;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * map from binding key to the id of its binding node, for the binding nodes
+ * resolved in one run
+ * <p>
+ * The most recently used keys are cached as strings, up to a bound. All the
+ * keys are also kept in a compact table: as UTF-8 bytes in one array, each
+ * key only storing the suffix it does not share with the key put before it
+ * (binding keys of one type share long prefixes). Every 16th key is stored
+ * in full, so a key is compared with at most 16 entries. An entry costs its
+ * suffix and about 32 bytes, instead of a <code>String</code>, a
+ * <code>HashMap</code> entry and a boxed <code>Long</code>.
+ * <p>
+ * The table is bounded only when the sink finds again the binding nodes it
+ * created in this run (see <code>GraphSink.findsCreatedNodes()</code>), as a
+ * database appended to does through the index on <em>KEY</em>: once it holds
+ * <code>tableSize</code> keys, the whole table is evicted at once and filled
+ * again, and a key evicted is looked up in the sink. The other sinks (bulk
+ * load, CSV, memory, columnar) cannot find a node again, so the table keeps
+ * every key of the run, and grows with the number of bindings.
+ * <p>
+ * Binding nodes stored by previous runs are not kept here, they are found
+ * through the sink.
+ */
+class BindingDictionary {
+
+	private static final int RESTART_INTERVAL = 16;
+
+	private final Map<String, Long> recent;
+
+	private byte[] bytes = new byte[64 * 1024];
+	private int bytesSize = 0;
+
+	// by entry, in the order put
+	private int[] offsets = new int[1024];
+	private int[] prefixes = new int[1024];
+	private int[] lengths = new int[1024];
+	private int[] hashes = new int[1024];
+	private long[] ids = new long[1024];
+	private int size = 0;
+	private byte[] last = new byte[0];
+	private final int tableSize;
+	private long evicted = 0;
+
+	// entry + 1 by hash, 0 if empty
+	private int[] slots = new int[2048];
+
+	/**
+	 * @param cacheSize
+	 *            number of recently used keys cached as strings
+	 * @param tableSize
+	 *            number of keys the compact table holds before it is evicted,
+	 *            or -1 to keep all of them
+	 */
+	BindingDictionary(final int cacheSize, int tableSize) {
+		this.tableSize = tableSize;
+		this.recent = new LinkedHashMap<String, Long>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+				return size() > cacheSize;
+			}
+		};
+	}
+
+	/**
+	 * @return id of the binding node, or -1 if not put
+	 */
+	public long get(String key) {
+		Long cached = recent.get(key);
+		if (cached != null) {
+			return cached;
+		}
+		int hash = key.hashCode();
+		byte[] encoded = null;
+		int mask = slots.length - 1;
+		for (int i = mix(hash) & mask; slots[i] != 0; i = (i + 1) & mask) {
+			int entry = slots[i] - 1;
+			if (hashes[entry] != hash) {
+				continue;
+			}
+			if (encoded == null) {
+				encoded = key.getBytes(StandardCharsets.UTF_8);
+			}
+			if (matches(entry, encoded)) {
+				recent.put(key, ids[entry]);
+				return ids[entry];
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * put a key not put yet
+	 */
+	public void put(String key, long id) {
+		if (size == tableSize) {
+			evict();
+		}
+		byte[] encoded = key.getBytes(StandardCharsets.UTF_8);
+		int prefix = size % RESTART_INTERVAL == 0 ? 0 : commonPrefix(last, encoded);
+		int length = encoded.length - prefix;
+
+		if (size == ids.length) {
+			int capacity = size * 2;
+			offsets = Arrays.copyOf(offsets, capacity);
+			prefixes = Arrays.copyOf(prefixes, capacity);
+			lengths = Arrays.copyOf(lengths, capacity);
+			hashes = Arrays.copyOf(hashes, capacity);
+			ids = Arrays.copyOf(ids, capacity);
+		}
+		if (bytesSize + length > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, bytesSize + length));
+		}
+		System.arraycopy(encoded, prefix, bytes, bytesSize, length);
+
+		int entry = size++;
+		offsets[entry] = bytesSize;
+		prefixes[entry] = prefix;
+		lengths[entry] = length;
+		hashes[entry] = key.hashCode();
+		ids[entry] = id;
+		bytesSize += length;
+		last = encoded;
+
+		if (size * 2 > slots.length) {
+			slots = new int[slots.length * 2];
+			for (int i = 0; i < size; i++) {
+				insert(i);
+			}
+		} else {
+			insert(entry);
+		}
+		recent.put(key, id);
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return number of keys evicted from the compact table
+	 */
+	public long getEvicted() {
+		return evicted;
+	}
+
+	/**
+	 * @return approximate number of bytes held by the compact table
+	 */
+	public long getTableBytes() {
+		return bytes.length + ids.length * 24L + slots.length * 4L;
+	}
+
+	// the entries share prefixes with the ones before, so they are all dropped
+	private void evict() {
+		evicted += size;
+		size = 0;
+		bytesSize = 0;
+		last = new byte[0];
+		Arrays.fill(slots, 0);
+	}
+
+	private void insert(int entry) {
+		int mask = slots.length - 1;
+		int i = mix(hashes[entry]) & mask;
+		while (slots[i] != 0) {
+			i = (i + 1) & mask;
+		}
+		slots[i] = entry + 1;
+	}
+
+	// compare without rebuilding the key: its bytes before the prefix of an
+	// entry are those of the entry before
+	private boolean matches(int entry, byte[] key) {
+		if (prefixes[entry] + lengths[entry] != key.length) {
+			return false;
+		}
+		int need = key.length;
+		for (int e = entry; need > 0; e--) {
+			for (int p = prefixes[e]; p < need; p++) {
+				if (bytes[offsets[e] + p - prefixes[e]] != key[p]) {
+					return false;
+				}
+			}
+			need = Math.min(need, prefixes[e]);
+		}
+		return true;
+	}
+
+	private static int commonPrefix(byte[] a, byte[] b) {
+		int n = Math.min(a.length, b.length);
+		int i = 0;
+		while (i < n && a[i] == b[i]) {
+			i++;
+		}
+		return i;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+}
@@ -1,57 +1,214 @@
 package graph;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
+import org.apache.log4j.Logger;
 import org.eclipse.jdt.core.dom.IBinding;
-import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.Label;
 
+import main.Option;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Phase;
+
+/**
+ * create binding nodes, one for each binding key
+ * <p>
+ * Binding nodes are shared by all the trees, so they are kept by id, which
+ * stays valid whatever the sink does between two trees, in a compact
+ * <code>BindingDictionary</code> (at most <code>Option.BINDING_CACHE_SIZE</code>
+ * keys are cached as strings, and at most <code>Option.BINDING_TABLE_SIZE</code>
+ * kept when the sink finds the nodes it created). A binding node stored by a
+ * previous run, or evicted from the dictionary, is found by its <em>KEY</em>,
+ * which is indexed, and reused rather than created again.
+ * <p>
+ * The type hierarchy is connected here as well, since it is keyed by binding
+ * too: each type declaration stored in this run is kept by its project and
+ * the key of its binding, and an <code>EXTENDS</code> or
+ * <code>IMPLEMENTS</code> relationship goes from the declaration of a type to
+ * the declaration of each supertype in the same project. A supertype not
+ * stored in this run is looked up by the <em>KEY</em> of the
+ * <code>Class</code> nodes stored by a previous run for the project, or else
+ * kept pending until its tree is stored. The projects of a manifest share a
+ * creator, but not their declarations, since the same names may be declared
+ * by several of them.
+ */
 public class BindingNodeCreator {
 
-	private final GraphDatabaseService db;
+	private final GraphSink sink;
+
+	private static Logger logger = Logger.getLogger(BindingNodeCreator.class);
+
+	private static final Label CLASS = DynamicLabel.label("Class");
 
-	private Map<String, Node> map = new HashMap<>();
+	private final BindingDictionary dictionary;
 
-	public BindingNodeCreator(GraphDatabaseService db) {
-		this.db = db;
+	// declaration node of each type stored in this run, by project and binding key
+	private Map<String, Long> typeNodes = new HashMap<>();
+	// subtypes waiting for the declaration of their supertype, by its project and key
+	private Map<String, List<PendingSupertype>> pendingSupertypes = new HashMap<>();
+	private int pendingCount = 0;
+
+	public BindingNodeCreator(GraphSink sink) {
+		this.sink = sink;
+		this.dictionary = new BindingDictionary(Option.BINDING_CACHE_SIZE,
+				sink.findsCreatedNodes() ? Option.BINDING_TABLE_SIZE : -1);
 	}
 
-	public Node getBindingNode(Node node0, IBinding binding) {
-		if (node0 == null) {
-			throw new IllegalArgumentException();
-		}
+	public long getBindingNode(long node0, IBinding binding) {
 		if (binding == null) {
 			throw new NullPointerException("binding is null");
 		}
 
-		String key = binding.getKey();
+		return getBindingNode(node0, binding.getKey(), binding.getKind(), binding.getName());
+	}
 
-		if (!map.containsKey(key)) {
+	/**
+	 * find or create the binding node of a key, with no relationship to it
+	 *
+	 * @param kind
+	 *            kind of the binding, as <code>IBinding.getKind()</code>
+	 * @return id of the binding node
+	 */
+	public long getBindingNode(String key, int kind, String name) {
+		long start = System.nanoTime();
+		Metrics metrics = Metrics.get();
+		metrics.count(Counter.BINDING_LOOKUPS);
+		long node = dictionary.get(key);
+		if (node < 0) {
+			node = findOrCreate(key, kind, name);
+			dictionary.put(key, node);
+		} else {
+			metrics.count(Counter.BINDING_DICTIONARY_HITS);
+		}
+		metrics.record(Phase.BINDING, start);
+		return node;
+	}
+
+	/**
+	 * the same as <code>getBindingNode(node0, binding)</code>, with what is
+	 * used of the binding
+	 *
+	 * @param kind
+	 *            kind of the binding, as <code>IBinding.getKind()</code>
+	 */
+	public long getBindingNode(long node0, String key, int kind, String name) {
+		if (node0 < 0) {
+			throw new IllegalArgumentException();
+		}
 
-			Node node = db.createNode();
-			node.addLabel(NodeLabel.Binding);
+		long node = getBindingNode(key, kind, name);
+		sink.createRelationship(node0, node, RelType.BINDING, null);
+		return node;
+	}
+
+	private long findOrCreate(String key, int kind, String name) {
+		long node = sink.findNode(NodeLabel.Binding, "KEY", key);
+		if (node >= 0) {
+			Metrics.get().count(Counter.BINDING_STORE_HITS);
+		} else {
+			Metrics.get().count(Counter.BINDINGS_CREATED);
+			node = sink.createNode();
+			sink.addLabel(node, NodeLabel.Binding);
 
-			int kind = binding.getKind();
 			if (kind == IBinding.TYPE) {
-				node.addLabel(NodeLabel.TypeBinding);
+				sink.addLabel(node, NodeLabel.TypeBinding);
 			} else if (kind == IBinding.METHOD) {
-				node.addLabel(NodeLabel.MethodBinding);
+				sink.addLabel(node, NodeLabel.MethodBinding);
 			} else if (kind == IBinding.VARIABLE) {
-				node.addLabel(NodeLabel.VariableBinding);
+				sink.addLabel(node, NodeLabel.VariableBinding);
 			} else {
 				throw new AssertionError();
 			}
 			
-			node.setProperty("KEY", key);
-			node.setProperty("NAME", binding.getName());
+			sink.setProperty(node, "KEY", key);
+			sink.setProperty(node, "NAME", name);
+		}
+		return node;
+	}
 
-			map.put(key, node);
+	/**
+	 * keep the declaration node of a type, and connect the subtypes waiting
+	 * for it
+	 *
+	 * @param project
+	 *            name of the project of the declaration
+	 * @param key
+	 *            key of the type binding
+	 */
+	public void declareType(long node, String project, String key) {
+		String typeKey = typeKey(project, key);
+		typeNodes.put(typeKey, node);
+		List<PendingSupertype> pending = pendingSupertypes.remove(typeKey);
+		if (pending != null) {
+			for (PendingSupertype subtype : pending) {
+				sink.createRelationship(subtype.node, node, subtype.type, null);
+			}
+			pendingCount -= pending.size();
 		}
+	}
 
-		Node node = map.get(key);
-		node0.createRelationshipTo(node, RelType.BINDING);
-		return node;
+	/**
+	 * connect the declaration of a type to that of its supertype, now if
+	 * stored or else once stored
+	 * <p>
+	 * This is also how the subtypes of a deleted tree are connected again to
+	 * the declaration which replaces it.
+	 *
+	 * @param project
+	 *            name of the project of both declarations
+	 * @param key
+	 *            key of the binding of the supertype declaration
+	 * @param type
+	 *            <code>RelType.EXTENDS</code> or
+	 *            <code>RelType.IMPLEMENTS</code>
+	 */
+	public void addSupertype(long node, String project, String key, RelType type) {
+		String typeKey = typeKey(project, key);
+		Long supertype = typeNodes.get(typeKey);
+		if (supertype == null) {
+			long stored = sink.findNode(CLASS, "KEY", key, project);
+			if (stored >= 0) {
+				supertype = stored;
+			}
+		}
+		if (supertype != null) {
+			sink.createRelationship(node, supertype, type, null);
+			return;
+		}
+		List<PendingSupertype> pending = pendingSupertypes.get(typeKey);
+		if (pending == null) {
+			pending = new ArrayList<>(2);
+			pendingSupertypes.put(typeKey, pending);
+		}
+		pending.add(new PendingSupertype(node, type));
+		pendingCount++;
+	}
+
+	// project names hold no '/' (see ProjectManifest)
+	private static String typeKey(String project, String key) {
+		return project + "/" + key;
+	}
+
+	public void logStatistics() {
+		logger.info(String.format("Binding dictionary: %d keys in %.1f MB, %d evicted", dictionary.size(),
+				dictionary.getTableBytes() / (1024.0 * 1024.0), dictionary.getEvicted()));
+		logger.info(String.format("Type hierarchy: %d types, %d supertypes not stored in this run", typeNodes.size(),
+				pendingCount));
+	}
+
+	private static class PendingSupertype {
+		final long node;
+		final RelType type;
+
+		PendingSupertype(long node, RelType type) {
+			this.node = node;
+			this.type = type;
+		}
 	}
 
 }
@@ -2,88 +2,336 @@ package graph;
 
 import java.io.File;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.eclipse.jdt.core.dom.ASTNode;
+import org.eclipse.jdt.core.dom.ASTVisitor;
 import org.eclipse.jdt.core.dom.AbstractTypeDeclaration;
 import org.eclipse.jdt.core.dom.Annotation;
 import org.eclipse.jdt.core.dom.BodyDeclaration;
+import org.eclipse.jdt.core.dom.ClassInstanceCreation;
 import org.eclipse.jdt.core.dom.Comment;
+import org.eclipse.jdt.core.dom.ConstructorInvocation;
+import org.eclipse.jdt.core.dom.EnumDeclaration;
 import org.eclipse.jdt.core.dom.Expression;
+import org.eclipse.jdt.core.dom.IBinding;
+import org.eclipse.jdt.core.dom.IMethodBinding;
 import org.eclipse.jdt.core.dom.ITypeBinding;
 import org.eclipse.jdt.core.dom.MethodDeclaration;
+import org.eclipse.jdt.core.dom.MethodInvocation;
 import org.eclipse.jdt.core.dom.Name;
 import org.eclipse.jdt.core.dom.SimpleType;
 import org.eclipse.jdt.core.dom.Statement;
+import org.eclipse.jdt.core.dom.SuperConstructorInvocation;
+import org.eclipse.jdt.core.dom.SuperMethodInvocation;
 import org.eclipse.jdt.core.dom.Type;
 import org.eclipse.jdt.core.dom.TypeDeclaration;
 import org.eclipse.jdt.core.dom.VariableDeclaration;
 import org.neo4j.graphdb.DynamicLabel;
-import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Node;
-import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
 
+import ast.NodeFilter;
+import ast.ProjectModule;
 import ast.StoreVisitor;
 import ast.Tree;
 import main.Option;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Phase;
 
 /**
  * <code>Graph</code> is a model of nodes and relationships in Neo4j database.
  * In this project, all changes to databases should be done by invoking methods
  * in this class, rather than directly by Neo4j's API.
  * <p>
- * <code>Graph</code> stores a (one-one) mapping from ASTNode to Neo4j's Node,
- * and this mapping is essential when setting properties and adding
- * relationships.
+ * <code>Graph</code> stores a (one-one) mapping from ASTNode to the id of its
+ * node, and this mapping is essential when setting properties and adding
+ * relationships. The mapping only holds the nodes of the tree being stored,
+ * and is cleared at the end of <code>storeTree()</code>, so no AST is kept
+ * alive after it is stored. What later passes need across trees (tree roots,
+ * class nodes, binding nodes) is kept by id.
+ * <p>
+ * All the writes go through a <code>GraphSink</code>, which may commit or
+ * buffer between any two writes. Nodes are therefore always referred to by id.
+ * <p>
+ * The root node of each tree records the file it is created from
+ * (<em>FILENAME</em>, and <em>PATH</em> relative to the project directory),
+ * the <em>HASH</em> of the file content, the name of its <em>PROJECT</em>,
+ * and the ids of all the nodes of the tree (<em>NODES</em>), so that the tree
+ * can be found and deleted when its file changes. The root of a tree in a module of a multi-module project also
+ * records the <em>MODULE</em> path.
+ * <p>
+ * Only the AST nodes accepted by the <code>NodeFilter</code> are stored.
+ * Relationships to the nodes not stored are skipped.
+ * <p>
+ * AST relationships are of type <code>AST</code> with the role (see
+ * <code>RelName</code>) as <em>NAME</em> property, or with
+ * <code>Option.TYPED_RELATIONSHIPS</code>, of the role as type and without
+ * property, e.g. <code>(:Method)-[:BODY]-&gt;(:Block)</code>.
+ * <p>
+ * With a <code>TreeCache</code>, the writes storing a tree are recorded and
+ * cached by the hash of its file, and <code>replayTree()</code> stores a tree
+ * again from its record, without its AST.
+ * <p>
+ * A tree parsed without bindings is stored without binding nodes, and its
+ * root is marked <em>RESOLVED</em> false, until <code>resolveTree()</code>
+ * attaches its bindings.
+ * <p>
+ * The declaration of a type resolved is connected to the declarations of its
+ * supertypes found in the source, by <code>EXTENDS</code> (the superclass of
+ * a class, the superinterfaces of an interface) or <code>IMPLEMENTS</code>
+ * relationships, through <code>BindingNodeCreator</code>, which keeps the
+ * supertypes declared in trees not stored yet. The declaration records the
+ * <em>KEY</em> of its binding, by which it is found by later runs.
+ * <p>
+ * The resolved invocations of a tree make its call graph: a
+ * <code>CALLS</code> relationship from each caller to the binding node of
+ * each method it calls, with the number of calls as <em>COUNT</em> (see
+ * <code>addCall()</code>).
  */
 public class Graph {
 
 	private static final Logger logger = Logger.getLogger(Graph.class);
 
-	private final GraphDatabaseService db;
+	private final GraphSink sink;
 //	private final ExecutionEngine engine;
 	private final BindingNodeCreator bindingNodeCreator;
+	private final NodeFilter filter;
+	private final TreeCache cache;
+	private final String projectName;
 
-	private Map<ASTNode, Node> map = new HashMap<>();
-	private List<Node> treeRoots = new ArrayList<>();
-	private List<Node> classNodes = new ArrayList<>();
+	// record of the tree being stored, if cached
+	private TreeRecord record = null;
+	private NodeIdTable map = new NodeIdTable();
+	private List<Long> treeRoots = new ArrayList<>();
+	private List<Long> classNodes = new ArrayList<>();
+	// project node, module nodes by path, and modules created in this run
+	private long projectNode = -1;
+	private Map<String, ProjectModule> modules = new HashMap<>();
+	private Map<String, Long> moduleNodes = new HashMap<>();
+	private int createdModules = 0;
+	private Map<String, RelationshipType> relTypes = new HashMap<>();
+	// calls of the tree being stored, by caller, then by key of the callee
+	private Map<ASTNode, Map<String, Call>> calls = new LinkedHashMap<>();
 	
-	public Graph(GraphDatabaseService db) {
-		this.db = db;
+	public Graph(GraphSink sink) {
+		this(sink, new NodeFilter());
+	}
+
+	public Graph(GraphSink sink, NodeFilter filter) {
+		this(sink, filter, null);
+	}
+
+	/**
+	 * @param cache
+	 *            cache of tree records, or <code>null</code> not to record
+	 *            trees
+	 */
+	public Graph(GraphSink sink, NodeFilter filter, TreeCache cache) {
+		this(sink, filter, cache, Option.PROJECT_DIR.substring(Option.PROJECT_DIR.lastIndexOf(File.separator) + 1),
+				new BindingNodeCreator(sink));
+	}
+
+	/**
+	 * @param projectName
+	 *            name of the project node the trees are connected to
+	 * @param bindingNodeCreator
+	 *            creator of the binding nodes, shared by the graphs of the
+	 *            projects stored into the same sink so that a binding has one
+	 *            node for all of them
+	 */
+	public Graph(GraphSink sink, NodeFilter filter, TreeCache cache, String projectName,
+			BindingNodeCreator bindingNodeCreator) {
+		this.sink = sink;
 //		this.engine = new ExecutionEngine(db);
-		this.bindingNodeCreator = new BindingNodeCreator(db);
+		this.bindingNodeCreator = bindingNodeCreator;
+		this.filter = filter;
+		this.cache = cache;
+		this.projectName = projectName;
 	}
 
 	public void storeTree(Tree tree) {
-		StoreVisitor visitor = new StoreVisitor(this);
-		tree.root.accept(visitor);
+		long start = System.nanoTime();
+		long rootNode;
+		long[] nodes;
+		byte[] bytes = null;
+		int firstClass = classNodes.size();
+		try {
+			if (cache != null) {
+				record = new TreeRecord();
+			}
+			StoreVisitor visitor = new StoreVisitor(this, filter);
+			tree.root.accept(visitor);
+			storeCalls();
 
-		Node rootNode = map.get(tree.root);
-		rootNode.setProperty("FILENAME", tree.filename);
-		treeRoots.add(rootNode);
+			rootNode = idOf(tree.root);
+			nodes = map.getIds();
+			if (record != null) {
+				bytes = record.toBytes();
+			}
+		} finally {
+			map.clear();
+			calls.clear();
+			record = null;
+		}
+		finishTree(tree, rootNode, nodes, firstClass);
+		if (bytes != null) {
+			cache.put(tree.hash, bytes);
+		}
+		Metrics.get().record(Phase.STORE, start);
 		logger.info(String.format("Store tree '%s'", tree.filename));
 	}
 
+	/**
+	 * store a tree from the record cached for its file, instead of its AST
+	 *
+	 * @param tree
+	 *            the tree, whose root may be <code>null</code>
+	 * @throws IllegalArgumentException
+	 *             if the bytes are not a record, in which case nothing is
+	 *             written
+	 */
+	public void replayTree(Tree tree, byte[] bytes) {
+		long start = System.nanoTime();
+		TreeRecord.check(bytes);
+		int firstClass = classNodes.size();
+		Replayer replayer = new Replayer();
+		TreeRecord.replay(bytes, replayer);
+		finishTree(tree, replayer.ids[0], replayer.getIds(), firstClass);
+		Metrics.get().record(Phase.REPLAY, start);
+		logger.info(String.format("Replay tree '%s'", tree.filename));
+	}
+
+	/**
+	 * attach the bindings of a tree stored without them to its stored nodes,
+	 * which are found by their order in <em>NODES</em>, and mark the tree
+	 * <em>RESOLVED</em>
+	 *
+	 * @param tree
+	 *            the tree parsed again with bindings, from the same file
+	 *            content
+	 * @param rootNode
+	 *            the stored root of the tree
+	 * @param nodes
+	 *            the ids of the stored nodes of the tree
+	 * @throws IllegalArgumentException
+	 *             if the nodes are not those of the tree, e.g. stored with
+	 *             another filter, in which case nothing is written
+	 */
+	public void resolveTree(Tree tree, long rootNode, long[] nodes) {
+		long start = System.nanoTime();
+		final List<ASTNode> astNodes = new ArrayList<>(nodes.length);
+		tree.root.accept(new ASTVisitor() {
+			@Override
+			public boolean preVisit2(ASTNode node) {
+				// the nodes accepted, as stored by StoreVisitor
+				if (!filter.accept(node)) {
+					return false;
+				}
+				astNodes.add(node);
+				return true;
+			}
+		});
+		if (astNodes.size() != nodes.length) {
+			throw new IllegalArgumentException(String.format("Tree '%s' has %d nodes, %d stored", tree.path,
+					astNodes.size(), nodes.length));
+		}
+
+		try {
+			for (int i = 0; i < nodes.length; i++) {
+				ASTNode astNode = astNodes.get(i);
+				map.put(astNode, nodes[i]);
+				addBindings(nodes[i], -1, astNode);
+				if (astNode instanceof SimpleType) {
+					ITypeBinding binding = ((SimpleType) astNode).resolveBinding();
+					if (binding != null) {
+						sink.setProperty(nodes[i], "NAME", binding.getName());
+						sink.setProperty(nodes[i], "QUALIFIED_NAME", binding.getQualifiedName());
+					}
+				}
+				addCall(astNode);
+			}
+			storeCalls();
+		} finally {
+			map.clear();
+			calls.clear();
+		}
+		sink.setProperty(rootNode, "RESOLVED", true);
+		sink.flush();
+		Metrics.get().record(Phase.RESOLVE, start);
+		logger.info(String.format("Resolve tree '%s'", tree.filename));
+	}
+
+	private void finishTree(Tree tree, long rootNode, long[] nodes, int firstClass) {
+		sink.setProperty(rootNode, "NODES", nodes);
+		sink.setProperty(rootNode, "FILENAME", tree.filename);
+		sink.setProperty(rootNode, "PATH", tree.path);
+		sink.setProperty(rootNode, "HASH", tree.hash);
+		sink.setProperty(rootNode, "PROJECT", projectName);
+		if (tree.module != null) {
+			sink.setProperty(rootNode, "MODULE", tree.module);
+		}
+		if (!tree.resolved) {
+			sink.setProperty(rootNode, "RESOLVED", false);
+		}
+		connectClasses(firstClass, tree.module);
+		treeRoots.add(rootNode);
+		sink.flush();
+		Metrics.get().count(Counter.FILES);
+	}
+
+	/**
+	 * connect the class nodes of the trees of the modules to the node of
+	 * their module as well as to the project node
+	 */
+	public void setModules(Collection<ProjectModule> modules) {
+		this.modules.clear();
+		for (ProjectModule module : modules) {
+			this.modules.put(module.getPath(), module);
+		}
+	}
+
+	/**
+	 * create the project node unless stored or created already
+	 */
 	public void connectTrees() {
-		Node project = db.createNode(NodeLabel.Project);
-		String projectName = Option.PROJECT_DIR.substring(Option.PROJECT_DIR.lastIndexOf(File.separator) + 1);
-		project.setProperty("NAME", projectName);
-		project.setProperty("OUTNAME", "Project");
-		
-		
-//		for (Node treeRoot : treeRoots) {
-//			project.createRelationshipTo(treeRoot, RelType.CONN);
-//		}
-//		logger.info(String.format("Connect trees to node Project(%s)", projectName));
-		
-		for (Node classNode : classNodes) {
-			project.createRelationshipTo(classNode, RelType.CLASSES);
+		connectTrees(Collections.<ProjectModule> emptyList());
+	}
+
+	/**
+	 * create the project node and the nodes of the modules unless stored or
+	 * created already, and connect each module to the modules it depends on,
+	 * in place of the <code>DEPENDS</code> relationships stored before
+	 * <p>
+	 * The class nodes are connected as each tree is stored, by
+	 * <code>CLASSES</code> relationships from the project node and from the
+	 * node of their module (see <code>setModules()</code>), so that the trees
+	 * committed by an import which then fails are connected too.
+	 * <p>
+	 * Each module has a <code>Module</code> node, found by its <em>KEY</em>
+	 * (project name and module path) or else created with a
+	 * <code>MODULES</code> relationship from the project node.
+	 */
+	public void connectTrees(Collection<ProjectModule> modules) {
+		long start = System.nanoTime();
+		getProjectNode();
+		logger.info(String.format("Connect %d class nodes to node Project(%s)", classNodes.size(), projectName));
+
+		if (!modules.isEmpty()) {
+			connectModules(modules);
 		}
-		logger.info(String.format("Connect class nodes to node Project(%s)", projectName));
-	
+		sink.flush();
+		Metrics.get().record(Phase.CONNECT, start);
+		bindingNodeCreator.logStatistics();
 	}
 
 //	public void connectTypeRelationships() {
@@ -93,12 +341,72 @@ public class Graph {
 //		engine.execute(query);
 //	}
 
+	private void connectModules(Collection<ProjectModule> modules) {
+		// the dependencies are those of the build files now, stored or not
+		for (ProjectModule module : modules) {
+			long node = getModuleNode(module);
+			sink.deleteRelationships(node, RelType.DEPENDS);
+			for (ProjectModule dependency : module.getDependencies()) {
+				sink.createRelationship(node, getModuleNode(dependency), RelType.DEPENDS, null);
+			}
+		}
+		logger.info(String.format("Connect %d modules, %d new", modules.size(), createdModules));
+		createdModules = 0;
+	}
+
+	// connect the class nodes of the tree stored last
+	private void connectClasses(int firstClass, String modulePath) {
+		ProjectModule module = modulePath == null ? null : modules.get(modulePath);
+		for (int i = firstClass; i < classNodes.size(); i++) {
+			sink.createRelationship(getProjectNode(), classNodes.get(i), RelType.CLASSES, null);
+			if (module != null) {
+				sink.createRelationship(getModuleNode(module), classNodes.get(i), RelType.CLASSES, null);
+			}
+		}
+	}
+
+	private long getProjectNode() {
+		if (projectNode < 0) {
+			projectNode = sink.findNode(NodeLabel.Project, "NAME", projectName);
+			if (projectNode < 0) {
+				projectNode = sink.createNode();
+				sink.addLabel(projectNode, NodeLabel.Project);
+				sink.setProperty(projectNode, "NAME", projectName);
+				sink.setProperty(projectNode, "OUTNAME", "Project");
+			}
+		}
+		return projectNode;
+	}
+
+	private long getModuleNode(ProjectModule module) {
+		Long node = moduleNodes.get(module.getPath());
+		if (node == null) {
+			String key = projectName + "/" + module.getPath();
+			node = sink.findNode(NodeLabel.Module, "KEY", key);
+			if (node < 0) {
+				node = sink.createNode();
+				sink.addLabel(node, NodeLabel.Module);
+				sink.setProperty(node, "KEY", key);
+				sink.setProperty(node, "NAME", module.getName());
+				sink.setProperty(node, "PATH", module.getPath());
+				sink.setProperty(node, "BUILD", module.getBuild());
+				sink.setProperty(node, "OUTNAME", "Module");
+				sink.createRelationship(getProjectNode(), node, RelType.MODULES, null);
+				createdModules++;
+			}
+			moduleNodes.put(module.getPath(), node);
+		}
+		return node;
+	}
+
 	/**
 	 * create a node and add labels according to the giving ASTNode
 	 */
-	public Node createNode(ASTNode astNode) {
+	public long createNode(ASTNode astNode) {
 
-		Node node = db.createNode();
+		long node = sink.createNode();
+		map.put(astNode, node);
+		int ordinal = record != null ? record.createNode() : -1;
 
 		// add raw label
 		String name = astNode.getClass().getSimpleName();
@@ -111,60 +419,219 @@ public class Graph {
 		if (name.equals("FieldDeclaration")) {
 			name = "Field";
 		}
-		node.addLabel(DynamicLabel.label(name));
+		addLabel(node, ordinal, DynamicLabel.label(name));
 
 		// add general label
 		if (astNode instanceof BodyDeclaration) {
-			node.addLabel(NodeLabel.BodyDeclaration);
+			addLabel(node, ordinal, NodeLabel.BodyDeclaration);
 		}
 		if (astNode instanceof AbstractTypeDeclaration) {
-			node.addLabel(NodeLabel.AbstractTypeDeclaration);
+			addLabel(node, ordinal, NodeLabel.AbstractTypeDeclaration);
 		}
 		if (astNode instanceof Comment) {
-			node.addLabel(NodeLabel.Comment);
+			addLabel(node, ordinal, NodeLabel.Comment);
 		}
 		if (astNode instanceof Expression) {
-			node.addLabel(NodeLabel.Expression);
+			addLabel(node, ordinal, NodeLabel.Expression);
 		}
 		if (astNode instanceof Annotation) {
-			node.addLabel(NodeLabel.Annatation);
+			addLabel(node, ordinal, NodeLabel.Annatation);
 		}
 		if (astNode instanceof Name) {
-			node.addLabel(NodeLabel.Name);
+			addLabel(node, ordinal, NodeLabel.Name);
 		}
 		if (astNode instanceof Statement) {
-			node.addLabel(NodeLabel.Statement);
+			addLabel(node, ordinal, NodeLabel.Statement);
 		}
 		if (astNode instanceof Type) {
-			node.addLabel(NodeLabel.Type);
+			addLabel(node, ordinal, NodeLabel.Type);
 		}
 		if (astNode instanceof VariableDeclaration) {
-			node.addLabel(NodeLabel.VariableDeclaration);
+			addLabel(node, ordinal, NodeLabel.VariableDeclaration);
 		}
 		
 		if (astNode instanceof TypeDeclaration) {
 			classNodes.add(node);
+			if (record != null) {
+				record.classNode(ordinal);
+			}
+		}
+
+		if (astNode.getAST().hasResolvedBindings()) {
+			addBindings(node, ordinal, astNode);
 		}
 
+		return node;
+	}
+
+	private void addBindings(long node, int ordinal, ASTNode astNode) {
 		// add type binding
 		if (astNode instanceof TypeDeclaration) {
-			bindingNodeCreator.getBindingNode(node, ((TypeDeclaration) astNode).resolveBinding());
+			addBinding(node, ordinal, ((TypeDeclaration) astNode).resolveBinding());
 		}
 		if (astNode instanceof SimpleType) {
 			ITypeBinding binding = ((SimpleType) astNode).resolveBinding();
-			if (!binding.isPrimitive() && !binding.getName().equals("String")) {
-				bindingNodeCreator.getBindingNode(node, binding);
+			if (binding != null && !binding.isPrimitive() && !binding.getName().equals("String")) {
+				addBinding(node, ordinal, binding);
 			}
 		}
 
 		// add method binding
 		if (astNode instanceof MethodDeclaration) {
-			bindingNodeCreator.getBindingNode(node, ((MethodDeclaration) astNode).resolveBinding());
+			addBinding(node, ordinal, ((MethodDeclaration) astNode).resolveBinding());
 		}
 
-		map.put(astNode, node);
+		if (astNode instanceof TypeDeclaration || astNode instanceof EnumDeclaration) {
+			addSupertypes(node, ordinal, ((AbstractTypeDeclaration) astNode).resolveBinding());
+		}
+	}
 
-		return node;
+	private void addSupertypes(long node, int ordinal, ITypeBinding binding) {
+		if (binding == null) {
+			return;
+		}
+		if (!binding.isEnum()) {
+			// the key finds the declaration from the subtypes of later runs
+			String key = binding.getKey();
+			sink.setProperty(node, "KEY", key);
+			bindingNodeCreator.declareType(node, projectName, key);
+			if (record != null) {
+				record.setProperty(ordinal, "KEY", key);
+				record.typeDeclaration(ordinal, key);
+			}
+		}
+		if (binding.isClass()) {
+			addSupertype(node, ordinal, binding.getSuperclass(), RelType.EXTENDS);
+		}
+		for (ITypeBinding superinterface : binding.getInterfaces()) {
+			addSupertype(node, ordinal, superinterface, binding.isInterface() ? RelType.EXTENDS : RelType.IMPLEMENTS);
+		}
+	}
+
+	private void addSupertype(long node, int ordinal, ITypeBinding supertype, RelType type) {
+		// only the types of the source have declarations to connect to
+		if (supertype == null || !supertype.isFromSource()) {
+			return;
+		}
+		String key = supertype.getTypeDeclaration().getKey();
+		bindingNodeCreator.addSupertype(node, projectName, key, type);
+		if (record != null) {
+			record.supertype(ordinal, key, type.name());
+		}
+	}
+
+	/**
+	 * count a call from the caller enclosing <code>invocation</code> to the
+	 * method it invokes, if resolved
+	 * <p>
+	 * The caller is the enclosing method declaration, or else the enclosing
+	 * type declaration (for field initializers and initializer blocks). The
+	 * callee is the binding node of the method declaration, so the calls of
+	 * all the parameterizations of a generic method count as one callee. The
+	 * <code>CALLS</code> relationships are created at the end of the tree, one
+	 * per caller and callee.
+	 * 
+	 * @param invocation
+	 *            a <code>MethodInvocation</code>,
+	 *            <code>SuperMethodInvocation</code>,
+	 *            <code>ClassInstanceCreation</code>,
+	 *            <code>ConstructorInvocation</code> or
+	 *            <code>SuperConstructorInvocation</code>; other nodes are
+	 *            ignored
+	 */
+	public void addCall(ASTNode invocation) {
+		IMethodBinding binding = invokedMethod(invocation);
+		if (binding == null) {
+			return;
+		}
+		ASTNode caller = invocation.getParent();
+		while (caller != null && !(caller instanceof MethodDeclaration)
+				&& !(caller instanceof AbstractTypeDeclaration)) {
+			caller = caller.getParent();
+		}
+		if (caller == null || map.get(caller) < 0) {
+			return;
+		}
+		binding = binding.getMethodDeclaration();
+		Map<String, Call> callees = calls.get(caller);
+		if (callees == null) {
+			callees = new LinkedHashMap<>();
+			calls.put(caller, callees);
+		}
+		Call call = callees.get(binding.getKey());
+		if (call == null) {
+			call = new Call(binding.getName());
+			callees.put(binding.getKey(), call);
+		}
+		call.count++;
+	}
+
+	private static IMethodBinding invokedMethod(ASTNode node) {
+		if (node instanceof MethodInvocation) {
+			return ((MethodInvocation) node).resolveMethodBinding();
+		} else if (node instanceof SuperMethodInvocation) {
+			return ((SuperMethodInvocation) node).resolveMethodBinding();
+		} else if (node instanceof ClassInstanceCreation) {
+			return ((ClassInstanceCreation) node).resolveConstructorBinding();
+		} else if (node instanceof ConstructorInvocation) {
+			return ((ConstructorInvocation) node).resolveConstructorBinding();
+		} else if (node instanceof SuperConstructorInvocation) {
+			return ((SuperConstructorInvocation) node).resolveConstructorBinding();
+		}
+		return null;
+	}
+
+	private void storeCalls() {
+		for (Map.Entry<ASTNode, Map<String, Call>> caller : calls.entrySet()) {
+			long node = map.get(caller.getKey());
+			if (node < 0) {
+				// deleted
+				continue;
+			}
+			for (Map.Entry<String, Call> callee : caller.getValue().entrySet()) {
+				Call call = callee.getValue();
+				createCall(node, callee.getKey(), call.name, call.count);
+				if (record != null) {
+					record.call(map.getOrdinal(caller.getKey()), callee.getKey(), call.name, call.count);
+				}
+			}
+		}
+		calls.clear();
+	}
+
+	private void createCall(long caller, String key, String name, int count) {
+		long callee = bindingNodeCreator.getBindingNode(key, IBinding.METHOD, name);
+		Map<String, Object> properties = new HashMap<>(2);
+		properties.put("COUNT", count);
+		sink.createRelationship(caller, callee, RelType.CALLS, properties);
+	}
+
+	private static class Call {
+		final String name;
+		int count = 0;
+
+		Call(String name) {
+			this.name = name;
+		}
+	}
+
+	private void addLabel(long node, int ordinal, Label label) {
+		sink.addLabel(node, label);
+		if (record != null) {
+			record.addLabel(ordinal, label.name());
+		}
+	}
+
+	private void addBinding(long node, int ordinal, IBinding binding) {
+		if (binding == null) {
+			// unresolved, e.g. a type of a module not depended on
+			logger.warn("Skip unresolved binding of node " + node);
+			return;
+		}
+		bindingNodeCreator.getBindingNode(node, binding);
+		if (record != null) {
+			record.binding(ordinal, binding.getKey(), binding.getKind(), binding.getName());
+		}
 	}
 
 	/**
@@ -178,8 +645,11 @@ public class Graph {
 	 *            the AST node
 	 */
 	public void deleteNode(ASTNode astNode) {
-		Node node = map.get(astNode);
-		node.delete();
+		sink.deleteNode(idOf(astNode));
+		if (record != null) {
+			record.deleteNode(map.getOrdinal(astNode));
+		}
+		map.markDeleted(astNode);
 	}
 
 	/**
@@ -204,18 +674,36 @@ public class Graph {
 		if (value == null) {
 			return;
 		}
-		map.get(node).setProperty(name, value);
+		sink.setProperty(idOf(node), name, value);
+		if (record != null) {
+			record.setProperty(map.getOrdinal(node), name, value);
+		}
 	}
 
 	public void addRelationship(ASTNode startNode, ASTNode endNode, String relName) {
 		if (endNode == null) {
 			return;
 		}
-		Node from = map.get(startNode);
-		Node to = map.get(endNode);
+		long to = map.get(endNode);
+		if (to < 0) {
+			// not stored, as filtered out or deleted
+			return;
+		}
+		long from = idOf(startNode);
+		createRelationship(from, to, relName);
+		if (record != null) {
+			record.addRelationship(map.getOrdinal(startNode), map.getOrdinal(endNode), relName);
+		}
+	}
 
-		Relationship rel = from.createRelationshipTo(to, RelType.AST);
-		rel.setProperty("NAME", relName);
+	private void createRelationship(long from, long to, String relName) {
+		if (Option.TYPED_RELATIONSHIPS) {
+			sink.createRelationship(from, to, relType(relName), null);
+		} else {
+			Map<String, Object> properties = new HashMap<>(2);
+			properties.put("NAME", relName);
+			sink.createRelationship(from, to, RelType.AST, properties);
+		}
 	}
 
 	@SuppressWarnings("rawtypes")
@@ -226,4 +714,96 @@ public class Graph {
 		}
 	}
 
+	private RelationshipType relType(String relName) {
+		RelationshipType type = relTypes.get(relName);
+		if (type == null) {
+			type = DynamicRelationshipType.withName(relName);
+			relTypes.put(relName, type);
+		}
+		return type;
+	}
+
+	/**
+	 * stores the writes of a record, keeping the ids of the nodes it creates
+	 */
+	private class Replayer implements TreeRecord.Handler {
+
+		long[] ids = new long[256];
+		int count = 0;
+
+		@Override
+		public void createNode() {
+			if (count == ids.length) {
+				ids = Arrays.copyOf(ids, count * 2);
+			}
+			ids[count++] = sink.createNode();
+		}
+
+		@Override
+		public void addLabel(int node, String label) {
+			sink.addLabel(ids[node], DynamicLabel.label(label));
+		}
+
+		@Override
+		public void classNode(int node) {
+			classNodes.add(ids[node]);
+		}
+
+		@Override
+		public void binding(int node, String key, int kind, String name) {
+			bindingNodeCreator.getBindingNode(ids[node], key, kind, name);
+		}
+
+		@Override
+		public void typeDeclaration(int node, String key) {
+			bindingNodeCreator.declareType(ids[node], projectName, key);
+		}
+
+		@Override
+		public void supertype(int node, String key, String type) {
+			bindingNodeCreator.addSupertype(ids[node], projectName, key, RelType.valueOf(type));
+		}
+
+		@Override
+		public void call(int node, String key, String name, int count) {
+			createCall(ids[node], key, name, count);
+		}
+
+		@Override
+		public void setProperty(int node, String key, Object value) {
+			sink.setProperty(ids[node], key, value);
+		}
+
+		@Override
+		public void addRelationship(int from, int to, String relName) {
+			createRelationship(ids[from], ids[to], relName);
+		}
+
+		@Override
+		public void deleteNode(int node) {
+			sink.deleteNode(ids[node]);
+			ids[node] = -1;
+		}
+
+		// ids of the nodes not deleted
+		long[] getIds() {
+			long[] result = new long[count];
+			int n = 0;
+			for (int i = 0; i < count; i++) {
+				if (ids[i] >= 0) {
+					result[n++] = ids[i];
+				}
+			}
+			return n == count ? result : Arrays.copyOf(result, n);
+		}
+	}
+
+	private long idOf(ASTNode astNode) {
+		long id = map.get(astNode);
+		if (id < 0) {
+			throw new IllegalStateException("No node stored for " + astNode.getClass().getSimpleName());
+		}
+		return id;
+	}
+
 }
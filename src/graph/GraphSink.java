@@ -0,0 +1,83 @@
+package graph;
+
+import java.util.Map;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+/**
+ * <code>GraphSink</code> is where <code>Graph</code> and
+ * <code>BindingNodeCreator</code> write nodes and relationships to.
+ * <p>
+ * Nodes are referred to by the <code>long</code> id returned from
+ * <code>createNode()</code>, which stays valid for the whole run, whatever the
+ * sink does with transactions or buffers in between.
+ * <p>
+ * <code>Graph</code> calls <code>flush()</code> at the end of each tree. Nodes
+ * are only deleted before the end of the tree they are created in, so a sink
+ * may buffer the writes of a tree until then.
+ */
+public interface GraphSink {
+
+	long createNode();
+
+	void addLabel(long node, Label label);
+
+	void setProperty(long node, String key, Object value);
+
+	/**
+	 * create a relationship
+	 *
+	 * @param properties
+	 *            properties of the relationship, or <code>null</code> if none
+	 */
+	void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties);
+
+	/**
+	 * delete a node, which must have no relationships
+	 */
+	void deleteNode(long node);
+
+	/**
+	 * delete the relationships of a type starting at a node stored by a
+	 * previous run
+	 * <p>
+	 * A sink writing a new store has no such node, and does nothing.
+	 */
+	void deleteRelationships(long node, RelationshipType type);
+
+	/**
+	 * find a node stored by a previous run
+	 * <p>
+	 * Nodes created in this run are only found if
+	 * <code>findsCreatedNodes()</code>, otherwise callers keep their own ids
+	 * of those.
+	 *
+	 * @return id of a node with the label and property, or -1 if none
+	 */
+	long findNode(Label label, String key, Object value);
+
+	/**
+	 * find a node stored by a previous run for a project, i.e. connected from
+	 * the <code>Project</code> node of that name by a <code>CLASSES</code>
+	 * relationship, as the class nodes are
+	 * <p>
+	 * The property may be shared by the nodes of several projects, as it is
+	 * by classes of the same name.
+	 *
+	 * @return id of a node with the label and property, or -1 if none
+	 */
+	long findNode(Label label, String key, Object value, String project);
+
+	/**
+	 * @return whether <code>findNode(label, key, value)</code> also finds the
+	 *         nodes created in this run, so that callers may drop their ids
+	 */
+	boolean findsCreatedNodes();
+
+	/**
+	 * called at the end of each tree
+	 */
+	void flush();
+
+}
@@ -0,0 +1,466 @@
+package graph;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.DynamicRelationshipType;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+import metrics.Counter;
+import metrics.Metrics;
+
+/**
+ * <code>GraphSink</code> keeping the whole graph in memory, in arrays of
+ * primitives
+ * <p>
+ * A node is an index into the node arrays, holding the heads of its lists of
+ * labels, properties, outgoing and incoming relationships. The lists are
+ * linked through arrays of entries too, so a node costs a few
+ * <code>int</code>s and no object. Labels, property keys and relationship
+ * types are interned into dictionaries and kept as <code>int</code>s, and
+ * string values are interned, so the names repeated all over a tree are kept
+ * once.
+ * <p>
+ * The graph can be read back through the accessors, relationships being
+ * walked like cursors:
+ *
+ * <pre>
+ * for (int rel = sink.getFirstOutgoing(node); rel &gt;= 0; rel = sink.getNextOutgoing(rel)) {
+ * 	long child = sink.getEndNode(rel);
+ * }
+ * </pre>
+ *
+ * and written into a store with <code>copyTo()</code>.
+ * <p>
+ * The graph is new, so <code>findNode()</code> finds nothing. The ids are
+ * <code>int</code>s, which bounds the graph to 2<sup>31</sup> nodes and as
+ * many relationships.
+ */
+public class MemorySink implements GraphSink {
+
+	private static final int INITIAL_CAPACITY = 1024;
+	// end of a list
+	private static final int NONE = -1;
+	// label list head of a deleted node
+	private static final int DELETED = -2;
+
+	private final Dictionary labels = new Dictionary();
+	private final Dictionary keys = new Dictionary();
+	private final Dictionary types = new Dictionary();
+	private final Map<String, String> strings = new HashMap<>();
+
+	private int nodes = 0;
+	private int deletedNodes = 0;
+	private int[] firstLabel = new int[INITIAL_CAPACITY];
+	private int[] firstProperty = new int[INITIAL_CAPACITY];
+	private int[] firstOut = new int[INITIAL_CAPACITY];
+	private int[] firstIn = new int[INITIAL_CAPACITY];
+
+	private int labelEntries = 0;
+	private int[] entryLabel = new int[INITIAL_CAPACITY];
+	private int[] nextLabel = new int[INITIAL_CAPACITY];
+
+	// properties of both nodes and relationships
+	private int propertyEntries = 0;
+	private int[] propertyKey = new int[INITIAL_CAPACITY];
+	private Object[] propertyValue = new Object[INITIAL_CAPACITY];
+	private int[] nextProperty = new int[INITIAL_CAPACITY];
+
+	private int relationships = 0;
+	private int[] relStart = new int[INITIAL_CAPACITY];
+	private int[] relEnd = new int[INITIAL_CAPACITY];
+	private int[] relType = new int[INITIAL_CAPACITY];
+	private int[] relFirstProperty = new int[INITIAL_CAPACITY];
+	private int[] nextOut = new int[INITIAL_CAPACITY];
+	private int[] nextIn = new int[INITIAL_CAPACITY];
+
+	private final Metrics metrics = Metrics.get();
+
+	/**
+	 * names interned as <code>int</code>s, in the order first seen
+	 */
+	private static class Dictionary {
+		final Map<String, Integer> ids = new HashMap<>();
+		final List<String> names = new ArrayList<>();
+
+		int idOf(String name) {
+			Integer id = ids.get(name);
+			if (id == null) {
+				id = names.size();
+				ids.put(name, id);
+				names.add(name);
+			}
+			return id;
+		}
+
+		// id of a name, or NONE if never seen
+		int find(String name) {
+			Integer id = ids.get(name);
+			return id == null ? NONE : id;
+		}
+	}
+
+	@Override
+	public long createNode() {
+		if (nodes == Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many nodes for a memory graph");
+		}
+		if (nodes == firstLabel.length) {
+			int capacity = grow(nodes);
+			firstLabel = Arrays.copyOf(firstLabel, capacity);
+			firstProperty = Arrays.copyOf(firstProperty, capacity);
+			firstOut = Arrays.copyOf(firstOut, capacity);
+			firstIn = Arrays.copyOf(firstIn, capacity);
+		}
+		int node = nodes++;
+		firstLabel[node] = NONE;
+		firstProperty[node] = NONE;
+		firstOut[node] = NONE;
+		firstIn[node] = NONE;
+		metrics.count(Counter.NODES);
+		return node;
+	}
+
+	@Override
+	public void addLabel(long node, Label label) {
+		int n = checkNode(node);
+		int id = labels.idOf(label.name());
+		for (int e = firstLabel[n]; e != NONE; e = nextLabel[e]) {
+			if (entryLabel[e] == id) {
+				return;
+			}
+		}
+		if (labelEntries == entryLabel.length) {
+			int capacity = grow(labelEntries);
+			entryLabel = Arrays.copyOf(entryLabel, capacity);
+			nextLabel = Arrays.copyOf(nextLabel, capacity);
+		}
+		int e = labelEntries++;
+		entryLabel[e] = id;
+		nextLabel[e] = firstLabel[n];
+		firstLabel[n] = e;
+		metrics.count(Counter.LABELS);
+	}
+
+	@Override
+	public void setProperty(long node, String key, Object value) {
+		int n = checkNode(node);
+		firstProperty[n] = setProperty(firstProperty[n], key, value);
+	}
+
+	// set a property in a list, returning the new head of the list
+	private int setProperty(int head, String key, Object value) {
+		int id = keys.idOf(key);
+		if (value instanceof String) {
+			value = intern((String) value);
+		}
+		metrics.count(Counter.PROPERTIES);
+		for (int e = head; e != NONE; e = nextProperty[e]) {
+			if (propertyKey[e] == id) {
+				propertyValue[e] = value;
+				return head;
+			}
+		}
+		if (propertyEntries == propertyKey.length) {
+			int capacity = grow(propertyEntries);
+			propertyKey = Arrays.copyOf(propertyKey, capacity);
+			propertyValue = Arrays.copyOf(propertyValue, capacity);
+			nextProperty = Arrays.copyOf(nextProperty, capacity);
+		}
+		int e = propertyEntries++;
+		propertyKey[e] = id;
+		propertyValue[e] = value;
+		nextProperty[e] = head;
+		return e;
+	}
+
+	private String intern(String value) {
+		String interned = strings.get(value);
+		if (interned == null) {
+			strings.put(value, value);
+			interned = value;
+		}
+		return interned;
+	}
+
+	@Override
+	public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+		int start = checkNode(from);
+		int end = checkNode(to);
+		if (relationships == Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many relationships for a memory graph");
+		}
+		if (relationships == relStart.length) {
+			int capacity = grow(relationships);
+			relStart = Arrays.copyOf(relStart, capacity);
+			relEnd = Arrays.copyOf(relEnd, capacity);
+			relType = Arrays.copyOf(relType, capacity);
+			relFirstProperty = Arrays.copyOf(relFirstProperty, capacity);
+			nextOut = Arrays.copyOf(nextOut, capacity);
+			nextIn = Arrays.copyOf(nextIn, capacity);
+		}
+		int rel = relationships++;
+		relStart[rel] = start;
+		relEnd[rel] = end;
+		relType[rel] = types.idOf(type.name());
+		relFirstProperty[rel] = NONE;
+		if (properties != null) {
+			for (Map.Entry<String, Object> entry : properties.entrySet()) {
+				relFirstProperty[rel] = setProperty(relFirstProperty[rel], entry.getKey(), entry.getValue());
+			}
+		}
+		nextOut[rel] = firstOut[start];
+		firstOut[start] = rel;
+		nextIn[rel] = firstIn[end];
+		firstIn[end] = rel;
+		metrics.count(Counter.RELATIONSHIPS);
+	}
+
+	@Override
+	public void deleteNode(long node) {
+		int n = checkNode(node);
+		if (firstOut[n] != NONE || firstIn[n] != NONE) {
+			throw new IllegalStateException("Cannot delete node " + node + " with relationships");
+		}
+		// the entries of its lists are left unused
+		firstLabel[n] = DELETED;
+		firstProperty[n] = NONE;
+		deletedNodes++;
+		metrics.count(Counter.DELETIONS);
+	}
+
+	@Override
+	public void deleteRelationships(long node, RelationshipType type) {
+
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value) {
+		return -1;
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value, String project) {
+		return -1;
+	}
+
+	@Override
+	public boolean findsCreatedNodes() {
+		return false;
+	}
+
+	@Override
+	public void flush() {
+
+	}
+
+	private int checkNode(long node) {
+		if (node < 0 || node >= nodes || firstLabel[(int) node] == DELETED) {
+			throw new IllegalArgumentException("No node " + node);
+		}
+		return (int) node;
+	}
+
+	private static int grow(int size) {
+		return (int) Math.min(Integer.MAX_VALUE, size + (size >> 1) + 16L);
+	}
+
+	/**
+	 * @return number of nodes, deleted ones excepted
+	 */
+	public int getNodeCount() {
+		return nodes - deletedNodes;
+	}
+
+	/**
+	 * @return upper bound of the node ids, the ids of all the nodes created,
+	 *         deleted or not, being below it
+	 */
+	public int getNodeIdBound() {
+		return nodes;
+	}
+
+	public int getRelationshipCount() {
+		return relationships;
+	}
+
+	public boolean exists(long node) {
+		return node >= 0 && node < nodes && firstLabel[(int) node] != DELETED;
+	}
+
+	public List<String> getLabels(long node) {
+		int n = checkNode(node);
+		List<String> result = new ArrayList<>(4);
+		for (int e = firstLabel[n]; e != NONE; e = nextLabel[e]) {
+			result.add(labels.names.get(entryLabel[e]));
+		}
+		return result;
+	}
+
+	public boolean hasLabel(long node, String label) {
+		int n = checkNode(node);
+		int id = labels.find(label);
+		for (int e = firstLabel[n]; e != NONE; e = nextLabel[e]) {
+			if (entryLabel[e] == id) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return the value of the property, or <code>null</code> if the node
+	 *         has none
+	 */
+	public Object getProperty(long node, String key) {
+		return getProperty(firstProperty[checkNode(node)], key);
+	}
+
+	private Object getProperty(int head, String key) {
+		int id = keys.find(key);
+		for (int e = head; e != NONE; e = nextProperty[e]) {
+			if (propertyKey[e] == id) {
+				return propertyValue[e];
+			}
+		}
+		return null;
+	}
+
+	public Map<String, Object> getProperties(long node) {
+		Map<String, Object> result = new LinkedHashMap<>();
+		for (int e = firstProperty[checkNode(node)]; e != NONE; e = nextProperty[e]) {
+			result.put(keys.names.get(propertyKey[e]), propertyValue[e]);
+		}
+		return result;
+	}
+
+	/**
+	 * @return the last outgoing relationship created from the node, or -1 if
+	 *         none
+	 */
+	public int getFirstOutgoing(long node) {
+		return firstOut[checkNode(node)];
+	}
+
+	/**
+	 * @return the outgoing relationship of the same node created before
+	 *         <code>rel</code>, or -1 if none
+	 */
+	public int getNextOutgoing(int rel) {
+		return nextOut[rel];
+	}
+
+	/**
+	 * @return the last incoming relationship created to the node, or -1 if
+	 *         none
+	 */
+	public int getFirstIncoming(long node) {
+		return firstIn[checkNode(node)];
+	}
+
+	/**
+	 * @return the incoming relationship of the same node created before
+	 *         <code>rel</code>, or -1 if none
+	 */
+	public int getNextIncoming(int rel) {
+		return nextIn[rel];
+	}
+
+	public long getStartNode(int rel) {
+		return relStart[rel];
+	}
+
+	public long getEndNode(int rel) {
+		return relEnd[rel];
+	}
+
+	public String getType(int rel) {
+		return types.names.get(relType[rel]);
+	}
+
+	/**
+	 * @return the value of the property, or <code>null</code> if the
+	 *         relationship has none
+	 */
+	public Object getRelationshipProperty(int rel, String key) {
+		return getProperty(relFirstProperty[rel], key);
+	}
+
+	/**
+	 * write the graph into another sink, e.g. a store, the deleted nodes left
+	 * out
+	 * <p>
+	 * The sink is flushed every <code>batch</code> nodes and relationships,
+	 * the relationships being written after all the nodes, so a sink
+	 * buffering its writes until flushed holds a batch at most.
+	 *
+	 * @param batch
+	 *            number of nodes or relationships written between two
+	 *            flushes
+	 * @return ids of the nodes in the sink, by id in this graph, -1 for the
+	 *         deleted ones
+	 */
+	public long[] copyTo(GraphSink sink, int batch) {
+		Label[] labelOf = new Label[labels.names.size()];
+		for (int i = 0; i < labelOf.length; i++) {
+			labelOf[i] = DynamicLabel.label(labels.names.get(i));
+		}
+		RelationshipType[] typeOf = new RelationshipType[types.names.size()];
+		for (int i = 0; i < typeOf.length; i++) {
+			typeOf[i] = DynamicRelationshipType.withName(types.names.get(i));
+		}
+
+		long[] ids = new long[nodes];
+		int written = 0;
+		for (int n = 0; n < nodes; n++) {
+			if (firstLabel[n] == DELETED) {
+				ids[n] = -1;
+				continue;
+			}
+			long id = sink.createNode();
+			ids[n] = id;
+			for (int e = firstLabel[n]; e != NONE; e = nextLabel[e]) {
+				sink.addLabel(id, labelOf[entryLabel[e]]);
+			}
+			for (int e = firstProperty[n]; e != NONE; e = nextProperty[e]) {
+				sink.setProperty(id, keys.names.get(propertyKey[e]), propertyValue[e]);
+			}
+			if (++written % batch == 0) {
+				sink.flush();
+			}
+		}
+		sink.flush();
+
+		for (int rel = 0; rel < relationships; rel++) {
+			Map<String, Object> properties = null;
+			if (relFirstProperty[rel] != NONE) {
+				properties = new HashMap<>(2);
+				for (int e = relFirstProperty[rel]; e != NONE; e = nextProperty[e]) {
+					properties.put(keys.names.get(propertyKey[e]), propertyValue[e]);
+				}
+			}
+			sink.createRelationship(ids[relStart[rel]], ids[relEnd[rel]], typeOf[relType[rel]], properties);
+			if ((rel + 1) % batch == 0) {
+				sink.flush();
+			}
+		}
+		sink.flush();
+		return ids;
+	}
+
+	/**
+	 * @return estimated size of the arrays of the graph, in bytes, the
+	 *         property values and dictionaries excepted
+	 */
+	public long getArrayBytes() {
+		return 4L * (firstLabel.length * 4L + entryLabel.length * 2L + propertyKey.length * 2L
+				+ relStart.length * 6L) + 8L * propertyValue.length;
+	}
+
+}
@@ -0,0 +1,121 @@
+package graph;
+
+import java.util.Arrays;
+
+import org.eclipse.jdt.core.dom.ASTNode;
+
+/**
+ * identity map from AST node to node id, for the nodes of one tree
+ * <p>
+ * Keys and ids are kept in two parallel arrays with open addressing, so an
+ * entry costs 12 to 16 bytes instead of a <code>HashMap</code> entry and a
+ * boxed <code>Long</code>. <code>clear()</code> keeps the arrays, so their
+ * size follows the largest tree stored so far.
+ * <p>
+ * Each node also has an ordinal, the order it is put in since cleared.
+ */
+class NodeIdTable {
+
+	private static final int INITIAL_CAPACITY = 1024;
+
+	private ASTNode[] keys = new ASTNode[INITIAL_CAPACITY];
+	private long[] ids = new long[INITIAL_CAPACITY];
+	private int[] ordinals = new int[INITIAL_CAPACITY];
+	private int size = 0;
+
+	public void put(ASTNode key, long id) {
+		if ((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		int i = indexOf(key);
+		if (keys[i] == null) {
+			keys[i] = key;
+			ordinals[i] = size++;
+		}
+		ids[i] = id;
+	}
+
+	/**
+	 * @return id of the node, or -1 if not in the table
+	 */
+	public long get(ASTNode key) {
+		int i = indexOf(key);
+		return keys[i] == null ? -1 : ids[i];
+	}
+
+	/**
+	 * @return ordinal of the node, or -1 if not in the table
+	 */
+	public int getOrdinal(ASTNode key) {
+		int i = indexOf(key);
+		return keys[i] == null ? -1 : ordinals[i];
+	}
+
+	/**
+	 * @return ids of all the nodes in the order they are put, except those
+	 *         marked deleted
+	 */
+	public long[] getIds() {
+		long[] result = new long[size];
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i] != null) {
+				result[ordinals[i]] = ids[i];
+			}
+		}
+		int n = 0;
+		for (long id : result) {
+			if (id >= 0) {
+				result[n++] = id;
+			}
+		}
+		return n == result.length ? result : Arrays.copyOf(result, n);
+	}
+
+	/**
+	 * mark the node deleted, keeping it in the table
+	 */
+	public void markDeleted(ASTNode key) {
+		int i = indexOf(key);
+		if (keys[i] != null) {
+			ids[i] = -1;
+		}
+	}
+
+	public void clear() {
+		Arrays.fill(keys, null);
+		size = 0;
+	}
+
+	// slot of the key, or the empty slot to put it in
+	private int indexOf(ASTNode key) {
+		int mask = keys.length - 1;
+		int i = mix(System.identityHashCode(key)) & mask;
+		while (keys[i] != null && keys[i] != key) {
+			i = (i + 1) & mask;
+		}
+		return i;
+	}
+
+	private static int mix(int h) {
+		h *= 0x9E3779B9;
+		return h ^ (h >>> 16);
+	}
+
+	private void resize(int capacity) {
+		ASTNode[] oldKeys = keys;
+		long[] oldIds = ids;
+		int[] oldOrdinals = ordinals;
+		keys = new ASTNode[capacity];
+		ids = new long[capacity];
+		ordinals = new int[capacity];
+		for (int i = 0; i < oldKeys.length; i++) {
+			if (oldKeys[i] != null) {
+				int j = indexOf(oldKeys[i]);
+				keys[j] = oldKeys[i];
+				ids[j] = oldIds[i];
+				ordinals[j] = oldOrdinals[i];
+			}
+		}
+	}
+
+}
@@ -23,4 +23,5 @@ public enum NodeLabel implements Label {
 	
 	// project
 	Project,
+	Module,
 }
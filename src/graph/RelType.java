@@ -6,6 +6,11 @@ public enum RelType implements RelationshipType {
 	AST,
 	CONN,
 	CLASSES,
+	MODULES,
+	DEPENDS,
 	BINDING,
 	UML,
+	EXTENDS,
+	IMPLEMENTS,
+	CALLS,
 }
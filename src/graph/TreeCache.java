@@ -0,0 +1,223 @@
+package graph;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.apache.log4j.Logger;
+
+/**
+ * on-disk cache of tree records, so that an unchanged file is stored by
+ * replaying its record instead of parsing it
+ * <p>
+ * A record is looked up by the hash of the file content, under a fingerprint
+ * of what else the record depends on: the classpath and sourcepath, the
+ * content of all the sources of the project when bindings are resolved, and
+ * the nodes filtered. Records of other fingerprints are left in place, and evicted
+ * like any other.
+ * <p>
+ * Each record is a deflated file under
+ * <code>&lt;dir&gt;/&lt;fingerprint&gt;/</code>. A hit touches the file, and
+ * <code>close()</code> deletes the least recently used files until the cache
+ * is within its size. A file which cannot be read as a record is deleted and
+ * taken as a miss.
+ */
+public class TreeCache {
+
+	private static Logger logger = Logger.getLogger(TreeCache.class);
+
+	private static final int MAGIC = 0x43505452;
+	private static final int VERSION = 4;
+	private static final String SUFFIX = ".tree";
+
+	private final File root;
+	private final File dir;
+	private final long maxBytes;
+
+	private long totalBytes = 0;
+	private int hits = 0;
+	private int misses = 0;
+
+	/**
+	 * @param dirPath
+	 *            the cache directory, created if missing
+	 * @param fingerprint
+	 *            what the records depend on besides the file content
+	 * @param maxBytes
+	 *            size the cache is evicted down to on <code>close()</code>
+	 */
+	public TreeCache(String dirPath, String fingerprint, long maxBytes) {
+		this.root = new File(dirPath);
+		this.dir = new File(root, sha1(VERSION + "/" + fingerprint));
+		this.maxBytes = maxBytes;
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IllegalStateException("Cannot create cache directory " + dir.getAbsolutePath());
+		}
+		for (File file : listRecords()) {
+			totalBytes += file.length();
+		}
+		logger.info(String.format("Tree cache in %s: %.1f MB", root.getAbsolutePath(), totalBytes / (1024.0 * 1024.0)));
+	}
+
+	/**
+	 * @return the record of the file content, or <code>null</code> if not
+	 *         cached
+	 */
+	public byte[] get(String hash) {
+		File file = new File(dir, hash + SUFFIX);
+		if (!file.isFile()) {
+			misses++;
+			return null;
+		}
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("not a record");
+			}
+			byte[] record = readAll(new InflaterInputStream(in));
+			file.setLastModified(System.currentTimeMillis());
+			hits++;
+			return record;
+		} catch (IOException e) {
+			logger.warn(String.format("Discard cached tree %s: %s", file.getName(), e.getMessage()));
+			remove(file);
+			misses++;
+			return null;
+		}
+	}
+
+	/**
+	 * cache the record of the file content, failures being only logged
+	 */
+	public void put(String hash, byte[] record) {
+		File file = new File(dir, hash + SUFFIX);
+		File temp = new File(dir, hash + ".tmp" + Thread.currentThread().getId());
+		try {
+			try (DataOutputStream out = new DataOutputStream(new FileOutputStream(temp))) {
+				out.writeInt(MAGIC);
+				out.writeInt(VERSION);
+				DeflaterOutputStream deflater = new DeflaterOutputStream(out);
+				deflater.write(record);
+				deflater.finish();
+			}
+			long old = file.length();
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			totalBytes += file.length() - old;
+		} catch (IOException e) {
+			logger.warn("Fail to cache tree " + hash, e);
+			temp.delete();
+		}
+	}
+
+	/**
+	 * evict the least recently used records beyond the size of the cache
+	 */
+	public void close() {
+		logger.info(String.format("Tree cache: %d hits, %d misses", hits, misses));
+		if (totalBytes <= maxBytes) {
+			return;
+		}
+		List<File> files = listRecords();
+		final List<Long> lastModified = new ArrayList<>(files.size());
+		for (File file : files) {
+			lastModified.add(file.lastModified());
+		}
+		List<Integer> order = new ArrayList<>(files.size());
+		long cacheBytes = 0;
+		for (int i = 0; i < files.size(); i++) {
+			order.add(i);
+			cacheBytes += files.get(i).length();
+		}
+		Collections.sort(order, new Comparator<Integer>() {
+			@Override
+			public int compare(Integer a, Integer b) {
+				return Long.compare(lastModified.get(a), lastModified.get(b));
+			}
+		});
+		int evicted = 0;
+		for (int i : order) {
+			if (cacheBytes <= maxBytes) {
+				break;
+			}
+			cacheBytes -= files.get(i).length();
+			remove(files.get(i));
+			evicted++;
+		}
+		logger.info(String.format("Tree cache: evict %d records, %.1f MB left", evicted,
+				cacheBytes / (1024.0 * 1024.0)));
+	}
+
+	public int getHits() {
+		return hits;
+	}
+
+	public int getMisses() {
+		return misses;
+	}
+
+	// record files of all the fingerprints
+	private List<File> listRecords() {
+		List<File> files = new ArrayList<>();
+		File[] fingerprintDirs = root.listFiles();
+		for (File fingerprintDir : fingerprintDirs == null ? new File[0] : fingerprintDirs) {
+			File[] children = fingerprintDir.listFiles();
+			if (children == null) {
+				continue;
+			}
+			for (File file : children) {
+				if (file.getName().endsWith(SUFFIX)) {
+					files.add(file);
+				}
+			}
+		}
+		return files;
+	}
+
+	private void remove(File file) {
+		long length = file.length();
+		if (file.delete()) {
+			totalBytes -= length;
+		}
+	}
+
+	private static byte[] readAll(InputStream in) throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buf = new byte[8192];
+		int n;
+		while ((n = in.read(buf)) > 0) {
+			out.write(buf, 0, n);
+		}
+		return out.toByteArray();
+	}
+
+	private static String sha1(String s) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(s.getBytes(StandardCharsets.UTF_8));
+			StringBuilder sb = new StringBuilder(digest.length * 2);
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16));
+				sb.append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+}
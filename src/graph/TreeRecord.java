@@ -0,0 +1,381 @@
+package graph;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the writes <code>Graph</code> does to store one tree, recorded so that they
+ * can be replayed without the AST
+ * <p>
+ * Nodes are referred to by their order of creation in the tree, the root
+ * being 0, and binding nodes by their binding key, so a record does not
+ * depend on the sink or on the other trees.
+ * <p>
+ * The encoding is a byte stream of operations. Integers are variable-length,
+ * node references are written as the distance back from the last node
+ * created, and each string is written once and then referred to by its
+ * number.
+ */
+class TreeRecord {
+
+	private static final int END = 0;
+	private static final int NODE = 1;
+	private static final int LABEL = 2;
+	private static final int CLASS = 3;
+	private static final int BINDING = 4;
+	private static final int PROPERTY = 5;
+	private static final int RELATIONSHIP = 6;
+	private static final int DELETE = 7;
+	private static final int TYPE = 8;
+	private static final int SUPERTYPE = 9;
+	private static final int CALL = 10;
+
+	private static final int FALSE = 0;
+	private static final int TRUE = 1;
+	private static final int STRING = 2;
+	private static final int STRING_ARRAY = 3;
+	private static final int INT = 4;
+	private static final int LONG = 5;
+
+	/**
+	 * receiver of the operations of a record, in the order recorded
+	 */
+	interface Handler {
+
+		void createNode();
+
+		void addLabel(int node, String label);
+
+		void classNode(int node);
+
+		void binding(int node, String key, int kind, String name);
+
+		void typeDeclaration(int node, String key);
+
+		void supertype(int node, String key, String type);
+
+		void call(int node, String key, String name, int count);
+
+		void setProperty(int node, String key, Object value);
+
+		void addRelationship(int from, int to, String relName);
+
+		void deleteNode(int node);
+	}
+
+	private byte[] buf = new byte[4096];
+	private int size = 0;
+	private int nodes = 0;
+	private Map<String, Integer> strings = new HashMap<>();
+
+	/**
+	 * @return the number of the node
+	 */
+	public int createNode() {
+		writeInt(NODE);
+		return nodes++;
+	}
+
+	public void addLabel(int node, String label) {
+		writeInt(LABEL);
+		writeNode(node);
+		writeString(label);
+	}
+
+	public void classNode(int node) {
+		writeInt(CLASS);
+		writeNode(node);
+	}
+
+	public void binding(int node, String key, int kind, String name) {
+		writeInt(BINDING);
+		writeNode(node);
+		writeString(key);
+		writeInt(kind);
+		writeString(name);
+	}
+
+	public void typeDeclaration(int node, String key) {
+		writeInt(TYPE);
+		writeNode(node);
+		writeString(key);
+	}
+
+	public void supertype(int node, String key, String type) {
+		writeInt(SUPERTYPE);
+		writeNode(node);
+		writeString(key);
+		writeString(type);
+	}
+
+	public void call(int node, String key, String name, int count) {
+		writeInt(CALL);
+		writeNode(node);
+		writeString(key);
+		writeString(name);
+		writeInt(count);
+	}
+
+	public void setProperty(int node, String key, Object value) {
+		writeInt(PROPERTY);
+		writeNode(node);
+		writeString(key);
+		if (value instanceof Boolean) {
+			writeInt((Boolean) value ? TRUE : FALSE);
+		} else if (value instanceof String) {
+			writeInt(STRING);
+			writeString((String) value);
+		} else if (value instanceof String[]) {
+			String[] array = (String[]) value;
+			writeInt(STRING_ARRAY);
+			writeInt(array.length);
+			for (String s : array) {
+				writeString(s);
+			}
+		} else if (value instanceof Integer) {
+			writeInt(INT);
+			writeLong(zigzag((Integer) value));
+		} else if (value instanceof Long) {
+			writeInt(LONG);
+			writeLong(zigzag((Long) value));
+		} else {
+			throw new IllegalArgumentException("Cannot record property of " + value.getClass().getSimpleName());
+		}
+	}
+
+	public void addRelationship(int from, int to, String relName) {
+		writeInt(RELATIONSHIP);
+		writeNode(from);
+		writeNode(to);
+		writeString(relName);
+	}
+
+	public void deleteNode(int node) {
+		writeInt(DELETE);
+		writeNode(node);
+	}
+
+	public byte[] toBytes() {
+		writeInt(END);
+		return Arrays.copyOf(buf, size);
+	}
+
+	/**
+	 * replay a record
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the bytes are not a record
+	 */
+	public static void replay(byte[] bytes, Handler handler) {
+		new Reader(bytes).replay(handler);
+	}
+
+	/**
+	 * read a record through without replaying it
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the bytes are not a record
+	 */
+	public static void check(byte[] bytes) {
+		replay(bytes, new Handler() {
+			public void createNode() {
+			}
+
+			public void addLabel(int node, String label) {
+			}
+
+			public void classNode(int node) {
+			}
+
+			public void binding(int node, String key, int kind, String name) {
+			}
+
+			public void typeDeclaration(int node, String key) {
+			}
+
+			public void supertype(int node, String key, String type) {
+			}
+
+			public void call(int node, String key, String name, int count) {
+			}
+
+			public void setProperty(int node, String key, Object value) {
+			}
+
+			public void addRelationship(int from, int to, String relName) {
+			}
+
+			public void deleteNode(int node) {
+			}
+		});
+	}
+
+	private void writeNode(int node) {
+		writeInt(nodes - 1 - node);
+	}
+
+	private void writeString(String s) {
+		Integer index = strings.get(s);
+		if (index != null) {
+			writeInt(index + 1);
+			return;
+		}
+		strings.put(s, strings.size());
+		byte[] encoded = s.getBytes(StandardCharsets.UTF_8);
+		writeInt(0);
+		writeInt(encoded.length);
+		ensure(encoded.length);
+		System.arraycopy(encoded, 0, buf, size, encoded.length);
+		size += encoded.length;
+	}
+
+	private void writeInt(int value) {
+		writeLong(value & 0xFFFFFFFFL);
+	}
+
+	private void writeLong(long value) {
+		ensure(10);
+		while ((value & ~0x7FL) != 0) {
+			buf[size++] = (byte) ((value & 0x7F) | 0x80);
+			value >>>= 7;
+		}
+		buf[size++] = (byte) value;
+	}
+
+	private void ensure(int n) {
+		if (size + n > buf.length) {
+			buf = Arrays.copyOf(buf, Math.max(buf.length * 2, size + n));
+		}
+	}
+
+	private static long zigzag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static class Reader {
+
+		private final byte[] bytes;
+		private int pos = 0;
+		private int nodes = 0;
+		private List<String> strings = new ArrayList<>();
+
+		Reader(byte[] bytes) {
+			this.bytes = bytes;
+		}
+
+		void replay(Handler handler) {
+			try {
+				while (true) {
+					int op = readInt();
+					switch (op) {
+					case END:
+						return;
+					case NODE:
+						nodes++;
+						handler.createNode();
+						break;
+					case LABEL:
+						handler.addLabel(readNode(), readString());
+						break;
+					case CLASS:
+						handler.classNode(readNode());
+						break;
+					case BINDING:
+						handler.binding(readNode(), readString(), readInt(), readString());
+						break;
+					case TYPE:
+						handler.typeDeclaration(readNode(), readString());
+						break;
+					case SUPERTYPE:
+						handler.supertype(readNode(), readString(), readString());
+						break;
+					case CALL:
+						handler.call(readNode(), readString(), readString(), readInt());
+						break;
+					case PROPERTY:
+						handler.setProperty(readNode(), readString(), readValue());
+						break;
+					case RELATIONSHIP:
+						handler.addRelationship(readNode(), readNode(), readString());
+						break;
+					case DELETE:
+						handler.deleteNode(readNode());
+						break;
+					default:
+						throw new IllegalArgumentException("Unknown operation " + op);
+					}
+				}
+			} catch (IndexOutOfBoundsException | NegativeArraySizeException e) {
+				throw new IllegalArgumentException("Corrupt record", e);
+			}
+		}
+
+		private Object readValue() {
+			int type = readInt();
+			switch (type) {
+			case FALSE:
+				return false;
+			case TRUE:
+				return true;
+			case STRING:
+				return readString();
+			case STRING_ARRAY:
+				String[] array = new String[readInt()];
+				for (int i = 0; i < array.length; i++) {
+					array[i] = readString();
+				}
+				return array;
+			case INT:
+				return (int) unzigzag(readLong());
+			case LONG:
+				return unzigzag(readLong());
+			default:
+				throw new IllegalArgumentException("Unknown value type " + type);
+			}
+		}
+
+		private int readNode() {
+			int node = nodes - 1 - readInt();
+			if (node < 0 || node >= nodes) {
+				throw new IllegalArgumentException("Unknown node " + node);
+			}
+			return node;
+		}
+
+		private String readString() {
+			int index = readInt();
+			if (index > 0) {
+				return strings.get(index - 1);
+			}
+			int length = readInt();
+			String s = new String(bytes, pos, length, StandardCharsets.UTF_8);
+			pos += length;
+			strings.add(s);
+			return s;
+		}
+
+		private int readInt() {
+			return (int) readLong();
+		}
+
+		private long readLong() {
+			long value = 0;
+			for (int shift = 0;; shift += 7) {
+				byte b = bytes[pos++];
+				value |= (long) (b & 0x7F) << shift;
+				if (b >= 0) {
+					return value;
+				}
+			}
+		}
+
+		private static long unzigzag(long value) {
+			return (value >>> 1) ^ -(value & 1);
+		}
+	}
+
+}
@@ -0,0 +1,155 @@
+package main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.log4j.Logger;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.ResourceIterator;
+
+import ast.ASTCreator;
+import ast.NodeFilter;
+import ast.ParallelASTCreator;
+import ast.Tree;
+import graph.BindingNodeCreator;
+import graph.Graph;
+import graph.GraphSink;
+import neo4j.DatabaseSink;
+import neo4j.Worker;
+
+/**
+ * resolve the bindings of the trees stored without them, i.e. with
+ * <em>RESOLVED</em> false on their root
+ * <p>
+ * The files of these trees are parsed again with bindings, file by file, and
+ * the binding nodes are attached to the nodes already stored (see
+ * <code>Graph.resolveTree()</code>). The writes are committed in chunks like
+ * an import, so the bindings appear as the pass goes, and a pass interrupted
+ * keeps those committed.
+ * <p>
+ * This is a second pass, run by <code>Main</code> in the same process once
+ * the import is done, and not concurrently with it or with readers: the
+ * embedded database stays locked by the process until the pass ends, so the
+ * syntax graph is only queryable from other processes afterwards. Deferring
+ * the bindings makes the import itself faster, not the graph available
+ * sooner.
+ * <p>
+ * A file changed since stored, or missing, is left unresolved until it is
+ * imported again, and so is a tree of a project not known to the worker.
+ */
+public class BindingWorker implements Worker {
+
+	private static Logger logger = Logger.getLogger(BindingWorker.class);
+
+	// directories by project name
+	private final Map<String, String> projectDirs;
+
+	/**
+	 * @param projectDirs
+	 *            directories of the projects to resolve, by project name
+	 */
+	public BindingWorker(Map<String, String> projectDirs) {
+		this.projectDirs = projectDirs;
+	}
+
+	private static class StoredRoot {
+		final long id;
+		final String hash;
+
+		StoredRoot(long id, String hash) {
+			this.id = id;
+			this.hash = hash;
+		}
+	}
+
+	@Override
+	public void work(GraphSink sink) {
+		if (!(sink instanceof DatabaseSink)) {
+			throw new IllegalStateException("Deferred binding resolution needs a database opened with transactions");
+		}
+		GraphDatabaseService db = ((DatabaseSink) sink).getDatabase();
+
+		// unresolved roots by path, by project
+		Map<String, Map<String, StoredRoot>> unresolved = new LinkedHashMap<>();
+		try (ResourceIterator<Node> iter = db.findNodes(DynamicLabel.label("CompilationUnit"), "RESOLVED", false)) {
+			while (iter.hasNext()) {
+				Node root = iter.next();
+				String project = (String) root.getProperty("PROJECT", null);
+				if (!projectDirs.containsKey(project)) {
+					continue;
+				}
+				Map<String, StoredRoot> roots = unresolved.get(project);
+				if (roots == null) {
+					roots = new HashMap<>();
+					unresolved.put(project, roots);
+				}
+				roots.put((String) root.getProperty("PATH"),
+						new StoredRoot(root.getId(), (String) root.getProperty("HASH", null)));
+			}
+		}
+
+		BindingNodeCreator bindings = new BindingNodeCreator(sink);
+		NodeFilter filter = new NodeFilter(Option.STORE_COMMENTS, Option.STORE_MODIFIERS, Option.STORE_NAME_CHILDREN);
+		for (Map.Entry<String, Map<String, StoredRoot>> entry : unresolved.entrySet()) {
+			resolveProject(db, sink, entry.getKey(), entry.getValue(), bindings, filter);
+		}
+		logger.info("Binding resolution finished");
+	}
+
+	private void resolveProject(GraphDatabaseService db, GraphSink sink, String project,
+			Map<String, StoredRoot> roots, BindingNodeCreator bindings, NodeFilter filter) {
+		long start = System.nanoTime();
+		ASTCreator astCreator = StoreWorker.newASTCreator(projectDirs.get(project), true);
+		String prefix = astCreator.getScanner().getProjectDir() + File.separator;
+
+		// only the files unchanged since stored
+		List<String> filepaths = new ArrayList<>();
+		int skipped = 0;
+		for (Map.Entry<String, StoredRoot> entry : roots.entrySet()) {
+			String filepath = prefix + entry.getKey();
+			if (new File(filepath).isFile() && astCreator.getHash(filepath).equals(entry.getValue().hash)) {
+				filepaths.add(filepath);
+			} else {
+				skipped++;
+			}
+		}
+		astCreator.select(filepaths);
+
+		Graph graph = new Graph(sink, filter, null, project, bindings);
+		ParallelASTCreator parallelCreator = null;
+		Iterator<Tree> creator = astCreator;
+		if (Option.PARSER_THREADS > 1) {
+			parallelCreator = new ParallelASTCreator(astCreator, Option.PARSER_THREADS, Option.PARSER_QUEUE_CAPACITY);
+			creator = parallelCreator;
+		}
+		int resolved = 0;
+		try {
+			while (creator.hasNext()) {
+				Tree tree = creator.next();
+				StoredRoot root = roots.get(tree.path);
+				long[] nodes = (long[]) db.getNodeById(root.id).getProperty("NODES");
+				try {
+					graph.resolveTree(tree, root.id, nodes);
+					resolved++;
+				} catch (IllegalArgumentException e) {
+					logger.warn("Fail to resolve the bindings of " + tree.path + ": " + e.getMessage());
+					skipped++;
+				}
+			}
+		} finally {
+			if (parallelCreator != null) {
+				parallelCreator.close();
+			}
+		}
+		logger.info(String.format("Resolve bindings of project %s: %d files in %.0f ms, %d left unresolved", project,
+				resolved, (System.nanoTime() - start) / 1e6, skipped));
+	}
+
+}
@@ -1,11 +1,15 @@
 package main;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.apache.log4j.Logger;
 import org.apache.log4j.PropertyConfigurator;
 
+import metrics.Metrics;
 import neo4j.Neo4j;
+import neo4j.Worker;
 
 public class Main {
 
@@ -22,12 +26,135 @@ public class Main {
 			return;
 		}
 
-		Neo4j neo4j = Neo4j.open(Option.DATABASE_DIR, Neo4j.WRITE);
-		neo4j.run(new StoreWorker());
-		neo4j.close();
+		if (Option.WATCH && Option.BULK_LOAD) {
+			logger.error("Cannot watch a database opened for bulk load.");
+			return;
+		}
+
+		if (Option.INCREMENTAL && Option.BULK_LOAD) {
+			logger.error("Cannot import incrementally into a database opened for bulk load.");
+			return;
+		}
+
+		if (Option.DEFERRED_BINDINGS && Option.BULK_LOAD) {
+			logger.error("Cannot resolve bindings in a database opened for bulk load.");
+			return;
+		}
+
+		if (Option.MEMORY && (Option.BULK_LOAD || Option.INCREMENTAL || Option.WATCH || Option.DEFERRED_BINDINGS)) {
+			logger.error("Cannot keep the graph in memory with bulk load, incremental import, watch or deferred bindings.");
+			return;
+		}
+
+		if (Option.CSV_DIR != null && (Option.BULK_LOAD || Option.MEMORY || Option.INCREMENTAL || Option.WATCH
+				|| Option.DEFERRED_BINDINGS)) {
+			logger.error("Cannot write CSV files with bulk load, memory graph, incremental import, watch or deferred bindings.");
+			return;
+		}
+
+		if (Option.COLUMNAR_DIR != null && (Option.CSV_DIR != null || Option.BULK_LOAD || Option.MEMORY
+				|| Option.INCREMENTAL || Option.WATCH || Option.DEFERRED_BINDINGS)) {
+			logger.error("Cannot write a columnar graph with CSV files, bulk load, memory graph, incremental import, watch or deferred bindings.");
+			return;
+		}
+
+		if (Option.METRICS_JMX) {
+			try {
+				Metrics.get().register();
+			} catch (IllegalStateException e) {
+				logger.warn("Fail to expose the metrics over JMX.", e);
+			}
+		}
+
+		Worker worker = new StoreWorker();
+		// directories by project name, for the deferred bindings
+		Map<String, String> projectDirs = new HashMap<>();
+		if (Option.PROJECTS_MANIFEST != null) {
+			if (Option.WATCH) {
+				logger.error("Cannot watch the projects of a manifest.");
+				return;
+			}
+			try {
+				ProjectManifest manifest = ProjectManifest.read(Option.PROJECTS_MANIFEST);
+				for (ProjectManifest.Entry entry : manifest.getEntries()) {
+					projectDirs.put(entry.getName(), entry.getDirectory());
+				}
+				worker = new ManifestWorker(manifest);
+			} catch (IOException | IllegalArgumentException e) {
+				logger.error("Fail to read the project manifest.", e);
+				return;
+			}
+		} else {
+			projectDirs.put(StoreWorker.projectName(Option.PROJECT_DIR), Option.PROJECT_DIR);
+		}
+
+		int mode = Neo4j.WRITE;
+		String dir = Option.DATABASE_DIR;
+		if (Option.CSV_DIR != null) {
+			mode = Neo4j.CSV;
+			dir = Option.CSV_DIR;
+		} else if (Option.COLUMNAR_DIR != null) {
+			mode = Neo4j.COLUMNAR;
+			dir = Option.COLUMNAR_DIR;
+		} else if (Option.INCREMENTAL) {
+			mode = Neo4j.APPEND;
+		} else if (Option.BULK_LOAD) {
+			mode = Neo4j.BULK;
+		} else if (Option.MEMORY) {
+			mode = Neo4j.MEMORY;
+		}
+		Neo4j neo4j = Neo4j.open(dir, mode);
+		try {
+			neo4j.run(worker);
+			if (Option.DEFERRED_BINDINGS) {
+				// second pass, once the import is done, with the database still locked
+				neo4j.run(new BindingWorker(projectDirs));
+			}
+			if (Option.WATCH) {
+				watch(neo4j);
+			}
+		} catch (IOException e) {
+			logger.error("Fail to watch the project.", e);
+		} finally {
+			neo4j.close();
+			reportMetrics();
+		}
 
 		logger.info("Done.");
 	}
 
+	private static void reportMetrics() {
+		Metrics metrics = Metrics.get();
+		logger.info(String.format("%d files, %d nodes, %d relationships in %.0f ms: %.0f nodes/s, %.0f relationships/s",
+				metrics.getFiles(), metrics.getNodes(), metrics.getRelationships(), metrics.getElapsedMillis(),
+				metrics.getNodesPerSecond(), metrics.getRelationshipsPerSecond()));
+		if (Option.METRICS_REPORT != null) {
+			try {
+				metrics.writeReport(Option.METRICS_REPORT);
+				logger.info("Metrics written to " + Option.METRICS_REPORT);
+			} catch (IOException e) {
+				logger.error("Fail to write the metrics report.", e);
+			}
+		}
+	}
+
+	private static void watch(Neo4j neo4j) throws IOException {
+		final Watcher watcher = new Watcher(neo4j);
+		final Thread mainThread = Thread.currentThread();
+		// on Ctrl-C, let the main thread finish the batch and close the database
+		Runtime.getRuntime().addShutdownHook(new Thread() {
+			@Override
+			public void run() {
+				watcher.stop();
+				try {
+					mainThread.join();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		watcher.watch();
+	}
+
 
 }
@@ -0,0 +1,97 @@
+package main;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+
+import org.apache.log4j.Logger;
+
+import graph.BindingNodeCreator;
+import graph.GraphSink;
+import neo4j.Worker;
+
+/**
+ * store the trees of all the projects of a manifest into the database
+ * <p>
+ * At most <code>Option.PROJECTS_CONCURRENT</code> projects are imported at a
+ * time. Their files are parsed concurrently, the parser threads
+ * (<code>Option.PARSER_THREADS</code>) and the trees parsed ahead
+ * (<code>Option.PARSER_QUEUE_CAPACITY</code>) being shared out among them, so
+ * the threads and the heap used stay bounded whatever the number of projects.
+ * With a single parser thread, as for one project, the files are parsed by
+ * the worker thread, between the trees it stores.
+ * <p>
+ * The trees are stored by the single thread of the worker, which takes a few
+ * trees of each project in turn. Writes from one thread need no locking of
+ * the shared nodes: the binding nodes, created by one
+ * <code>BindingNodeCreator</code> for all the projects, so that a library
+ * type has a single node bound from every project using it.
+ * <p>
+ * Each project has its own project node, named as in the manifest, and its
+ * trees record its name, so that an incremental import of a project only
+ * updates its own trees.
+ */
+public class ManifestWorker implements Worker {
+
+	private static Logger logger = Logger.getLogger(ManifestWorker.class);
+
+	// trees stored from a project before turning to the next one
+	private static final int TREES_PER_TURN = 16;
+
+	private final ProjectManifest manifest;
+
+	public ManifestWorker(ProjectManifest manifest) {
+		this.manifest = manifest;
+	}
+
+	@Override
+	public void work(GraphSink sink) {
+		List<ProjectManifest.Entry> entries = manifest.getEntries();
+		int concurrent = Math.max(1, Math.min(Option.PROJECTS_CONCURRENT, entries.size()));
+		int parserThreads = Option.PARSER_THREADS > 1 ? Math.max(1, Option.PARSER_THREADS / concurrent) : 0;
+		int capacity = Math.max(1, Option.PARSER_QUEUE_CAPACITY / concurrent);
+		if (parserThreads > 0) {
+			logger.info(String.format("Import %d projects, %d at a time with %d parser threads each",
+					entries.size(), concurrent, parserThreads));
+		} else {
+			logger.info(String.format("Import %d projects, %d at a time, parsed by the writer", entries.size(),
+					concurrent));
+		}
+
+		BindingNodeCreator bindings = new BindingNodeCreator(sink);
+		Queue<ProjectManifest.Entry> waiting = new ArrayDeque<>(entries);
+		List<ProjectImport> active = new ArrayList<>();
+		long start = System.nanoTime();
+		try {
+			while (!waiting.isEmpty() || !active.isEmpty()) {
+				while (active.size() < concurrent && !waiting.isEmpty()) {
+					ProjectManifest.Entry entry = waiting.poll();
+					logger.info(String.format("Start project %s in %s", entry.getName(), entry.getDirectory()));
+					ProjectImport project = new ProjectImport(entry.getName(),
+							StoreWorker.newASTCreator(entry.getDirectory()), null, parserThreads, capacity);
+					active.add(project);
+					project.start(sink, bindings);
+				}
+				for (Iterator<ProjectImport> iter = active.iterator(); iter.hasNext();) {
+					ProjectImport project = iter.next();
+					if (!project.storeNext(TREES_PER_TURN)) {
+						iter.remove();
+						project.close();
+						project.connect();
+						logger.info(String.format("Finish project %s, %d left", project.getProjectName(),
+								waiting.size() + active.size()));
+					}
+				}
+			}
+		} finally {
+			for (ProjectImport project : active) {
+				project.close();
+			}
+		}
+
+		logger.info(String.format("Import %d projects in %.0f ms", entries.size(), (System.nanoTime() - start) / 1e6));
+	}
+
+}
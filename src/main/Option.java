@@ -3,15 +3,104 @@ package main;
 import java.io.BufferedReader;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.apache.log4j.Logger;
 
+import ast.ProjectScanner;
+
 public class Option {
 	
 	private static Logger logger = Logger.getLogger(Option.class);
 		
 	public static String DATABASE_DIR = ".\\database";
 	public static String PROJECT_DIR = null;
+	// file listing the projects to import instead of the project directory (see ProjectManifest)
+	public static String PROJECTS_MANIFEST = null;
+	// number of projects of the manifest imported at a time
+	public static int PROJECTS_CONCURRENT = 4;
+	
+	// build a new database offline with BatchInserter, instead of transactions
+	public static boolean BULK_LOAD = false;
+	// keep the graph in memory, with no store until the end of the run
+	public static boolean MEMORY = false;
+	// write the memory graph into the database directory at the end of the run
+	public static boolean MEMORY_PERSIST = true;
+	// directory to write the graph in as CSV files for neo4j-import, instead of a database (none: off)
+	public static String CSV_DIR = null;
+	// directory to write the graph in the columnar format, read with ColumnarGraph, instead of a database (none: off)
+	public static String COLUMNAR_DIR = null;
+	// keep the database, and only re-import changed files
+	public static boolean INCREMENTAL = false;
+	
+	// keep running after the import, and update the trees of changed files
+	public static boolean WATCH = false;
+	// apply changes after no change comes for this long
+	public static int WATCH_DEBOUNCE_MILLIS = 500;
+	// apply changes once this many files have changed
+	public static int WATCH_MAX_BATCH = 200;
+	
+	// globs of the java files to import, relative to the project directory (empty: all)
+	public static List<String> SCAN_INCLUDES = new ArrayList<>();
+	// globs of the files and directories not to import, relative to the project directory
+	public static List<String> SCAN_EXCLUDES = new ArrayList<>();
+	// names of the directories not to explore
+	public static List<String> SCAN_SKIPPED_DIRS = new ArrayList<>(ProjectScanner.DEFAULT_SKIPPED);
+	// do not import the files ignored by .gitignore files
+	public static boolean SCAN_GITIGNORE = true;
+	// parse each Maven or Gradle module with its own classpath and sourcepath
+	public static boolean SCAN_MODULES = true;
+	// number of threads exploring the project directory
+	public static int SCAN_THREADS = Runtime.getRuntime().availableProcessors();
+	
+	// number of threads parsing files ahead of the graph writer (1: parse in the writer)
+	public static int PARSER_THREADS = 1;
+	// maximum number of parsed trees waiting for the graph writer
+	public static int PARSER_QUEUE_CAPACITY = 16;
+	// number of files compiled together with one shared binding environment
+	public static int PARSER_BATCH_SIZE = 1;
+	// resolve bindings while parsing (false: syntax only, several times faster)
+	public static boolean PARSER_BINDINGS = true;
+	// after the import, resolve the bindings of the trees stored without them, in a second pass of the same
+	// process, which keeps the database locked until it ends (not a background pass concurrent with readers)
+	public static boolean DEFERRED_BINDINGS = false;
+	// charset of the java files without byte order mark (null: platform charset)
+	public static String SOURCE_ENCODING = null;
+	
+	// commit the import at the end of a tree after this many operations (non-positive: no limit)
+	public static int TX_MAX_OPERATIONS = 50000;
+	// commit the import at the end of a tree after this many megabytes of transaction state (non-positive: no limit)
+	public static int TX_MAX_MEGABYTES = 64;
+	
+	// store comment nodes (LineComment, BlockComment, Javadoc and its children)
+	public static boolean STORE_COMMENTS = false;
+	// store Modifier nodes, besides the MODIFIERS property of their parents
+	public static boolean STORE_MODIFIERS = false;
+	// store the name children of declarations, types and qualified names, besides the properties of their parents
+	public static boolean STORE_NAME_CHILDREN = false;
+	
+	// store each AST relationship with its role as type (e.g. BODY), instead of type AST and a NAME property;
+	// keep the same setting when appending to an existing database
+	public static boolean TYPED_RELATIONSHIPS = false;
+	// create schema indexes and uniqueness constraints for the keys nodes are looked up by
+	public static boolean SCHEMA_INDEXES = true;
+	
+	// number of recently used binding keys cached as strings, besides the compact binding dictionary
+	public static int BINDING_CACHE_SIZE = 10000;
+	// number of binding keys kept in the compact binding dictionary when appending to a database, which finds
+	// the others through its index; with the other sinks, all the keys of a run are kept
+	public static int BINDING_TABLE_SIZE = 1000000;
+	
+	// directory caching the graph of each parsed file, replayed instead of parsing an unchanged file (null: no cache)
+	public static String PARSE_CACHE_DIR = null;
+	// size the parse cache is evicted down to after each run
+	public static int PARSE_CACHE_MEGABYTES = 1024;
+	
+	// expose the import metrics over JMX while running
+	public static boolean METRICS_JMX = true;
+	// file the import metrics are written to as JSON at the end of the run (null: none)
+	public static String METRICS_REPORT = null;
 	
 	/**
 	 * read from setting file and set all its fields
@@ -38,6 +127,78 @@ public class Option {
 				DATABASE_DIR = value;
 			} else if (name.equals("project.directory")) {
 				PROJECT_DIR = value;
+			} else if (name.equals("projects.manifest")) {
+				PROJECTS_MANIFEST = value;
+			} else if (name.equals("projects.concurrent")) {
+				PROJECTS_CONCURRENT = Integer.parseInt(value);
+			} else if (name.equals("database.bulk")) {
+				BULK_LOAD = Boolean.parseBoolean(value);
+			} else if (name.equals("database.memory")) {
+				MEMORY = Boolean.parseBoolean(value);
+			} else if (name.equals("database.memory.persist")) {
+				MEMORY_PERSIST = Boolean.parseBoolean(value);
+			} else if (name.equals("database.csv")) {
+				CSV_DIR = value;
+			} else if (name.equals("database.columnar")) {
+				COLUMNAR_DIR = value;
+			} else if (name.equals("import.incremental")) {
+				INCREMENTAL = Boolean.parseBoolean(value);
+			} else if (name.equals("watch")) {
+				WATCH = Boolean.parseBoolean(value);
+			} else if (name.equals("watch.debounce.millis")) {
+				WATCH_DEBOUNCE_MILLIS = Integer.parseInt(value);
+			} else if (name.equals("watch.max.batch")) {
+				WATCH_MAX_BATCH = Integer.parseInt(value);
+			} else if (name.equals("scan.includes")) {
+				SCAN_INCLUDES = parseList(value);
+			} else if (name.equals("scan.excludes")) {
+				SCAN_EXCLUDES = parseList(value);
+			} else if (name.equals("scan.skipped.dirs")) {
+				SCAN_SKIPPED_DIRS = parseList(value);
+			} else if (name.equals("scan.gitignore")) {
+				SCAN_GITIGNORE = Boolean.parseBoolean(value);
+			} else if (name.equals("scan.modules")) {
+				SCAN_MODULES = Boolean.parseBoolean(value);
+			} else if (name.equals("scan.threads")) {
+				SCAN_THREADS = Integer.parseInt(value);
+			} else if (name.equals("parser.threads")) {
+				PARSER_THREADS = Integer.parseInt(value);
+			} else if (name.equals("parser.queue.capacity")) {
+				PARSER_QUEUE_CAPACITY = Integer.parseInt(value);
+			} else if (name.equals("parser.batch.size")) {
+				PARSER_BATCH_SIZE = Integer.parseInt(value);
+			} else if (name.equals("parser.bindings")) {
+				PARSER_BINDINGS = Boolean.parseBoolean(value);
+			} else if (name.equals("bindings.deferred")) {
+				DEFERRED_BINDINGS = Boolean.parseBoolean(value);
+			} else if (name.equals("source.encoding")) {
+				SOURCE_ENCODING = value;
+			} else if (name.equals("transaction.max.operations")) {
+				TX_MAX_OPERATIONS = Integer.parseInt(value);
+			} else if (name.equals("transaction.max.megabytes")) {
+				TX_MAX_MEGABYTES = Integer.parseInt(value);
+			} else if (name.equals("store.comments")) {
+				STORE_COMMENTS = Boolean.parseBoolean(value);
+			} else if (name.equals("store.modifiers")) {
+				STORE_MODIFIERS = Boolean.parseBoolean(value);
+			} else if (name.equals("store.name.children")) {
+				STORE_NAME_CHILDREN = Boolean.parseBoolean(value);
+			} else if (name.equals("schema.typed.relationships")) {
+				TYPED_RELATIONSHIPS = Boolean.parseBoolean(value);
+			} else if (name.equals("schema.indexes")) {
+				SCHEMA_INDEXES = Boolean.parseBoolean(value);
+			} else if (name.equals("binding.cache.size")) {
+				BINDING_CACHE_SIZE = Integer.parseInt(value);
+			} else if (name.equals("binding.table.size")) {
+				BINDING_TABLE_SIZE = Integer.parseInt(value);
+			} else if (name.equals("parse.cache.directory")) {
+				PARSE_CACHE_DIR = value;
+			} else if (name.equals("parse.cache.megabytes")) {
+				PARSE_CACHE_MEGABYTES = Integer.parseInt(value);
+			} else if (name.equals("metrics.jmx")) {
+				METRICS_JMX = Boolean.parseBoolean(value);
+			} else if (name.equals("metrics.report")) {
+				METRICS_REPORT = value;
 			} else {
 				logger.warn("Illegal line in setting file: " + line);
 			}
@@ -45,4 +206,15 @@ public class Option {
 		in.close();
 	}
 
+	// comma separated values
+	private static List<String> parseList(String value) {
+		List<String> list = new ArrayList<>();
+		for (String item : value.split(",")) {
+			if (!item.trim().isEmpty()) {
+				list.add(item.trim());
+			}
+		}
+		return list;
+	}
+
 }
@@ -0,0 +1,252 @@
+package main;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+
+import ast.ASTCreator;
+import ast.NodeFilter;
+import ast.ParallelASTCreator;
+import ast.Tree;
+import graph.BindingNodeCreator;
+import graph.Graph;
+import graph.GraphSink;
+import graph.TreeCache;
+import neo4j.DatabaseSink;
+import neo4j.StoredTrees;
+
+/**
+ * the import of one project, step by step, so that a single writer can
+ * interleave the imports of several projects
+ * <p>
+ * <code>start()</code> selects the files to store and stores those cached,
+ * <code>storeNext()</code> stores the next trees, and <code>close()</code>
+ * then <code>connect()</code> end the import.
+ * <p>
+ * With parser threads, the trees are parsed ahead by a
+ * <code>ParallelASTCreator</code>, also while the writer stores the trees of
+ * another project.
+ */
+class ProjectImport {
+
+	private static Logger logger = Logger.getLogger(ProjectImport.class);
+
+	private final String projectName;
+	private final ASTCreator astCreator;
+	private final Collection<String> candidates;
+	private final int parserThreads;
+	private final int capacity;
+
+	private TreeCache cache = null;
+	private Graph graph = null;
+	private ParallelASTCreator parallelCreator = null;
+	private Iterator<Tree> creator = null;
+	private boolean closed = false;
+
+	private int files = 0;
+	private long parseNanos = 0;
+	private long storeNanos = 0;
+
+	/**
+	 * @param projectName
+	 *            name of the project node
+	 * @param candidates
+	 *            absolute paths of the files to update, or <code>null</code>
+	 *            for all the files of the project
+	 * @param parserThreads
+	 *            number of threads parsing ahead, or 0 to parse in the writer
+	 * @param capacity
+	 *            maximum number of trees parsed ahead
+	 */
+	ProjectImport(String projectName, ASTCreator astCreator, Collection<String> candidates, int parserThreads,
+			int capacity) {
+		this.projectName = projectName;
+		this.astCreator = astCreator;
+		this.candidates = candidates;
+		this.parserThreads = parserThreads;
+		this.capacity = capacity;
+	}
+
+	String getProjectName() {
+		return projectName;
+	}
+
+	/**
+	 * select the files to store, and store those cached
+	 *
+	 * @param bindings
+	 *            creator of the binding nodes, which may be shared with the
+	 *            imports of other projects into the same sink
+	 */
+	void start(GraphSink sink, BindingNodeCreator bindings) {
+		if (candidates != null) {
+			selectChangedFiles(sink, bindings, candidates, false);
+		} else if (Option.INCREMENTAL) {
+			selectChangedFiles(sink, bindings, astCreator.getFilePaths(), true);
+		}
+
+		NodeFilter filter = new NodeFilter(Option.STORE_COMMENTS, Option.STORE_MODIFIERS, Option.STORE_NAME_CHILDREN);
+		if (Option.PARSE_CACHE_DIR != null) {
+			cache = new TreeCache(Option.PARSE_CACHE_DIR, astCreator.getEnvironmentHash() + "/" + filter,
+					Option.PARSE_CACHE_MEGABYTES * 1024L * 1024L);
+		}
+		graph = new Graph(sink, filter, cache, projectName, bindings);
+		graph.setModules(astCreator.getModules());
+
+		if (cache != null) {
+			replayCachedTrees();
+		}
+		if (parserThreads > 0) {
+			parallelCreator = new ParallelASTCreator(astCreator, parserThreads, capacity);
+			creator = parallelCreator;
+		} else {
+			creator = astCreator;
+		}
+	}
+
+	/**
+	 * store at most <code>count</code> trees
+	 *
+	 * @return whether trees are left to store
+	 */
+	boolean storeNext(int count) {
+		for (int i = 0; i < count && creator.hasNext(); i++) {
+			long start = System.nanoTime();
+			Tree tree = creator.next();
+			long parsed = System.nanoTime();
+			graph.storeTree(tree);
+			storeNanos += System.nanoTime() - parsed;
+			parseNanos += parsed - start;
+			files++;
+		}
+		return creator.hasNext();
+	}
+
+	/**
+	 * stop parsing and release the cache, whether all the trees are stored or
+	 * not
+	 */
+	void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		if (parallelCreator != null) {
+			parallelCreator.close();
+		}
+		if (cache != null) {
+			cache.close();
+		}
+		if (creator == null) {
+			return;
+		}
+
+		if (parallelCreator != null) {
+			double parseMillis = parallelCreator.getParseMillis();
+			logger.info(String.format("Parse: %d files in %.0f ms on %d threads, %.1f files/s per thread; writer waited %.0f ms",
+					files, parseMillis, parserThreads, rate(files, parseMillis), parallelCreator.getWaitMillis()));
+		} else {
+			logger.info(String.format("Parse: %d files in %.0f ms, %.1f files/s", files, parseNanos / 1e6,
+					rate(files, parseNanos / 1e6)));
+		}
+		logger.info(String.format("Store: %d files in %.0f ms, %.1f files/s", files, storeNanos / 1e6,
+				rate(files, storeNanos / 1e6)));
+	}
+
+	/**
+	 * connect the trees stored to the project node, once closed
+	 */
+	void connect() {
+		graph.connectTrees(astCreator.getModules());
+	}
+
+	/**
+	 * store the trees of the selected files cached, and let the creator create
+	 * only the trees of the others
+	 */
+	private void replayCachedTrees() {
+		long start = System.nanoTime();
+		List<String> uncached = new ArrayList<>();
+		int replayed = 0;
+		for (String filepath : astCreator.getFilePaths()) {
+			String hash = astCreator.getHash(filepath);
+			byte[] record = cache.get(hash);
+			if (record != null) {
+				try {
+					graph.replayTree(astCreator.createUnparsedTree(filepath, hash), record);
+					replayed++;
+					continue;
+				} catch (IllegalArgumentException e) {
+					logger.warn("Fail to replay cached tree of " + filepath, e);
+				}
+			}
+			uncached.add(filepath);
+		}
+		astCreator.select(uncached);
+
+		double millis = (System.nanoTime() - start) / 1e6;
+		logger.info(String.format("Replay: %d cached files in %.0f ms, %.1f files/s; %d files to parse", replayed,
+				millis, rate(replayed, millis), uncached.size()));
+	}
+
+	/**
+	 * delete the stored trees of changed and removed files, and let the
+	 * creator create only the trees of changed and new files
+	 *
+	 * @param bindings
+	 *            where the subtypes of the declarations deleted wait for the
+	 *            new ones
+	 * @param filepaths
+	 *            the candidate files, deleted if no longer existing
+	 * @param all
+	 *            whether the candidates are all the files of the project, so
+	 *            any other stored file is removed
+	 */
+	private void selectChangedFiles(GraphSink sink, BindingNodeCreator bindings, Collection<String> filepaths,
+			boolean all) {
+		if (!(sink instanceof DatabaseSink)) {
+			throw new IllegalStateException("Incremental import needs a database opened in APPEND mode");
+		}
+		StoredTrees stored = new StoredTrees((DatabaseSink) sink, projectName);
+
+		Set<String> removed = all ? new HashSet<>(stored.getPaths()) : new HashSet<String>();
+		List<String> changed = new ArrayList<>();
+		int unchanged = 0;
+		for (String filepath : filepaths) {
+			String path = astCreator.getRelativePath(filepath);
+			if (!all && !new File(filepath).isFile()) {
+				removed.add(path);
+				continue;
+			}
+			removed.remove(path);
+			String hash = stored.getHash(path);
+			if (hash != null && hash.equals(astCreator.getHash(filepath))) {
+				unchanged++;
+				continue;
+			}
+			stored.delete(path);
+			changed.add(filepath);
+		}
+		for (String path : removed) {
+			stored.delete(path);
+		}
+		// connected again once the new declarations are stored
+		for (StoredTrees.DetachedSupertype subtype : stored.getDetachedSupertypes()) {
+			bindings.addSupertype(subtype.node, projectName, subtype.key, subtype.type);
+		}
+		astCreator.select(changed);
+
+		logger.info(String.format("Incremental import: %d unchanged, %d changed or new, %d removed files", unchanged,
+				changed.size(), removed.size()));
+	}
+
+	private static double rate(int count, double millis) {
+		return millis == 0 ? 0 : count * 1000.0 / millis;
+	}
+}
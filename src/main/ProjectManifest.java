@@ -0,0 +1,114 @@
+package main;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * the projects to store into one database, listed in a manifest file
+ * <p>
+ * Each line of the file is the directory of a project, optionally preceded by
+ * the name of its project node and <code>=</code>, e.g.
+ * <code>core = repos/core</code>. The name is by default the last segment of
+ * the directory. Relative directories are relative to the directory of the
+ * manifest. Empty lines and lines starting with <code>#</code> are skipped.
+ * <p>
+ * Project names must be unique, as each project is isolated by its project
+ * node, and hold no <code>/</code>, which separates the name from the rest of
+ * the keys scoped by project, such as those of the modules.
+ */
+public class ProjectManifest {
+
+	/**
+	 * a project of the manifest
+	 */
+	public static class Entry {
+
+		private final String name;
+		private final String directory;
+
+		Entry(String name, String directory) {
+			this.name = name;
+			this.directory = directory;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		/**
+		 * @return absolute path of the project directory
+		 */
+		public String getDirectory() {
+			return directory;
+		}
+	}
+
+	private final List<Entry> entries;
+
+	private ProjectManifest(List<Entry> entries) {
+		this.entries = Collections.unmodifiableList(entries);
+	}
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if a directory does not exist or a name is not unique or
+	 *             holds a <code>/</code>
+	 */
+	public static ProjectManifest read(String filepath) throws IOException {
+		Path base = Paths.get(filepath).toAbsolutePath().getParent();
+		List<Entry> entries = new ArrayList<>();
+		Map<String, String> directories = new HashMap<>();
+		try (BufferedReader reader = new BufferedReader(new FileReader(filepath))) {
+			String line;
+			int lineNumber = 0;
+			while ((line = reader.readLine()) != null) {
+				lineNumber++;
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#")) {
+					continue;
+				}
+				String name = null;
+				String dirPath = line;
+				int eq = line.indexOf('=');
+				if (eq >= 0) {
+					name = line.substring(0, eq).trim();
+					dirPath = line.substring(eq + 1).trim();
+				}
+				Path dir = base.resolve(dirPath).normalize();
+				if (!Files.isDirectory(dir)) {
+					throw new IllegalArgumentException(
+							String.format("%s:%d: no project directory %s", filepath, lineNumber, dir));
+				}
+				if (name == null || name.isEmpty()) {
+					name = dir.getFileName().toString();
+				}
+				if (name.indexOf('/') >= 0) {
+					throw new IllegalArgumentException(String.format("%s:%d: project name '%s' holds a '/'",
+							filepath, lineNumber, name));
+				}
+				String previous = directories.put(name, dir.toString());
+				if (previous != null) {
+					throw new IllegalArgumentException(String.format(
+							"%s:%d: project name '%s' of %s already used by %s", filepath, lineNumber, name, dir,
+							previous));
+				}
+				entries.add(new Entry(name, dir.toString()));
+			}
+		}
+		return new ProjectManifest(entries);
+	}
+
+	public List<Entry> getEntries() {
+		return entries;
+	}
+
+}
@@ -1,31 +1,96 @@
 package main;
 
+import java.io.File;
+import java.util.Collection;
+
 import org.apache.log4j.Logger;
-import org.neo4j.graphdb.GraphDatabaseService;
 
 import ast.ASTCreator;
-import ast.Tree;
-import graph.Graph;
+import ast.ProjectScanner;
+import graph.BindingNodeCreator;
+import graph.GraphSink;
 import neo4j.Worker;
 
+/**
+ * store the trees of the project into the database
+ * <p>
+ * By default all the java files of the project are stored, or with
+ * <code>Option.INCREMENTAL</code>, only those changed since stored.
+ * <p>
+ * A worker may also update only some candidate files with a given creator, as
+ * <code>Watcher</code> does. Candidates unchanged since stored are skipped,
+ * and candidates no longer existing are deleted.
+ * <p>
+ * With <code>Option.PARSE_CACHE_DIR</code>, the selected files whose graph is
+ * cached are stored from the cache first, and only the others are parsed.
+ */
 public class StoreWorker implements Worker {
 
 	private static Logger logger = Logger.getLogger(StoreWorker.class);
+
+	private final ASTCreator astCreator;
+	private final Collection<String> candidates;
+
+	public StoreWorker() {
+		this(null, null);
+	}
+
+	/**
+	 * @param astCreator
+	 *            creator of the project, or <code>null</code> to explore the
+	 *            project
+	 * @param candidates
+	 *            absolute paths of the files to update, or <code>null</code>
+	 *            for all the files of the project
+	 */
+	public StoreWorker(ASTCreator astCreator, Collection<String> candidates) {
+		this.astCreator = astCreator;
+		this.candidates = candidates;
+	}
 	
 	@Override
-	public void work(GraphDatabaseService db) {
-
-		Graph graph = new Graph(db);
+	public void work(GraphSink sink) {
 
-		ASTCreator creator = new ASTCreator(Option.PROJECT_DIR);
-		while (creator.hasNext()) {
-			Tree tree = creator.next();
-			graph.storeTree(tree);
+		ASTCreator astCreator = this.astCreator;
+		if (astCreator == null) {
+			astCreator = newASTCreator(Option.PROJECT_DIR);
+		}
+		ProjectImport project = new ProjectImport(projectName(Option.PROJECT_DIR), astCreator, candidates,
+				Option.PARSER_THREADS > 1 ? Option.PARSER_THREADS : 0, Option.PARSER_QUEUE_CAPACITY);
+		try {
+			project.start(sink, new BindingNodeCreator(sink));
+			project.storeNext(Integer.MAX_VALUE);
+		} finally {
+			project.close();
 		}
 
-		graph.connectTrees();
+		project.connect();
 //		graph.connectTypeRelationships();
 
 		logger.info("Work finished");
 	}
+
+	/**
+	 * @return name of the project node of the project directory
+	 */
+	static String projectName(String projectDir) {
+		return projectDir.substring(projectDir.lastIndexOf(File.separator) + 1);
+	}
+
+	/**
+	 * @return creator of a project, scanned with the options
+	 */
+	static ASTCreator newASTCreator(String projectDir) {
+		return newASTCreator(projectDir, Option.PARSER_BINDINGS);
+	}
+
+	/**
+	 * @param resolveBindings
+	 *            whether to resolve bindings, whatever the options
+	 */
+	static ASTCreator newASTCreator(String projectDir, boolean resolveBindings) {
+		ProjectScanner scanner = new ProjectScanner(projectDir, Option.SCAN_INCLUDES, Option.SCAN_EXCLUDES,
+				Option.SCAN_SKIPPED_DIRS, Option.SCAN_GITIGNORE, Option.SCAN_MODULES, Option.SCAN_THREADS);
+		return new ASTCreator(scanner, Option.PARSER_BATCH_SIZE, Option.SOURCE_ENCODING, resolveBindings);
+	}
 }
@@ -0,0 +1,227 @@
+package main;
+
+import static java.nio.file.StandardWatchEventKinds.ENTRY_CREATE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_DELETE;
+import static java.nio.file.StandardWatchEventKinds.ENTRY_MODIFY;
+import static java.nio.file.StandardWatchEventKinds.OVERFLOW;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+
+import ast.ASTCreator;
+import ast.ProjectScanner;
+import graph.GraphSink;
+import neo4j.DatabaseSink;
+import neo4j.Neo4j;
+import neo4j.StoredTrees;
+import neo4j.Worker;
+
+/**
+ * keep the stored trees of the project up to date while its files change
+ * <p>
+ * All the directories explored by <code>ASTCreator</code>, and those created
+ * later and accepted by its <code>ProjectScanner</code>, are watched. Changes to java files are collected until no change
+ * comes for <code>Option.WATCH_DEBOUNCE_MILLIS</code> (or until
+ * <code>Option.WATCH_MAX_BATCH</code> files or ten debounce periods have
+ * been collected), then the batch is applied by a <code>StoreWorker</code> in
+ * its own run, committed in chunks like an import.
+ * <p>
+ * A path deleted that is not a java file, such as a directory removed or
+ * renamed, queues all the stored files under it, which are then deleted, and
+ * the watch of its directories is cancelled. When events are lost, the whole
+ * project is scanned again, and the stored files no longer found are deleted.
+ * <p>
+ * The classpath and sourcepath stay those found when the watch began.
+ */
+public class Watcher {
+
+	private static Logger logger = Logger.getLogger(Watcher.class);
+
+	private final Neo4j neo4j;
+	private final ASTCreator creator;
+	private final ProjectScanner scanner;
+	private final WatchService watchService;
+
+	private Map<WatchKey, Path> keys = new HashMap<>();
+	private Set<String> pending = new LinkedHashSet<>();
+	private long firstPendingNanos;
+	// relative paths of the stored files, loaded when needed until the next batch
+	private Set<String> storedPaths;
+
+	public Watcher(Neo4j neo4j) throws IOException {
+		this.neo4j = neo4j;
+		this.creator = StoreWorker.newASTCreator(Option.PROJECT_DIR);
+		this.scanner = creator.getScanner();
+		this.watchService = FileSystems.getDefault().newWatchService();
+		for (String dir : creator.getDirectories()) {
+			register(Paths.get(dir));
+		}
+		logger.info(String.format("Watch %d directories under %s", keys.size(), Option.PROJECT_DIR));
+	}
+
+	/**
+	 * watch until interrupted or stopped
+	 */
+	public void watch() throws IOException {
+		long debounceNanos = TimeUnit.MILLISECONDS.toNanos(Option.WATCH_DEBOUNCE_MILLIS);
+		try {
+			while (true) {
+				WatchKey key;
+				if (pending.isEmpty()) {
+					key = watchService.take();
+				} else {
+					key = watchService.poll(Option.WATCH_DEBOUNCE_MILLIS, TimeUnit.MILLISECONDS);
+				}
+
+				if (key != null) {
+					collect(key);
+				}
+				if (!pending.isEmpty() && (key == null || pending.size() >= Option.WATCH_MAX_BATCH
+						|| System.nanoTime() - firstPendingNanos > 10 * debounceNanos)) {
+					apply();
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ClosedWatchServiceException e) {
+			logger.info("Watch stopped");
+		} finally {
+			watchService.close();
+		}
+	}
+
+	/**
+	 * stop watching, after the batch being applied if any
+	 */
+	public void stop() {
+		try {
+			watchService.close();
+		} catch (IOException e) {
+			logger.warn("Fail to close watch service", e);
+		}
+	}
+
+	private void collect(WatchKey key) throws IOException {
+		Path dir = keys.get(key);
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == OVERFLOW) {
+				logger.warn("Watch events lost, update all the files of the project");
+				rescan();
+				continue;
+			}
+			Path child = dir.resolve((Path) event.context());
+			if (event.kind() == ENTRY_CREATE && child.toFile().isDirectory()) {
+				if (scanner.acceptsDirectory(child.toString())) {
+					addDirectory(child.toString());
+				}
+			} else if (scanner.acceptsFile(child.toString())) {
+				add(child.toAbsolutePath().toString());
+			} else if (event.kind() == ENTRY_DELETE) {
+				removeDirectory(child.toAbsolutePath());
+			}
+		}
+		if (!key.reset()) {
+			keys.remove(key);
+		}
+	}
+
+	// register the directories under dir and add their files
+	private void addDirectory(String dir) throws IOException {
+		ProjectScanner.Listing listing = scanner.scan(dir);
+		for (String subdir : listing.getDirectories()) {
+			if (!keys.containsValue(Paths.get(subdir))) {
+				register(Paths.get(subdir));
+			}
+		}
+		for (String filepath : listing.getFilePaths()) {
+			add(filepath);
+		}
+	}
+
+	// cancel the watch of the directories under dir and delete their stored files
+	private void removeDirectory(Path dir) {
+		Iterator<Map.Entry<WatchKey, Path>> iter = keys.entrySet().iterator();
+		while (iter.hasNext()) {
+			Map.Entry<WatchKey, Path> entry = iter.next();
+			if (entry.getValue().toAbsolutePath().startsWith(dir)) {
+				entry.getKey().cancel();
+				iter.remove();
+			}
+		}
+		String prefix = creator.getRelativePath(dir.toString()) + File.separator;
+		for (String path : getStoredPaths()) {
+			if (path.startsWith(prefix)) {
+				add(scanner.getProjectDir() + File.separator + path);
+			}
+		}
+	}
+
+	// add all the files of the project, and the stored files no longer found
+	private void rescan() throws IOException {
+		addDirectory(scanner.getProjectDir());
+		for (String path : getStoredPaths()) {
+			String filepath = scanner.getProjectDir() + File.separator + path;
+			if (!new File(filepath).isFile()) {
+				add(filepath);
+			}
+		}
+	}
+
+	private Set<String> getStoredPaths() {
+		if (storedPaths == null) {
+			final Set<String> paths = new HashSet<>();
+			neo4j.run(new Worker() {
+				@Override
+				public void work(GraphSink sink) {
+					paths.addAll(new StoredTrees((DatabaseSink) sink, StoreWorker.projectName(Option.PROJECT_DIR))
+							.getPaths());
+				}
+			});
+			storedPaths = paths;
+		}
+		return storedPaths;
+	}
+
+	private void apply() {
+		List<String> batch = new ArrayList<>(pending);
+		pending.clear();
+		storedPaths = null;
+		logger.info(String.format("Update %d changed files", batch.size()));
+		try {
+			neo4j.run(new StoreWorker(creator, batch));
+		} catch (RuntimeException e) {
+			// keep watching, the files are updated again on their next change
+			logger.error("Fail to update changed files", e);
+		}
+	}
+
+	private void add(String filepath) {
+		if (pending.isEmpty()) {
+			firstPendingNanos = System.nanoTime();
+		}
+		pending.add(filepath);
+	}
+
+	private void register(Path dir) throws IOException {
+		keys.put(dir.register(watchService, ENTRY_CREATE, ENTRY_MODIFY, ENTRY_DELETE), dir);
+	}
+
+}
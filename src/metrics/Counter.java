@@ -0,0 +1,28 @@
+package metrics;
+
+/**
+ * the counts of an import kept by <code>Metrics</code>
+ */
+public enum Counter {
+
+	// trees stored, parsed or replayed
+	FILES,
+	NODES,
+	RELATIONSHIPS,
+	LABELS,
+	PROPERTIES,
+	DELETIONS,
+	// binding nodes asked for, found in the dictionary, found in the store,
+	// and created
+	BINDING_LOOKUPS,
+	BINDING_DICTIONARY_HITS,
+	BINDING_STORE_HITS,
+	BINDINGS_CREATED;
+
+	/**
+	 * @return the name in the report, e.g. <code>binding_lookups</code>
+	 */
+	public String key() {
+		return name().toLowerCase();
+	}
+}
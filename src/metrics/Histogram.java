@@ -0,0 +1,86 @@
+package metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * durations recorded from several threads, with their total, maximum and
+ * distribution
+ * <p>
+ * The distribution is kept in power-of-two buckets of microseconds, so a
+ * percentile is only known within a factor of two, which is enough to tell a
+ * few slow files from a uniformly slow phase. Recording takes no lock.
+ */
+public class Histogram {
+
+	// bucket i holds durations below 2^i microseconds
+	private static final int BUCKETS = 40;
+
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final LongAdder count = new LongAdder();
+	private final LongAdder totalNanos = new LongAdder();
+	private final AtomicLong maxNanos = new AtomicLong();
+
+	/**
+	 * record a duration, counted once in the distribution however many items
+	 * it is for
+	 *
+	 * @param nanos
+	 *            the duration
+	 * @param items
+	 *            number of items it is for, e.g. the files of a batch
+	 */
+	public void record(long nanos, int items) {
+		count.add(items);
+		totalNanos.add(nanos);
+		long max;
+		while (nanos > (max = maxNanos.get()) && !maxNanos.compareAndSet(max, nanos)) {
+		}
+		long micros = Math.max(0, nanos / 1000);
+		int bucket = Math.min(BUCKETS - 1, 64 - Long.numberOfLeadingZeros(micros));
+		buckets.incrementAndGet(bucket);
+	}
+
+	public long getCount() {
+		return count.sum();
+	}
+
+	public double getTotalMillis() {
+		return totalNanos.sum() / 1e6;
+	}
+
+	public double getMaxMillis() {
+		return maxNanos.get() / 1e6;
+	}
+
+	public double getMeanMillis() {
+		long n = count.sum();
+		return n == 0 ? 0 : totalNanos.sum() / 1e6 / n;
+	}
+
+	/**
+	 * @param percentile
+	 *            between 0 and 100
+	 * @return upper bound of the bucket holding the percentile of the
+	 *         recorded durations, in milliseconds
+	 */
+	public double getPercentileMillis(double percentile) {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += buckets.get(i);
+		}
+		if (total == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += buckets.get(i);
+			if (seen >= rank) {
+				return Math.min((1L << i) / 1e3, getMaxMillis());
+			}
+		}
+		return getMaxMillis();
+	}
+}
@@ -0,0 +1,303 @@
+package metrics;
+
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * timings and counts of an import, kept for the whole process
+ * <p>
+ * The classes of each phase record what they do: the time of each item, e.g.
+ * a file parsed or a commit, into the <code>Histogram</code> of its
+ * <code>Phase</code>, and what it writes into the <code>Counter</code>s.
+ * Recording takes no lock, so parser threads record alongside the writer.
+ * <p>
+ * The figures can be watched over JMX during a run (see
+ * <code>register()</code>) and are reported as JSON at the end of it (see
+ * <code>writeReport()</code>). Rates are per second of the time elapsed since
+ * the start of the process, so they include the phases not timed.
+ */
+public class Metrics implements MetricsMXBean {
+
+	public static final String OBJECT_NAME = "ast2neo4j:type=Metrics";
+
+	private static final Metrics instance = new Metrics();
+
+	private final long startNanos = System.nanoTime();
+	private final Histogram[] phases = new Histogram[Phase.values().length];
+	private final LongAdder[] counters = new LongAdder[Counter.values().length];
+	private final AtomicLong transactionBytes = new AtomicLong();
+	private final AtomicLong maxTransactionBytes = new AtomicLong();
+
+	private Metrics() {
+		for (int i = 0; i < phases.length; i++) {
+			phases[i] = new Histogram();
+		}
+		for (int i = 0; i < counters.length; i++) {
+			counters[i] = new LongAdder();
+		}
+	}
+
+	public static Metrics get() {
+		return instance;
+	}
+
+	/**
+	 * record an item of a phase, timed from <code>start</code> to now
+	 *
+	 * @param start
+	 *            <code>System.nanoTime()</code> at the start of the item
+	 */
+	public void record(Phase phase, long start) {
+		record(phase, start, 1);
+	}
+
+	/**
+	 * record several items of a phase done at once, e.g. the files parsed in
+	 * a batch, timed from <code>start</code> to now
+	 */
+	public void record(Phase phase, long start, int items) {
+		phases[phase.ordinal()].record(System.nanoTime() - start, items);
+	}
+
+	public void count(Counter counter) {
+		counters[counter.ordinal()].increment();
+	}
+
+	public void count(Counter counter, long n) {
+		counters[counter.ordinal()].add(n);
+	}
+
+	/**
+	 * record the estimated state of a transaction being committed
+	 */
+	public void transactionCommitted(long stateBytes) {
+		transactionBytes.set(stateBytes);
+		long max;
+		while (stateBytes > (max = maxTransactionBytes.get()) && !maxTransactionBytes.compareAndSet(max, stateBytes)) {
+		}
+	}
+
+	public Histogram getPhase(Phase phase) {
+		return phases[phase.ordinal()];
+	}
+
+	public long getCount(Counter counter) {
+		return counters[counter.ordinal()].sum();
+	}
+
+	/**
+	 * register the metrics on the platform MBean server, once
+	 *
+	 * @throws IllegalStateException
+	 *             if they cannot be registered
+	 */
+	public synchronized void register() {
+		MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+		try {
+			ObjectName name = new ObjectName(OBJECT_NAME);
+			if (!server.isRegistered(name)) {
+				server.registerMBean(this, name);
+			}
+		} catch (JMException e) {
+			throw new IllegalStateException("Fail to register the metrics over JMX", e);
+		}
+	}
+
+	@Override
+	public double getElapsedMillis() {
+		return (System.nanoTime() - startNanos) / 1e6;
+	}
+
+	@Override
+	public long getFiles() {
+		return getCount(Counter.FILES);
+	}
+
+	@Override
+	public long getNodes() {
+		return getCount(Counter.NODES);
+	}
+
+	@Override
+	public long getRelationships() {
+		return getCount(Counter.RELATIONSHIPS);
+	}
+
+	@Override
+	public double getFilesPerSecond() {
+		return perSecond(getFiles());
+	}
+
+	@Override
+	public double getNodesPerSecond() {
+		return perSecond(getNodes());
+	}
+
+	@Override
+	public double getRelationshipsPerSecond() {
+		return perSecond(getRelationships());
+	}
+
+	private double perSecond(long count) {
+		double millis = getElapsedMillis();
+		return millis <= 0 ? 0 : count * 1000.0 / millis;
+	}
+
+	@Override
+	public double getBindingCacheHitRate() {
+		long lookups = getCount(Counter.BINDING_LOOKUPS);
+		return lookups == 0 ? 0 : (double) getCount(Counter.BINDING_DICTIONARY_HITS) / lookups;
+	}
+
+	@Override
+	public long getCommits() {
+		return getPhase(Phase.COMMIT).getCount();
+	}
+
+	@Override
+	public long getTransactionStateBytes() {
+		return transactionBytes.get();
+	}
+
+	@Override
+	public long getMaxTransactionStateBytes() {
+		return maxTransactionBytes.get();
+	}
+
+	@Override
+	public long getHeapUsedBytes() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	/**
+	 * @return the highest heap use seen by the JVM, summed over the heap
+	 *         pools, which may have peaked at different times
+	 */
+	public long getPeakHeapUsedBytes() {
+		long peak = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null) {
+				peak += pool.getPeakUsage().getUsed();
+			}
+		}
+		return peak;
+	}
+
+	@Override
+	public Map<String, Double> getPhaseMillis() {
+		Map<String, Double> map = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			map.put(phase.key(), getPhase(phase).getTotalMillis());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getPhaseCounts() {
+		Map<String, Long> map = new LinkedHashMap<>();
+		for (Phase phase : Phase.values()) {
+			map.put(phase.key(), getPhase(phase).getCount());
+		}
+		return map;
+	}
+
+	@Override
+	public Map<String, Long> getCounters() {
+		Map<String, Long> map = new LinkedHashMap<>();
+		for (Counter counter : Counter.values()) {
+			map.put(counter.key(), getCount(counter));
+		}
+		return map;
+	}
+
+	@Override
+	public String getReport() {
+		StringBuilder json = new StringBuilder();
+		json.append("{\n");
+		json.append("  \"elapsed_millis\": ").append(number(getElapsedMillis())).append(",\n");
+
+		json.append("  \"phases\": {");
+		String separator = "\n";
+		for (Phase phase : Phase.values()) {
+			Histogram histogram = getPhase(phase);
+			json.append(separator).append("    \"").append(phase.key()).append("\": {");
+			json.append("\"count\": ").append(histogram.getCount());
+			json.append(", \"total_millis\": ").append(number(histogram.getTotalMillis()));
+			json.append(", \"mean_millis\": ").append(number(histogram.getMeanMillis()));
+			json.append(", \"p50_millis\": ").append(number(histogram.getPercentileMillis(50)));
+			json.append(", \"p90_millis\": ").append(number(histogram.getPercentileMillis(90)));
+			json.append(", \"p99_millis\": ").append(number(histogram.getPercentileMillis(99)));
+			json.append(", \"max_millis\": ").append(number(histogram.getMaxMillis()));
+			json.append("}");
+			separator = ",\n";
+		}
+		json.append("\n  },\n");
+
+		json.append("  \"counters\": {");
+		separator = "\n";
+		for (Counter counter : Counter.values()) {
+			json.append(separator).append("    \"").append(counter.key()).append("\": ").append(getCount(counter));
+			separator = ",\n";
+		}
+		json.append("\n  },\n");
+
+		json.append("  \"rates\": {\n");
+		json.append("    \"files_per_second\": ").append(number(getFilesPerSecond())).append(",\n");
+		json.append("    \"nodes_per_second\": ").append(number(getNodesPerSecond())).append(",\n");
+		json.append("    \"relationships_per_second\": ").append(number(getRelationshipsPerSecond())).append(",\n");
+		json.append("    \"binding_cache_hit_rate\": ").append(number(getBindingCacheHitRate())).append("\n");
+		json.append("  },\n");
+
+		json.append("  \"transactions\": {\n");
+		json.append("    \"commits\": ").append(getCommits()).append(",\n");
+		json.append("    \"last_state_bytes\": ").append(getTransactionStateBytes()).append(",\n");
+		json.append("    \"max_state_bytes\": ").append(getMaxTransactionStateBytes()).append("\n");
+		json.append("  },\n");
+
+		MemoryUsage heap = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		json.append("  \"heap\": {\n");
+		json.append("    \"used_bytes\": ").append(heap.getUsed()).append(",\n");
+		json.append("    \"committed_bytes\": ").append(heap.getCommitted()).append(",\n");
+		json.append("    \"max_bytes\": ").append(heap.getMax()).append(",\n");
+		json.append("    \"peak_used_bytes\": ").append(getPeakHeapUsedBytes()).append("\n");
+		json.append("  }\n");
+		json.append("}\n");
+		return json.toString();
+	}
+
+	private static String number(double value) {
+		return String.format(Locale.ROOT, "%.3f", value);
+	}
+
+	/**
+	 * write the report, see <code>getReport()</code>
+	 *
+	 * @param filepath
+	 *            file to write the report in, replaced if it exists
+	 * @throws IOException
+	 *             if the file cannot be written
+	 */
+	public void writeReport(String filepath) throws IOException {
+		try (Writer out = new OutputStreamWriter(Files.newOutputStream(Paths.get(filepath)), StandardCharsets.UTF_8)) {
+			out.write(getReport());
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package metrics;
+
+import java.util.Map;
+
+/**
+ * the figures of <code>Metrics</code> as seen over JMX, under
+ * <code>Metrics.OBJECT_NAME</code>
+ */
+public interface MetricsMXBean {
+
+	double getElapsedMillis();
+
+	long getFiles();
+
+	long getNodes();
+
+	long getRelationships();
+
+	double getFilesPerSecond();
+
+	double getNodesPerSecond();
+
+	double getRelationshipsPerSecond();
+
+	/**
+	 * @return share of the binding lookups answered by the binding
+	 *         dictionary, between 0 and 1
+	 */
+	double getBindingCacheHitRate();
+
+	long getCommits();
+
+	/**
+	 * @return estimated transaction state of the last commit, in bytes
+	 */
+	long getTransactionStateBytes();
+
+	long getMaxTransactionStateBytes();
+
+	long getHeapUsedBytes();
+
+	/**
+	 * @return total time of each phase, in milliseconds, by phase name
+	 */
+	Map<String, Double> getPhaseMillis();
+
+	/**
+	 * @return number of items timed in each phase, by phase name
+	 */
+	Map<String, Long> getPhaseCounts();
+
+	/**
+	 * @return every counter, by counter name
+	 */
+	Map<String, Long> getCounters();
+
+	/**
+	 * @return the whole report, as written at the end of a run
+	 */
+	String getReport();
+
+}
@@ -0,0 +1,42 @@
+package metrics;
+
+/**
+ * the phases of an import timed by <code>Metrics</code>
+ * <p>
+ * Phases may nest: <code>STORE</code> includes the <code>BINDING</code> and
+ * <code>WRITE</code> time of the tree, and <code>WRITE</code> includes the
+ * <code>COMMIT</code> time of the commits it triggers. <code>PARSE</code>
+ * includes the binding resolution done by JDT, and the file reads of a batch.
+ */
+public enum Phase {
+
+	// listing the project directories
+	SCAN,
+	// reading, hashing and decoding a file
+	READ,
+	// parsing a file or batch of files, on a parser thread
+	PARSE,
+	// time the writer waits for the parser threads
+	PARSE_WAIT,
+	// storing a tree from a cached record
+	REPLAY,
+	// storing a tree from its AST
+	STORE,
+	// creating or finding the binding nodes of an AST node
+	BINDING,
+	// writes to the graph sink
+	WRITE,
+	// committing a transaction
+	COMMIT,
+	// connecting the trees to the project and modules
+	CONNECT,
+	// attaching the bindings of a tree stored without them
+	RESOLVE;
+
+	/**
+	 * @return the name in the report, e.g. <code>parse_wait</code>
+	 */
+	public String key() {
+		return name().toLowerCase();
+	}
+}
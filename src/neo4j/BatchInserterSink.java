@@ -0,0 +1,154 @@
+package neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+import graph.GraphSink;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Phase;
+
+/**
+ * <code>GraphSink</code> building a new store offline through Neo4j's
+ * <code>BatchInserter</code>, with no transaction at all
+ * <p>
+ * <code>BatchInserter</code> cannot delete nodes, so the nodes and
+ * relationships of the current tree are buffered in memory and only inserted
+ * on <code>flush()</code>, by when all the deleted nodes are known. Node ids
+ * are assigned by this class, so they can be handed out before the node is
+ * inserted. Ids of deleted nodes are left unused.
+ * <p>
+ * The store is always new, so <code>findNode()</code> finds nothing.
+ * <p>
+ * Writes are counted in <code>Metrics</code> as they are asked for, but only
+ * <code>flush()</code> is timed, which does the inserting.
+ */
+public class BatchInserterSink implements GraphSink {
+
+	private final BatchInserter inserter;
+	private final Metrics metrics = Metrics.get();
+
+	private long nextNodeId = 0;
+	private Map<Long, PendingNode> pendingNodes = new LinkedHashMap<>();
+	private List<PendingRelationship> pendingRelationships = new ArrayList<>();
+
+	public BatchInserterSink(BatchInserter inserter) {
+		this.inserter = inserter;
+	}
+
+	@Override
+	public long createNode() {
+		long id = nextNodeId++;
+		pendingNodes.put(id, new PendingNode());
+		metrics.count(Counter.NODES);
+		return id;
+	}
+
+	@Override
+	public void addLabel(long node, Label label) {
+		metrics.count(Counter.LABELS);
+		PendingNode pending = pendingNodes.get(node);
+		if (pending != null) {
+			pending.labels.add(label);
+			return;
+		}
+		List<Label> labels = new ArrayList<>();
+		for (Label l : inserter.getNodeLabels(node)) {
+			labels.add(l);
+		}
+		labels.add(label);
+		inserter.setNodeLabels(node, labels.toArray(new Label[labels.size()]));
+	}
+
+	@Override
+	public void setProperty(long node, String key, Object value) {
+		metrics.count(Counter.PROPERTIES);
+		PendingNode pending = pendingNodes.get(node);
+		if (pending != null) {
+			pending.properties.put(key, value);
+		} else {
+			inserter.setNodeProperty(node, key, value);
+		}
+	}
+
+	@Override
+	public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+		pendingRelationships.add(new PendingRelationship(from, to, type, properties));
+		metrics.count(Counter.RELATIONSHIPS);
+		if (properties != null) {
+			metrics.count(Counter.PROPERTIES, properties.size());
+		}
+	}
+
+	@Override
+	public void deleteNode(long node) {
+		if (pendingNodes.remove(node) == null) {
+			throw new UnsupportedOperationException("Cannot delete inserted node " + node);
+		}
+		metrics.count(Counter.DELETIONS);
+	}
+
+	@Override
+	public void deleteRelationships(long node, RelationshipType type) {
+
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value) {
+		return -1;
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value, String project) {
+		return -1;
+	}
+
+	@Override
+	public boolean findsCreatedNodes() {
+		return false;
+	}
+
+	@Override
+	public void flush() {
+		long start = System.nanoTime();
+		for (Map.Entry<Long, PendingNode> entry : pendingNodes.entrySet()) {
+			PendingNode pending = entry.getValue();
+			inserter.createNode(entry.getKey(), pending.properties,
+					pending.labels.toArray(new Label[pending.labels.size()]));
+		}
+		pendingNodes.clear();
+
+		for (PendingRelationship rel : pendingRelationships) {
+			inserter.createRelationship(rel.from, rel.to, rel.type, rel.properties);
+		}
+		pendingRelationships.clear();
+		metrics.record(Phase.WRITE, start);
+	}
+
+	private static class PendingNode {
+		List<Label> labels = new ArrayList<>(4);
+		Map<String, Object> properties = new HashMap<>(4);
+	}
+
+	private static class PendingRelationship {
+		final long from;
+		final long to;
+		final RelationshipType type;
+		final Map<String, Object> properties;
+
+		PendingRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+			this.from = from;
+			this.to = to;
+			this.type = type;
+			this.properties = properties;
+		}
+	}
+
+}
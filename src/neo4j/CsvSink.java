@@ -0,0 +1,417 @@
+package neo4j;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.RelationshipType;
+
+import graph.GraphSink;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Phase;
+
+/**
+ * <code>GraphSink</code> writing the graph as the CSV files of
+ * <code>neo4j-import</code>, to build a store offline
+ * <p>
+ * Nodes are written to one file per label, the first label given to the node
+ * (e.g. <code>nodes-Class.csv</code>), with all their labels in the
+ * <code>:LABEL</code> column, and relationships to one file per type (e.g.
+ * <code>relationships-AST.csv</code>). Node ids are handed out by this class in
+ * order, so they are stable integers and the files are imported with
+ * <code>--id-type=INTEGER</code>.
+ * <p>
+ * Like <code>BatchInserterSink</code>, the nodes and relationships of the
+ * current tree are buffered and only written on <code>flush()</code>, so the
+ * nodes deleted before the end of their tree are left out, their ids unused.
+ * A node written cannot be changed any more.
+ * <p>
+ * The columns of a file are those of the properties found in it, in the order
+ * first found, so the header of each file is written apart
+ * (<code>nodes-Class.header.csv</code>) on <code>close()</code>, when they are
+ * all known, and the rows written before a column was found are then given
+ * an empty value for it. The arguments to import all the files are written to
+ * <code>import.args</code>, one per line, with the file names relative to the
+ * directory, to be given as
+ * <code>neo4j-import --into &lt;store&gt; $(cat import.args)</code> from there.
+ * Arrays are written with the default array delimiter <code>;</code>, which
+ * cannot be escaped, so a string array with an element holding it is
+ * rejected. Strings are quoted, as they may span several lines.
+ * <p>
+ * The store is always new, so <code>findNode()</code> finds nothing.
+ */
+public class CsvSink implements GraphSink {
+
+	static final String ARGUMENTS_FILE = "import.args";
+
+	private final File dir;
+	private final Metrics metrics = Metrics.get();
+
+	private long nextNodeId = 0;
+	private Map<Long, PendingNode> pendingNodes = new LinkedHashMap<>();
+	private List<PendingRelationship> pendingRelationships = new ArrayList<>();
+
+	// files by label or relationship type
+	private final Map<String, CsvFile> nodeFiles = new TreeMap<>();
+	private final Map<String, CsvFile> relationshipFiles = new TreeMap<>();
+
+	/**
+	 * @param dir
+	 *            directory to write the files in, created if missing; files
+	 *            of the same names are replaced
+	 */
+	public CsvSink(File dir) {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IllegalStateException("Cannot create directory " + dir);
+		}
+		this.dir = dir;
+	}
+
+	@Override
+	public long createNode() {
+		long id = nextNodeId++;
+		pendingNodes.put(id, new PendingNode());
+		metrics.count(Counter.NODES);
+		return id;
+	}
+
+	@Override
+	public void addLabel(long node, Label label) {
+		pending(node).labels.add(label.name());
+		metrics.count(Counter.LABELS);
+	}
+
+	@Override
+	public void setProperty(long node, String key, Object value) {
+		pending(node).properties.put(key, value);
+		metrics.count(Counter.PROPERTIES);
+	}
+
+	private PendingNode pending(long node) {
+		PendingNode pending = pendingNodes.get(node);
+		if (pending == null) {
+			throw new UnsupportedOperationException("Cannot change written node " + node);
+		}
+		return pending;
+	}
+
+	@Override
+	public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+		pendingRelationships.add(new PendingRelationship(from, to, type.name(), properties));
+		metrics.count(Counter.RELATIONSHIPS);
+		if (properties != null) {
+			metrics.count(Counter.PROPERTIES, properties.size());
+		}
+	}
+
+	@Override
+	public void deleteNode(long node) {
+		if (pendingNodes.remove(node) == null) {
+			throw new UnsupportedOperationException("Cannot delete written node " + node);
+		}
+		metrics.count(Counter.DELETIONS);
+	}
+
+	@Override
+	public void deleteRelationships(long node, RelationshipType type) {
+
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value) {
+		return -1;
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value, String project) {
+		return -1;
+	}
+
+	@Override
+	public boolean findsCreatedNodes() {
+		return false;
+	}
+
+	@Override
+	public void flush() {
+		long start = System.nanoTime();
+		try {
+			for (Map.Entry<Long, PendingNode> entry : pendingNodes.entrySet()) {
+				PendingNode pending = entry.getValue();
+				String label = pending.labels.isEmpty() ? "" : pending.labels.get(0);
+				CsvFile file = nodeFiles.get(label);
+				if (file == null) {
+					file = new CsvFile(label.isEmpty() ? "nodes" : "nodes-" + label, ":ID", ":LABEL");
+					nodeFiles.put(label, file);
+				}
+				file.writeRow(new String[] { Long.toString(entry.getKey()), join(pending.labels) },
+						pending.properties);
+			}
+			pendingNodes.clear();
+
+			for (PendingRelationship rel : pendingRelationships) {
+				CsvFile file = relationshipFiles.get(rel.type);
+				if (file == null) {
+					file = new CsvFile("relationships-" + rel.type, ":START_ID", ":END_ID", ":TYPE");
+					relationshipFiles.put(rel.type, file);
+				}
+				Map<String, Object> properties = rel.properties;
+				if (properties == null) {
+					properties = Collections.emptyMap();
+				}
+				file.writeRow(new String[] { Long.toString(rel.from), Long.toString(rel.to), rel.type }, properties);
+			}
+			pendingRelationships.clear();
+		} catch (IOException e) {
+			throw new UncheckedIOException("Fail to write the CSV files in " + dir, e);
+		}
+		metrics.record(Phase.WRITE, start);
+	}
+
+	/**
+	 * flush, then close the files and write their headers and the import
+	 * arguments
+	 *
+	 * @throws IOException
+	 *             if a file cannot be written
+	 */
+	public void close() throws IOException {
+		flush();
+		StringBuilder arguments = new StringBuilder();
+		arguments.append("--id-type INTEGER\n");
+		arguments.append("--multiline-fields true\n");
+		for (CsvFile file : nodeFiles.values()) {
+			file.close();
+			arguments.append("--nodes ").append(file.getFiles()).append('\n');
+		}
+		for (CsvFile file : relationshipFiles.values()) {
+			file.close();
+			arguments.append("--relationships ").append(file.getFiles()).append('\n');
+		}
+		write(new File(dir, ARGUMENTS_FILE), arguments.toString());
+	}
+
+	/**
+	 * @return number of node files and relationship files written
+	 */
+	public int getFileCount() {
+		return nodeFiles.size() + relationshipFiles.size();
+	}
+
+	private static void write(File file, String content) throws IOException {
+		try (Writer out = new OutputStreamWriter(new FileOutputStream(file), StandardCharsets.UTF_8)) {
+			out.write(content);
+		}
+	}
+
+	private static String join(List<String> values) {
+		StringBuilder sb = new StringBuilder();
+		for (String value : values) {
+			if (sb.length() > 0) {
+				sb.append(';');
+			}
+			sb.append(value);
+		}
+		return sb.toString();
+	}
+
+	/**
+	 * a data file, with the columns found in its rows
+	 */
+	private class CsvFile {
+		final String name;
+		final String[] fixedColumns;
+		final Writer out;
+		// property columns, by key, with their type in the header
+		final Map<String, String> columns = new LinkedHashMap<>();
+		// rows written, in runs of the same number of property columns
+		final List<long[]> runs = new ArrayList<>();
+		final StringBuilder row = new StringBuilder();
+
+		CsvFile(String name, String... fixedColumns) throws IOException {
+			this.name = name;
+			this.fixedColumns = fixedColumns;
+			this.out = new BufferedWriter(new OutputStreamWriter(
+					new FileOutputStream(new File(dir, name + ".csv")), StandardCharsets.UTF_8), 1 << 16);
+		}
+
+		void writeRow(String[] fixedValues, Map<String, Object> properties) throws IOException {
+			for (Map.Entry<String, Object> entry : properties.entrySet()) {
+				if (!columns.containsKey(entry.getKey())) {
+					columns.put(entry.getKey(), typeOf(entry.getValue()));
+				}
+			}
+			row.setLength(0);
+			for (int i = 0; i < fixedValues.length; i++) {
+				if (i > 0) {
+					row.append(',');
+				}
+				row.append(fixedValues[i]);
+			}
+			for (String key : columns.keySet()) {
+				row.append(',');
+				Object value = properties.get(key);
+				if (value != null) {
+					appendValue(row, value);
+				}
+			}
+			row.append('\n');
+			out.write(row.toString());
+
+			long[] run = runs.isEmpty() ? null : runs.get(runs.size() - 1);
+			if (run == null || run[0] != columns.size()) {
+				run = new long[] { columns.size(), 0 };
+				runs.add(run);
+			}
+			run[1]++;
+		}
+
+		void close() throws IOException {
+			out.close();
+			// the columns only grow, so the first rows are the shortest
+			if (!runs.isEmpty() && runs.get(0)[0] < columns.size()) {
+				pad();
+			}
+			StringBuilder header = new StringBuilder();
+			for (String column : fixedColumns) {
+				if (header.length() > 0) {
+					header.append(',');
+				}
+				header.append(column);
+			}
+			for (Map.Entry<String, String> column : columns.entrySet()) {
+				header.append(',').append(column.getKey()).append(column.getValue());
+			}
+			header.append('\n');
+			write(new File(dir, name + ".header.csv"), header.toString());
+		}
+
+		// copy the rows, ending those written before a column was found with
+		// empty values for it
+		private void pad() throws IOException {
+			File data = new File(dir, name + ".csv");
+			File padded = new File(dir, name + ".csv.tmp");
+			try (Reader in = new BufferedReader(
+					new InputStreamReader(new FileInputStream(data), StandardCharsets.UTF_8), 1 << 16);
+					Writer copy = new BufferedWriter(
+							new OutputStreamWriter(new FileOutputStream(padded), StandardCharsets.UTF_8), 1 << 16)) {
+				boolean quoted = false;
+				int run = 0;
+				long rows = 0;
+				int c;
+				while ((c = in.read()) >= 0) {
+					if (c == '"') {
+						// doubled quotes inside a value toggle twice
+						quoted = !quoted;
+					} else if (c == '\n' && !quoted) {
+						for (long i = runs.get(run)[0]; i < columns.size(); i++) {
+							copy.write(',');
+						}
+						if (++rows == runs.get(run)[1]) {
+							run++;
+							rows = 0;
+						}
+					}
+					copy.write(c);
+				}
+			}
+			Files.move(padded.toPath(), data.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+
+		String getFiles() {
+			return name + ".header.csv," + name + ".csv";
+		}
+	}
+
+	// type suffix of the column of a value in the header
+	private static String typeOf(Object value) {
+		if (value instanceof String[]) {
+			return ":string[]";
+		} else if (value instanceof long[]) {
+			return ":long[]";
+		} else if (value instanceof Boolean) {
+			return ":boolean";
+		} else if (value instanceof Integer) {
+			return ":int";
+		} else if (value instanceof Long) {
+			return ":long";
+		}
+		return "";
+	}
+
+	private static void appendValue(StringBuilder sb, Object value) {
+		if (value instanceof String[]) {
+			for (String element : (String[]) value) {
+				if (element.indexOf(';') >= 0) {
+					throw new IllegalArgumentException(
+							"Cannot write array element '" + element + "' holding the array delimiter ';'");
+				}
+			}
+			appendQuoted(sb, join(Arrays.asList((String[]) value)));
+		} else if (value instanceof long[]) {
+			long[] array = (long[]) value;
+			for (int i = 0; i < array.length; i++) {
+				if (i > 0) {
+					sb.append(';');
+				}
+				sb.append(array[i]);
+			}
+		} else if (value instanceof Boolean || value instanceof Integer || value instanceof Long) {
+			sb.append(value);
+		} else {
+			appendQuoted(sb, String.valueOf(value));
+		}
+	}
+
+	private static void appendQuoted(StringBuilder sb, String value) {
+		sb.append('"');
+		for (int i = 0; i < value.length(); i++) {
+			char c = value.charAt(i);
+			if (c == '"') {
+				sb.append('"');
+			}
+			sb.append(c);
+		}
+		sb.append('"');
+	}
+
+	private static class PendingNode {
+		List<String> labels = new ArrayList<>(4);
+		Map<String, Object> properties = new LinkedHashMap<>(4);
+	}
+
+	private static class PendingRelationship {
+		final long from;
+		final long to;
+		final String type;
+		final Map<String, Object> properties;
+
+		PendingRelationship(long from, long to, String type, Map<String, Object> properties) {
+			this.from = from;
+			this.to = to;
+			this.type = type;
+			this.properties = properties;
+		}
+	}
+
+}
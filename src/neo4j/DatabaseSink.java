@@ -0,0 +1,159 @@
+package neo4j;
+
+import java.util.Map;
+
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.RelationshipType;
+import org.neo4j.graphdb.ResourceIterator;
+
+import graph.GraphSink;
+import graph.NodeLabel;
+import graph.RelType;
+import metrics.Counter;
+import metrics.Metrics;
+import metrics.Phase;
+
+/**
+ * <code>GraphSink</code> writing into an embedded database through its
+ * transactional API
+ * <p>
+ * Every write is reported to a <code>TransactionManager</code>, and is counted
+ * and timed in <code>Metrics</code>. <code>flush()</code>, at the end of each
+ * tree, is where the manager may commit.
+ * <p>
+ * If the database was empty when opened, there is no node of a previous run
+ * to find, and <code>findNode()</code> returns -1 without a lookup.
+ * Otherwise, the index lookups also see the nodes created in this run,
+ * committed or not, so <code>findsCreatedNodes()</code>.
+ */
+public class DatabaseSink implements GraphSink {
+
+	private final GraphDatabaseService db;
+	private final TransactionManager txManager;
+	private final boolean empty;
+	private final Metrics metrics = Metrics.get();
+
+	public DatabaseSink(GraphDatabaseService db, TransactionManager txManager, boolean empty) {
+		this.db = db;
+		this.txManager = txManager;
+		this.empty = empty;
+	}
+
+	public GraphDatabaseService getDatabase() {
+		return db;
+	}
+
+	public TransactionManager getTransactionManager() {
+		return txManager;
+	}
+
+	@Override
+	public long createNode() {
+		long start = System.nanoTime();
+		long id = db.createNode().getId();
+		txManager.nodeCreated();
+		metrics.count(Counter.NODES);
+		metrics.record(Phase.WRITE, start);
+		return id;
+	}
+
+	@Override
+	public void addLabel(long node, Label label) {
+		long start = System.nanoTime();
+		db.getNodeById(node).addLabel(label);
+		txManager.labelAdded();
+		metrics.count(Counter.LABELS);
+		metrics.record(Phase.WRITE, start);
+	}
+
+	@Override
+	public void setProperty(long node, String key, Object value) {
+		long start = System.nanoTime();
+		db.getNodeById(node).setProperty(key, value);
+		txManager.propertySet(value);
+		metrics.count(Counter.PROPERTIES);
+		metrics.record(Phase.WRITE, start);
+	}
+
+	@Override
+	public void createRelationship(long from, long to, RelationshipType type, Map<String, Object> properties) {
+		long start = System.nanoTime();
+		Relationship rel = db.getNodeById(from).createRelationshipTo(db.getNodeById(to), type);
+		txManager.relationshipCreated();
+		metrics.count(Counter.RELATIONSHIPS);
+		if (properties != null) {
+			for (Map.Entry<String, Object> entry : properties.entrySet()) {
+				rel.setProperty(entry.getKey(), entry.getValue());
+				txManager.propertySet(entry.getValue());
+			}
+			metrics.count(Counter.PROPERTIES, properties.size());
+		}
+		metrics.record(Phase.WRITE, start);
+	}
+
+	@Override
+	public void deleteNode(long node) {
+		long start = System.nanoTime();
+		db.getNodeById(node).delete();
+		txManager.nodeDeleted();
+		metrics.count(Counter.DELETIONS);
+		metrics.record(Phase.WRITE, start);
+	}
+
+	@Override
+	public void deleteRelationships(long node, RelationshipType type) {
+		if (empty) {
+			return;
+		}
+		long start = System.nanoTime();
+		for (Relationship rel : db.getNodeById(node).getRelationships(Direction.OUTGOING, type)) {
+			rel.delete();
+			txManager.relationshipDeleted();
+			metrics.count(Counter.DELETIONS);
+		}
+		metrics.record(Phase.WRITE, start);
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value) {
+		if (empty) {
+			return -1;
+		}
+		Node node = db.findNode(label, key, value);
+		return node == null ? -1 : node.getId();
+	}
+
+	@Override
+	public long findNode(Label label, String key, Object value, String project) {
+		if (empty) {
+			return -1;
+		}
+		try (ResourceIterator<Node> iter = db.findNodes(label, key, value)) {
+			while (iter.hasNext()) {
+				Node node = iter.next();
+				for (Relationship rel : node.getRelationships(Direction.INCOMING, RelType.CLASSES)) {
+					Node owner = rel.getStartNode();
+					if (owner.hasLabel(NodeLabel.Project) && project.equals(owner.getProperty("NAME", null))) {
+						return node.getId();
+					}
+				}
+			}
+		}
+		return -1;
+	}
+
+	@Override
+	public boolean findsCreatedNodes() {
+		return !empty;
+	}
+
+	@Override
+	public void flush() {
+		txManager.boundary();
+	}
+
+}
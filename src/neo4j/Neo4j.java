@@ -1,20 +1,45 @@
 package neo4j;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
 
 import org.apache.log4j.Logger;
 import org.neo4j.graphdb.GraphDatabaseService;
-import org.neo4j.graphdb.Transaction;
 import org.neo4j.graphdb.factory.GraphDatabaseFactory;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+import org.neo4j.unsafe.batchinsert.BatchInserters;
+
+import columnar.ColumnarSink;
+import graph.MemorySink;
+import main.Option;
+import metrics.Metrics;
 
 public class Neo4j {
 
 	private static Logger logger = Logger.getLogger(Neo4j.class);
 
+	private final String dir;
 	private final GraphDatabaseService db;
+	private final BatchInserter inserter;
+	private final MemorySink memory;
+	private final CsvSink csv;
+	private final ColumnarSink columnar;
+	// whether nothing has been stored yet
+	private boolean empty;
+	// whether the schema indexes are created, or not wanted
+	private boolean indexed = !Option.SCHEMA_INDEXES;
 
 	public static final int WRITE = 0;
 	public static final int APPEND = 1;
+	public static final int BULK = 2;
+	public static final int MEMORY = 3;
+	public static final int CSV = 4;
+	public static final int COLUMNAR = 5;
+
+	// nodes or relationships written between two flushes when persisting
+	// the memory graph
+	private static final int PERSIST_BATCH = 100000;
 
 	/**
 	 * open embedded database server under the path <code>dir</code>, in the
@@ -23,25 +48,78 @@ public class Neo4j {
 	 * If database opened in mode <code>APPEND</code>, the original data under
 	 * the path will be reserved. In mode <code>WRITE</code>, all the original
 	 * data will be cleared.
+	 * <p>
+	 * Mode <code>BULK</code> clears the original data like <code>WRITE</code>,
+	 * but builds the new store offline through <code>BatchInserter</code>
+	 * instead of transactions. It is much faster, but the store can only be
+	 * read after <code>close()</code>.
+	 * <p>
+	 * Mode <code>MEMORY</code> keeps the graph in a <code>MemorySink</code>
+	 * (see <code>getMemoryGraph()</code>) and touches no store until
+	 * <code>close()</code>, which writes it into a new store in
+	 * <code>dir</code> through <code>BatchInserter</code> if
+	 * <code>Option.MEMORY_PERSIST</code>, or else drops it. The writes are then
+	 * counted twice in <code>Metrics</code>, into memory and into the store.
+	 * <p>
+	 * Mode <code>CSV</code> opens no database, but writes the graph into the
+	 * directory <code>dir</code> as the CSV files of
+	 * <code>neo4j-import</code> (see <code>CsvSink</code>), to build the store offline.
+	 * Mode <code>COLUMNAR</code> likewise writes the graph into
+	 * <code>dir</code> in the columnar format of <code>ColumnarSink</code>, to
+	 * be read with <code>ColumnarGraph</code> without Neo4j.
 	 * 
 	 * @param dir
 	 *            the database directory path
 	 * @param mode
 	 *            database opening mode (<code>WRITE</code> /
-	 *            <code>APPEND</code>)
+	 *            <code>APPEND</code> / <code>BULK</code> /
+	 *            <code>MEMORY</code> / <code>CSV</code> /
+	 *            <code>COLUMNAR</code>)
 	 * @return <code>Neo4j</code> class instance
 	 */
 	public static Neo4j open(String dir, int mode) {
-		if (mode == WRITE) {
+		if (mode == MEMORY) {
+			logger.info("Graph kept in memory");
+			return new Neo4j(dir, null, null, new MemorySink(), null, null, mode);
+		}
+		if (mode == CSV) {
+			logger.info("Graph written as CSV files in " + dir);
+			return new Neo4j(dir, null, null, null, new CsvSink(new File(dir)), null, mode);
+		}
+		if (mode == COLUMNAR) {
+			logger.info("Graph written in columnar format in " + dir);
+			return new Neo4j(dir, null, null, null, null, new ColumnarSink(new File(dir)), mode);
+		}
+		if (mode == WRITE || mode == BULK) {
 			deleteDirectory(new File(dir));
 		}
+		if (mode == BULK) {
+			BatchInserter inserter = BatchInserters.inserter(dir);
+			logger.info("Database opened for bulk load in " + dir);
+			return new Neo4j(dir, null, inserter, null, null, null, mode);
+		}
 		GraphDatabaseService db = new GraphDatabaseFactory().newEmbeddedDatabase(dir);
 		logger.info("Database opened in " + dir);
-		return new Neo4j(db);
+		return new Neo4j(dir, db, null, null, null, null, mode);
 	}
 
-	private Neo4j(GraphDatabaseService db) {
+	private Neo4j(String dir, GraphDatabaseService db, BatchInserter inserter, MemorySink memory, CsvSink csv,
+			ColumnarSink columnar, int mode) {
+		this.dir = dir;
 		this.db = db;
+		this.inserter = inserter;
+		this.memory = memory;
+		this.csv = csv;
+		this.columnar = columnar;
+		this.empty = mode != APPEND;
+	}
+
+	/**
+	 * @return the graph of a database opened in mode <code>MEMORY</code>, or
+	 *         <code>null</code>
+	 */
+	public MemorySink getMemoryGraph() {
+		return memory;
 	}
 
 	private static boolean deleteDirectory(File dir) {
@@ -62,20 +140,132 @@ public class Neo4j {
 	 * This method calls the <code>workFor</code> method of <code>worker</code>.
 	 * Under the normal usage, all the work for database are written in
 	 * <code>workFor</code> method.
+	 * <p>
+	 * The work is not done in one transaction. The worker reports its writes
+	 * to a <code>TransactionManager</code>, which commits at the end of the
+	 * first tree after <code>Option.TX_MAX_OPERATIONS</code> operations or
+	 * <code>Option.TX_MAX_MEGABYTES</code> megabytes of transaction state. If
+	 * the worker fails, only the trees since the last commit are rolled back.
+	 * <p>
+	 * With <code>Option.SCHEMA_INDEXES</code>, the schema indexes are created
+	 * before the work if the database holds data to look up, or else after the
+	 * work, so that a new store is indexed once rather than during the import.
 	 * 
 	 */
 	public void run(Worker worker) {
-		try (Transaction tx = db.beginTx()) {
-			worker.work(db);
-			tx.success();
+		if (memory != null) {
+			worker.work(memory);
+			logger.info(String.format("Memory graph: %d nodes, %d relationships, ~%.1f MB of arrays",
+					memory.getNodeCount(), memory.getRelationshipCount(), memory.getArrayBytes() / (1024.0 * 1024.0)));
+			return;
+		}
+		if (csv != null) {
+			worker.work(csv);
+			csv.flush();
+			return;
+		}
+		if (columnar != null) {
+			worker.work(columnar);
+			columnar.flush();
+			return;
+		}
+		if (inserter != null) {
+			runBulk(worker);
+			return;
+		}
+		if (!empty) {
+			createIndexes();
+		}
+		TransactionManager txManager = new TransactionManager(db, Option.TX_MAX_OPERATIONS, Option.TX_MAX_MEGABYTES);
+		txManager.begin();
+		try {
+			worker.work(new DatabaseSink(db, txManager, empty));
+			txManager.commit();
+		} finally {
+			txManager.close();
+			empty = false;
+		}
+		logger.info(String.format("%d commits, %.1f ms on average, %.1f ms at most",
+				txManager.getCommitCount(), txManager.getAverageCommitMillis(), txManager.getMaxCommitMillis()));
+		Metrics metrics = Metrics.get();
+		logger.info(String.format("Transaction state at most ~%d KB, heap %.0f MB used",
+				metrics.getMaxTransactionStateBytes() / 1024, metrics.getHeapUsedBytes() / (1024.0 * 1024.0)));
+		createIndexes();
+	}
+
+	private void createIndexes() {
+		if (!indexed) {
+			SchemaIndexes.create(db);
+			indexed = true;
+		}
+	}
+
+	private void runBulk(Worker worker) {
+		BatchInserterSink sink = new BatchInserterSink(inserter);
+		worker.work(sink);
+		sink.flush();
+
+		// deferred indexes are populated once, on shutdown, when all data is in
+		if (!indexed) {
+			SchemaIndexes.createDeferred(inserter);
+			indexed = true;
 		}
 	}
 
+	// write the memory graph into a new store
+	private void persist() {
+		long start = System.nanoTime();
+		deleteDirectory(new File(dir));
+		BatchInserter inserter = BatchInserters.inserter(dir);
+		try {
+			memory.copyTo(new BatchInserterSink(inserter), PERSIST_BATCH);
+			if (Option.SCHEMA_INDEXES) {
+				SchemaIndexes.createDeferred(inserter);
+			}
+		} finally {
+			inserter.shutdown();
+		}
+		logger.info(String.format("Memory graph written to %s in %.0f ms", dir, (System.nanoTime() - start) / 1e6));
+	}
+
 	/**
 	 * close the opened database
 	 */
 	public void close() {
-		db.shutdown();
+		if (memory != null) {
+			if (Option.MEMORY_PERSIST) {
+				persist();
+			}
+			logger.info("Memory graph released");
+			return;
+		}
+		if (csv != null) {
+			try {
+				csv.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Fail to write the CSV headers in " + dir, e);
+			}
+			logger.info(String.format(
+					"%d CSV files written in %s, to import from there with neo4j-import --into <store> $(cat %s)",
+					csv.getFileCount(), dir, CsvSink.ARGUMENTS_FILE));
+			return;
+		}
+		if (columnar != null) {
+			try {
+				columnar.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException("Fail to write the columnar graph in " + dir, e);
+			}
+			logger.info(String.format("Columnar graph written in %s: %d nodes, %d relationships, %.1f MB of dictionaries",
+					dir, columnar.getNodeCount(), columnar.getRelationshipCount(),
+					columnar.getDictionaryBytes() / (1024.0 * 1024.0)));
+			return;
+		}
+		if (inserter != null) {
+			inserter.shutdown();
+		} else {
+			db.shutdown();
+		}
 		logger.info("Database closed");
 	}
 
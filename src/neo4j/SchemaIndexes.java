@@ -0,0 +1,128 @@
+package neo4j;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.log4j.Logger;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Transaction;
+import org.neo4j.graphdb.schema.ConstraintDefinition;
+import org.neo4j.graphdb.schema.IndexDefinition;
+import org.neo4j.graphdb.schema.Schema;
+import org.neo4j.unsafe.batchinsert.BatchInserter;
+
+import graph.NodeLabel;
+
+/**
+ * schema indexes and uniqueness constraints on the keys nodes are looked up by
+ * <ul>
+ * <li><code>Binding</code> <em>KEY</em>, unique
+ * <li><code>Project</code> <em>NAME</em>, unique
+ * <li><code>Module</code> <em>KEY</em>, unique
+ * <li><code>Class</code> <em>NAME</em> and <em>KEY</em>
+ * <li><code>CompilationUnit</code> <em>FILENAME</em> and <em>PATH</em>
+ * </ul>
+ * An index or constraint already on the label and key, of either kind, is
+ * kept as it is.
+ * <p>
+ * <code>create()</code> waits until the indexes are online, so the lookups
+ * following it are index-backed. <code>createDeferred()</code> only declares
+ * them to a <code>BatchInserter</code>, which populates them once on shutdown.
+ */
+public class SchemaIndexes {
+
+	private static Logger logger = Logger.getLogger(SchemaIndexes.class);
+
+	private static final long AWAIT_MINUTES = 30;
+
+	private static final Key[] KEYS = {
+			new Key(NodeLabel.Binding, "KEY", true),
+			new Key(NodeLabel.Project, "NAME", true),
+			new Key(NodeLabel.Module, "KEY", true),
+			new Key(DynamicLabel.label("Class"), "NAME", false),
+			new Key(DynamicLabel.label("Class"), "KEY", false),
+			new Key(DynamicLabel.label("CompilationUnit"), "FILENAME", false),
+			new Key(DynamicLabel.label("CompilationUnit"), "PATH", false),
+	};
+
+	private static class Key {
+		final Label label;
+		final String property;
+		final boolean unique;
+
+		Key(Label label, String property, boolean unique) {
+			this.label = label;
+			this.property = property;
+			this.unique = unique;
+		}
+	}
+
+	/**
+	 * create the missing indexes and constraints, and wait until all of them
+	 * are online
+	 */
+	public static void create(GraphDatabaseService db) {
+		long start = System.nanoTime();
+		int created = 0;
+		try (Transaction tx = db.beginTx()) {
+			Schema schema = db.schema();
+			for (Key key : KEYS) {
+				if (exists(schema, key)) {
+					continue;
+				}
+				if (key.unique) {
+					schema.constraintFor(key.label).assertPropertyIsUnique(key.property).create();
+				} else {
+					schema.indexFor(key.label).on(key.property).create();
+				}
+				created++;
+			}
+			tx.success();
+		}
+		try (Transaction tx = db.beginTx()) {
+			db.schema().awaitIndexesOnline(AWAIT_MINUTES, TimeUnit.MINUTES);
+			tx.success();
+		}
+		logger.info(String.format("Schema: %d indexes created, all online in %.0f ms", created,
+				(System.nanoTime() - start) / 1e6));
+	}
+
+	/**
+	 * declare all the indexes and constraints to a new store
+	 */
+	public static void createDeferred(BatchInserter inserter) {
+		for (Key key : KEYS) {
+			if (key.unique) {
+				inserter.createDeferredConstraint(key.label).assertPropertyIsUnique(key.property).create();
+			} else {
+				inserter.createDeferredSchemaIndex(key.label).on(key.property).create();
+			}
+		}
+		logger.info(String.format("Schema: %d indexes deferred until shutdown", KEYS.length));
+	}
+
+	private static boolean exists(Schema schema, Key key) {
+		for (IndexDefinition index : schema.getIndexes(key.label)) {
+			if (isOn(index.getPropertyKeys(), key.property)) {
+				return true;
+			}
+		}
+		for (ConstraintDefinition constraint : schema.getConstraints(key.label)) {
+			if (isOn(constraint.getPropertyKeys(), key.property)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static boolean isOn(Iterable<String> propertyKeys, String property) {
+		for (String key : propertyKeys) {
+			if (key.equals(property)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+}
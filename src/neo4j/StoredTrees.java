@@ -0,0 +1,233 @@
+package neo4j;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.log4j.Logger;
+import org.neo4j.graphdb.Direction;
+import org.neo4j.graphdb.DynamicLabel;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Label;
+import org.neo4j.graphdb.Node;
+import org.neo4j.graphdb.NotFoundException;
+import org.neo4j.graphdb.Relationship;
+import org.neo4j.graphdb.ResourceIterator;
+
+import graph.NodeLabel;
+import graph.RelType;
+
+/**
+ * the trees of a project stored in a database by previous runs, by the
+ * <em>PATH</em> of their file
+ * <p>
+ * The trees of other projects are told apart by the <em>PROJECT</em> of their
+ * root. A tree without it, stored before projects were recorded, is taken as
+ * of any project.
+ * <p>
+ * A tree is deleted with all the nodes listed in <em>NODES</em> of its root,
+ * and their relationships, including <code>CLASSES</code> relationships from
+ * the project node. Binding nodes no longer bound to or called by any node are
+ * deleted as well, so that the bindings in the database stay those of the stored trees.
+ * The <code>EXTENDS</code> and <code>IMPLEMENTS</code> relationships from the
+ * trees kept to a type declaration deleted are kept as detached supertypes
+ * (see <code>getDetachedSupertypes()</code>), to be connected again to the
+ * declaration stored in its place.
+ * <p>
+ * Deletions are reported to the <code>TransactionManager</code> of the sink,
+ * so that a big change is committed in chunks like an import.
+ */
+public class StoredTrees {
+
+	private static Logger logger = Logger.getLogger(StoredTrees.class);
+
+	private static final Label COMPILATION_UNIT = DynamicLabel.label("CompilationUnit");
+
+	private final GraphDatabaseService db;
+	private final TransactionManager txManager;
+	private final String project;
+
+	// root ids by path, once all the trees are loaded
+	private Map<String, Long> roots = null;
+	private List<DetachedSupertype> detached = new ArrayList<>();
+
+	/**
+	 * @param project
+	 *            name of the project node
+	 */
+	public StoredTrees(DatabaseSink sink, String project) {
+		this.db = sink.getDatabase();
+		this.txManager = sink.getTransactionManager();
+		this.project = project;
+	}
+
+	private boolean isOfProject(Node root) {
+		Object name = root.getProperty("PROJECT", null);
+		return name == null || name.equals(project);
+	}
+
+	private void loadAll() {
+		roots = new HashMap<>();
+		try (ResourceIterator<Node> iter = db.findNodes(COMPILATION_UNIT)) {
+			while (iter.hasNext()) {
+				Node root = iter.next();
+				if (!isOfProject(root)) {
+					continue;
+				}
+				check(root);
+				roots.put((String) root.getProperty("PATH"), root.getId());
+			}
+		}
+		logger.info(String.format("Found %d stored trees", roots.size()));
+	}
+
+	private static void check(Node root) {
+		if (!root.hasProperty("PATH") || !root.hasProperty("NODES")) {
+			throw new IllegalStateException(String.format(
+					"Tree '%s' stored without PATH or NODES, re-import in WRITE mode first",
+					root.getProperty("FILENAME", "")));
+		}
+	}
+
+	/**
+	 * @return paths of all the stored files, which are loaded at the first
+	 *         call
+	 */
+	public Set<String> getPaths() {
+		if (roots == null) {
+			loadAll();
+		}
+		return roots.keySet();
+	}
+
+	private Node findRoot(String path) {
+		if (roots != null) {
+			Long id = roots.get(path);
+			return id == null ? null : db.getNodeById(id);
+		}
+		try (ResourceIterator<Node> iter = db.findNodes(COMPILATION_UNIT, "PATH", path)) {
+			while (iter.hasNext()) {
+				Node root = iter.next();
+				if (isOfProject(root)) {
+					check(root);
+					return root;
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return hash of the stored file content, or <code>null</code> if the
+	 *         file is not stored
+	 */
+	public String getHash(String path) {
+		Node root = findRoot(path);
+		return root == null ? null : (String) root.getProperty("HASH", null);
+	}
+
+	/**
+	 * delete the tree of the file, if stored
+	 */
+	public void delete(String path) {
+		Node rootNode = findRoot(path);
+		if (rootNode == null) {
+			return;
+		}
+		if (roots != null) {
+			roots.remove(path);
+		}
+		long root = rootNode.getId();
+
+		long[] nodes = (long[]) db.getNodeById(root).getProperty("NODES");
+		Set<Long> treeNodes = new HashSet<>();
+		for (long id : nodes) {
+			treeNodes.add(id);
+		}
+		Set<Long> bindings = new HashSet<>();
+		for (long id : nodes) {
+			Node node;
+			try {
+				node = db.getNodeById(id);
+			} catch (NotFoundException e) {
+				continue;
+			}
+			for (Relationship rel : node.getRelationships(Direction.OUTGOING, RelType.BINDING, RelType.CALLS)) {
+				bindings.add(rel.getEndNode().getId());
+			}
+			detachSubtypes(node, treeNodes);
+			detachDelete(node);
+		}
+		// subtypes detached from the trees deleted before, and deleted now
+		for (int i = detached.size() - 1; i >= 0; i--) {
+			if (treeNodes.contains(detached.get(i).node)) {
+				detached.remove(i);
+			}
+		}
+
+		for (long id : bindings) {
+			Node binding = db.getNodeById(id);
+			if (binding.hasLabel(NodeLabel.Binding) && !binding.hasRelationship(Direction.INCOMING)) {
+				detachDelete(binding);
+			}
+		}
+		logger.info(String.format("Delete tree '%s'", path));
+		txManager.boundary();
+	}
+
+	private void detachSubtypes(Node node, Set<Long> treeNodes) {
+		String key = (String) node.getProperty("KEY", null);
+		if (key == null || node.hasLabel(NodeLabel.Binding)) {
+			return;
+		}
+		for (Relationship rel : node.getRelationships(Direction.INCOMING, RelType.EXTENDS, RelType.IMPLEMENTS)) {
+			long subtype = rel.getStartNode().getId();
+			if (!treeNodes.contains(subtype)) {
+				detached.add(new DetachedSupertype(subtype, key, RelType.valueOf(rel.getType().name())));
+			}
+		}
+	}
+
+	/**
+	 * @return the supertype relationships from the trees kept to the type
+	 *         declarations deleted so far
+	 */
+	public List<DetachedSupertype> getDetachedSupertypes() {
+		return detached;
+	}
+
+	/**
+	 * a supertype relationship deleted with the declaration of the supertype
+	 */
+	public static class DetachedSupertype {
+		// the declaration of the subtype
+		public final long node;
+		// binding key of the supertype
+		public final String key;
+		public final RelType type;
+
+		DetachedSupertype(long node, String key, RelType type) {
+			this.node = node;
+			this.key = key;
+			this.type = type;
+		}
+	}
+
+	private void detachDelete(Node node) {
+		// collect first, the transaction manager may commit between deletions
+		List<Relationship> rels = new ArrayList<>();
+		for (Relationship rel : node.getRelationships()) {
+			rels.add(rel);
+		}
+		for (Relationship rel : rels) {
+			rel.delete();
+			txManager.relationshipDeleted();
+		}
+		node.delete();
+		txManager.nodeDeleted();
+	}
+
+}
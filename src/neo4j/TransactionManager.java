@@ -0,0 +1,237 @@
+package neo4j;
+
+import org.apache.log4j.Logger;
+import org.neo4j.graphdb.GraphDatabaseService;
+import org.neo4j.graphdb.Transaction;
+
+import metrics.Metrics;
+import metrics.Phase;
+
+/**
+ * split a long-running write job into a chain of bounded transactions
+ * <p>
+ * Every write reports itself to the manager (<code>nodeCreated()</code>,
+ * <code>propertySet()</code>, ...). Once the current transaction holds
+ * <code>maxOperations</code> operations, or its estimated state exceeds
+ * <code>maxStateMegabytes</code>, a commit is due, and it is done at the next
+ * <code>boundary()</code>, where the store is consistent: the end of a tree,
+ * whose root then has its <em>PATH</em>, <em>HASH</em> and <em>NODES</em>, or
+ * of the deletion of a tree. Memory used by transaction state therefore stays
+ * bounded however big the project is, give or take one tree, and a failure
+ * only rolls back the uncommitted trees, leaving a store an incremental
+ * import can go on from.
+ * <p>
+ * Neo4j keeps no accessible figure for the size of transaction state, so the
+ * size is estimated from the kind of operation and the property values.
+ * <p>
+ * Since a commit can happen at any boundary, callers must not keep
+ * <code>Node</code> objects across trees when they only need to refer to the
+ * node later; keep its id and call
+ * <code>GraphDatabaseService.getNodeById()</code> instead.
+ */
+public class TransactionManager {
+
+	private static Logger logger = Logger.getLogger(TransactionManager.class);
+
+	// rough in-memory cost of each kind of change in transaction state
+	private static final long NODE_BYTES = 200;
+	private static final long RELATIONSHIP_BYTES = 200;
+	private static final long LABEL_BYTES = 40;
+	private static final long PROPERTY_BYTES = 80;
+	private static final long DELETE_BYTES = 60;
+
+	private final GraphDatabaseService db;
+	private final int maxOperations;
+	private final long maxStateBytes;
+
+	private Transaction tx;
+	private int operations;
+	private long stateBytes;
+	// whether the limits were reached, so that the next boundary commits
+	private boolean commitDue;
+
+	private int commits;
+	private long lastCommitNanos;
+	private long totalCommitNanos;
+	private long maxCommitNanos;
+
+	/**
+	 * @param db
+	 *            the database to write in
+	 * @param maxOperations
+	 *            commit after this number of operations, or no limit if not
+	 *            positive
+	 * @param maxStateMegabytes
+	 *            commit after the estimated transaction state reaches this
+	 *            size, or no limit if not positive
+	 */
+	public TransactionManager(GraphDatabaseService db, int maxOperations, int maxStateMegabytes) {
+		this.db = db;
+		this.maxOperations = maxOperations > 0 ? maxOperations : Integer.MAX_VALUE;
+		this.maxStateBytes = maxStateMegabytes > 0 ? maxStateMegabytes * 1024L * 1024L : Long.MAX_VALUE;
+	}
+
+	/**
+	 * begin a new transaction
+	 */
+	public void begin() {
+		if (tx != null) {
+			throw new IllegalStateException("Transaction already begun");
+		}
+		tx = db.beginTx();
+		operations = 0;
+		stateBytes = 0;
+		commitDue = false;
+	}
+
+	/**
+	 * commit the current transaction, leaving no transaction open
+	 */
+	public void commit() {
+		if (tx == null) {
+			throw new IllegalStateException("No transaction to commit");
+		}
+		long start = System.nanoTime();
+		try {
+			tx.success();
+			tx.close();
+		} finally {
+			tx = null;
+		}
+		long elapsed = System.nanoTime() - start;
+		Metrics.get().record(Phase.COMMIT, start);
+		Metrics.get().transactionCommitted(stateBytes);
+
+		commits++;
+		lastCommitNanos = elapsed;
+		totalCommitNanos += elapsed;
+		maxCommitNanos = Math.max(maxCommitNanos, elapsed);
+		logger.debug(String.format("Commit #%d: %d operations, ~%d KB, %.1f ms", commits, operations,
+				stateBytes / 1024, elapsed / 1e6));
+	}
+
+	/**
+	 * commit the current transaction and begin the next one
+	 */
+	public void commitAndBegin() {
+		commit();
+		begin();
+	}
+
+	/**
+	 * mark a point where the store is consistent, and commit there if a
+	 * commit is due
+	 */
+	public void boundary() {
+		if (commitDue) {
+			commitAndBegin();
+		}
+	}
+
+	/**
+	 * close the manager, rolling back the current transaction if it is not
+	 * committed
+	 */
+	public void close() {
+		if (tx != null) {
+			logger.warn(String.format("Roll back uncommitted transaction of %d operations", operations));
+			try {
+				tx.close();
+			} finally {
+				tx = null;
+			}
+		}
+	}
+
+	public void nodeCreated() {
+		operation(NODE_BYTES);
+	}
+
+	public void relationshipCreated() {
+		operation(RELATIONSHIP_BYTES);
+	}
+
+	public void labelAdded() {
+		operation(LABEL_BYTES);
+	}
+
+	public void propertySet(Object value) {
+		operation(PROPERTY_BYTES + estimateSize(value));
+	}
+
+	public void nodeDeleted() {
+		operation(DELETE_BYTES);
+	}
+
+	public void relationshipDeleted() {
+		operation(DELETE_BYTES);
+	}
+
+	private void operation(long bytes) {
+		operations++;
+		stateBytes += bytes;
+		if (operations >= maxOperations || stateBytes >= maxStateBytes) {
+			commitDue = true;
+		}
+	}
+
+	private static long estimateSize(Object value) {
+		if (value instanceof String) {
+			return 2L * ((String) value).length();
+		}
+		if (value instanceof String[]) {
+			long size = 0;
+			for (String s : (String[]) value) {
+				size += 16 + 2L * s.length();
+			}
+			return size;
+		}
+		// primitive arrays, e.g. the NODES of a tree root, one id per node
+		if (value instanceof long[]) {
+			return 8L * ((long[]) value).length;
+		}
+		if (value instanceof double[]) {
+			return 8L * ((double[]) value).length;
+		}
+		if (value instanceof int[]) {
+			return 4L * ((int[]) value).length;
+		}
+		if (value instanceof float[]) {
+			return 4L * ((float[]) value).length;
+		}
+		if (value instanceof short[]) {
+			return 2L * ((short[]) value).length;
+		}
+		if (value instanceof char[]) {
+			return 2L * ((char[]) value).length;
+		}
+		if (value instanceof byte[]) {
+			return ((byte[]) value).length;
+		}
+		if (value instanceof boolean[]) {
+			return ((boolean[]) value).length;
+		}
+		return 8;
+	}
+
+	public int getCommitCount() {
+		return commits;
+	}
+
+	public double getLastCommitMillis() {
+		return lastCommitNanos / 1e6;
+	}
+
+	public double getMaxCommitMillis() {
+		return maxCommitNanos / 1e6;
+	}
+
+	public double getTotalCommitMillis() {
+		return totalCommitNanos / 1e6;
+	}
+
+	public double getAverageCommitMillis() {
+		return commits == 0 ? 0 : totalCommitNanos / 1e6 / commits;
+	}
+
+}
@@ -1,7 +1,7 @@
 package neo4j;
 
-import org.neo4j.graphdb.GraphDatabaseService;
+import graph.GraphSink;
 
 public interface Worker {
-	void work(GraphDatabaseService db);
+	void work(GraphSink sink);
 }